@@ -0,0 +1,86 @@
+package proj.zoie.api;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * Base class for {@link DocIDMapper} implementations, adds a bulk lookup that maps batches one uid
+ * at a time unless overridden. DocIDMapper itself has no bulk lookup so that existing
+ * implementations keep compiling, callers use {@link #getDocIDs(DocIDMapper, long[], int[])}.
+ */
+public abstract class AbstractDocIDMapper implements DocIDMapper {
+
+    /**
+     * maps a batch of uids to lucene docids
+     *
+     * @param uids UIDs to be mapped, {@link ZoieSegmentReader#DELETED_UID} entries are ignored and
+     *             the array is left unchanged
+     * @param out  receives the docids found, in ascending order without duplicates, must be at
+     *             least as long as uids
+     * @return number of docids written to out
+     */
+    public int getDocIDs(long[] uids, int[] out) {
+        return getDocIDsOneByOne(this, uids, out);
+    }
+
+    /**
+     * maps a batch of uids with the bulk lookup of the mapper if it has one, one uid at a time
+     * otherwise
+     *
+     * @see #getDocIDs(long[], int[])
+     */
+    public static int getDocIDs(DocIDMapper mapper, long[] uids, int[] out) {
+        if (mapper instanceof AbstractDocIDMapper) {
+            return ((AbstractDocIDMapper) mapper).getDocIDs(uids, out);
+        }
+        return getDocIDsOneByOne(mapper, uids, out);
+    }
+
+    private static int getDocIDsOneByOne(DocIDMapper mapper, long[] uids, int[] out) {
+        int count = 0;
+        for (long uid : uids) {
+            if (uid != ZoieSegmentReader.DELETED_UID) {
+                int docid = mapper.getDocID(uid);
+                if (docid != NOT_FOUND) {
+                    out[count++] = docid;
+                }
+            }
+        }
+        return sortUnique(out, count);
+    }
+
+    /**
+     * sorts the first count entries of docids and removes duplicates
+     *
+     * @return the number of distinct docids
+     */
+    protected static int sortUnique(int[] docids, int count) {
+        if (count <= 1) {
+            return count;
+        }
+        Arrays.sort(docids, 0, count);
+        int n = 1;
+        for (int i = 1; i < count; ++i) {
+            if (docids[i] != docids[n - 1]) {
+                docids[n++] = docids[i];
+            }
+        }
+        return n;
+    }
+}
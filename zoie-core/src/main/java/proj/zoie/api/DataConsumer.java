@@ -29,8 +29,14 @@ public interface DataConsumer<D> {
      * Data event abstraction.
      */
     public static class DataEvent<D> {
+        /**
+         * long version of events created with a String version
+         */
+        public static final long NO_LONG_VERSION = -1L;
+
         private final D _data;
         private final String _version;
+        private final long _longVersion;
         // This will override ZoieIndexable.isDeleted()
         private boolean _delete = false;
 
@@ -43,6 +49,7 @@ public interface DataConsumer<D> {
         public DataEvent(D data, String version) {
             _data = data;
             _version = version;
+            _longVersion = NO_LONG_VERSION;
         }
 
         /**
@@ -55,9 +62,57 @@ public interface DataConsumer<D> {
         public DataEvent(D data, String version, boolean del) {
             _data = data;
             _version = version;
+            _longVersion = NO_LONG_VERSION;
             _delete = del;
         }
 
+        /**
+         * Create a data event instance with a numeric version. The String version is the
+         * decimal representation of the number, events compared with the default version
+         * comparator are compared on the number directly.
+         *
+         * @param data    Data for the event
+         * @param version ZoieVersion of the event, must not be negative
+         */
+        public DataEvent(D data, long version) {
+            this(data, version, false);
+        }
+
+        /**
+         * Create a data event instance with a numeric version.
+         *
+         * @param data    Data for the event
+         * @param version ZoieVersion of the event, must not be negative
+         * @param del     Is this event a delete event
+         */
+        public DataEvent(D data, long version, boolean del) {
+            if (version < 0) {
+                throw new IllegalArgumentException("negative version: " + version);
+            }
+            _data = data;
+            _version = String.valueOf(version);
+            _longVersion = version;
+            _delete = del;
+        }
+
+        private DataEvent(D data, String version, long longVersion, boolean del) {
+            _data = data;
+            _version = version;
+            _longVersion = longVersion;
+            _delete = del;
+        }
+
+        /**
+         * Creates an event carrying other data with the versions of this event, the numeric
+         * version included.
+         *
+         * @param data Data for the new event
+         * @param del  Is the new event a delete event
+         */
+        public <T> DataEvent<T> copy(T data, boolean del) {
+            return new DataEvent<T>(data, _version, _longVersion, del);
+        }
+
         /**
          * Gets the version.
          *
@@ -67,6 +122,16 @@ public interface DataConsumer<D> {
             return _version;
         }
 
+        /**
+         * Gets the numeric version.
+         *
+         * @return the version the event was created with, {@link #NO_LONG_VERSION} if it was
+         *         created with a String version
+         */
+        public long getLongVersion() {
+            return _longVersion;
+        }
+
         /**
          * Gets the data.
          *
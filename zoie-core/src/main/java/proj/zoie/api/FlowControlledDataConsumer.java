@@ -0,0 +1,39 @@
+package proj.zoie.api;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * A DataConsumer that grants credits to its producers, one credit per event it can take without
+ * blocking in {@link #consume(java.util.Collection)}. Producers fetch at most as many events as
+ * they hold credits, so that they slow down with the downstream indexers instead of stalling in
+ * consume or buffering unbounded amounts of events.
+ */
+public interface FlowControlledDataConsumer<D> extends DataConsumer<D> {
+    /**
+     * @return number of events that can be consumed without blocking, 0 if none
+     */
+    int getCredits();
+
+    /**
+     * Waits until credits are available.
+     *
+     * @param timeout max time to wait in ms
+     * @return number of available credits, 0 if the wait timed out
+     */
+    int awaitCredits(long timeout) throws InterruptedException;
+}
@@ -0,0 +1,317 @@
+package proj.zoie.api;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Size bounded cache of filter results per segment. An entry is keyed by the filter, the core of
+ * the segment and the {@link ZoieSegmentReader#getDeleteGeneration() delete generation} of the
+ * ZoieSegmentReader it was computed on, so it is reused by every reader over the same segment with
+ * the same deletes: disk segments keep their entries across RAM index flips and reader refreshes,
+ * and only segments with new deletes recompute them. Entries of a segment are dropped when its
+ * core is closed.
+ * <p>
+ * Filters are cached through {@link #wrap(Filter)}, the wrapped filter must implement equals and
+ * hashCode.
+ */
+public class SegmentFilterCache {
+    public static enum EvictionPolicy {
+        /**
+         * evicts the least recently used entry
+         */
+        LRU,
+        /**
+         * evicts the least frequently used entry
+         */
+        LFU
+    }
+
+    private final long _maxBytes;
+    private final EvictionPolicy _evictionPolicy;
+    // access ordered, the eldest entry is the least recently used one
+    private final LinkedHashMap<CacheKey, Entry> _entries = new LinkedHashMap<CacheKey, Entry>(16,
+            0.75f, true);
+    // cores the close listener is registered with
+    private final Set<Object> _listenedCores = new HashSet<Object>();
+    private final SegmentReader.CoreClosedListener _coreClosedListener = new SegmentReader.CoreClosedListener() {
+        @Override
+        public void onClose(SegmentReader owner) {
+            coreClosed(owner.getCoreCacheKey());
+        }
+    };
+    private long _bytes = 0;
+    private long _hits = 0;
+    private long _misses = 0;
+    private long _evictions = 0;
+
+    /**
+     * @param maxBytes       bound on the memory used by the cached doc id sets
+     * @param evictionPolicy entry to evict once the bound is reached
+     */
+    public SegmentFilterCache(long maxBytes, EvictionPolicy evictionPolicy) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        _maxBytes = maxBytes;
+        _evictionPolicy = evictionPolicy;
+    }
+
+    /**
+     * @return a filter returning the results of the given filter through this cache
+     */
+    public Filter wrap(Filter filter) {
+        return new CachingFilter(filter, this);
+    }
+
+    private synchronized DocIdSet get(CacheKey key) {
+        Entry entry = _entries.get(key);
+        if (entry == null) {
+            ++_misses;
+            return null;
+        }
+        ++_hits;
+        ++entry._hits;
+        return entry._docIdSet;
+    }
+
+    private synchronized void put(CacheKey key, FixedBitSet docIdSet, SegmentReader segmentReader) {
+        long bytes = sizeOf(docIdSet);
+        if (bytes > _maxBytes || _entries.containsKey(key)) {
+            return;
+        }
+        while (_bytes + bytes > _maxBytes && !_entries.isEmpty()) {
+            evict();
+        }
+        _entries.put(key, new Entry(docIdSet, bytes));
+        _bytes += bytes;
+        if (_listenedCores.add(key._coreKey)) {
+            // drop the entries of the core once it is closed
+            segmentReader.addCoreClosedListener(_coreClosedListener);
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<CacheKey, Entry>> iter = _entries.entrySet().iterator();
+        Map.Entry<CacheKey, Entry> victim = iter.next();
+        if (_evictionPolicy == EvictionPolicy.LFU) {
+            // ties go to the least recently used
+            while (iter.hasNext()) {
+                Map.Entry<CacheKey, Entry> candidate = iter.next();
+                if (candidate.getValue()._hits < victim.getValue()._hits) {
+                    victim = candidate;
+                }
+            }
+        }
+        _bytes -= victim.getValue()._bytes;
+        _entries.remove(victim.getKey());
+        ++_evictions;
+    }
+
+    /**
+     * drops the entries of the given segment core
+     */
+    public synchronized void purge(Object coreKey) {
+        Iterator<Map.Entry<CacheKey, Entry>> iter = _entries.entrySet().iterator();
+        while (iter.hasNext()) {
+            Map.Entry<CacheKey, Entry> entry = iter.next();
+            if (entry.getKey()._coreKey == coreKey) {
+                _bytes -= entry.getValue()._bytes;
+                iter.remove();
+            }
+        }
+    }
+
+    private synchronized void coreClosed(Object coreKey) {
+        purge(coreKey);
+        // the listener is gone with the core
+        _listenedCores.remove(coreKey);
+    }
+
+    /**
+     * @return number of segment cores the cache is listening to
+     */
+    public synchronized int getListenedCoreCount() {
+        return _listenedCores.size();
+    }
+
+    public synchronized void clear() {
+        _entries.clear();
+        _bytes = 0;
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    public synchronized long getBytes() {
+        return _bytes;
+    }
+
+    public synchronized long getHits() {
+        return _hits;
+    }
+
+    public synchronized long getMisses() {
+        return _misses;
+    }
+
+    public synchronized long getEvictions() {
+        return _evictions;
+    }
+
+    /**
+     * @return hits over lookups, 0 before the first lookup
+     */
+    public synchronized double getHitRate() {
+        long lookups = _hits + _misses;
+        return lookups == 0 ? 0.0 : (double) _hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SegmentFilterCache[entries: " + _entries.size() + ", bytes: " + _bytes + ", hits: "
+                + _hits + ", misses: " + _misses + ", evictions: " + _evictions + "]";
+    }
+
+    private static long sizeOf(FixedBitSet docIdSet) {
+        return 8L * docIdSet.getBits().length + 32;
+    }
+
+    private static final class CacheKey {
+        private final Filter _filter;
+        private final Object _coreKey;
+        private final long _deleteGeneration;
+
+        CacheKey(Filter filter, Object coreKey, long deleteGeneration) {
+            _filter = filter;
+            _coreKey = coreKey;
+            _deleteGeneration = deleteGeneration;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return _coreKey == other._coreKey && _deleteGeneration == other._deleteGeneration
+                    && _filter.equals(other._filter);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = _filter.hashCode();
+            h = 31 * h + System.identityHashCode(_coreKey);
+            return 31 * h + (int) (_deleteGeneration ^ (_deleteGeneration >>> 32));
+        }
+    }
+
+    private static final class Entry {
+        private final FixedBitSet _docIdSet;
+        private final long _bytes;
+        private long _hits = 0;
+
+        Entry(FixedBitSet docIdSet, long bytes) {
+            _docIdSet = docIdSet;
+            _bytes = bytes;
+        }
+    }
+
+    private static final class CachingFilter extends Filter {
+        private final Filter _filter;
+        private final SegmentFilterCache _cache;
+
+        CachingFilter(Filter filter, SegmentFilterCache cache) {
+            _filter = filter;
+            _cache = cache;
+        }
+
+        @Override
+        public DocIdSet getDocIdSet(AtomicReaderContext context, Bits acceptDocs) throws IOException {
+            AtomicReader reader = context.reader();
+            if (!(reader instanceof ZoieSegmentReader<?>)) {
+                return _filter.getDocIdSet(context, acceptDocs);
+            }
+            ZoieSegmentReader<?> zoieReader = (ZoieSegmentReader<?>) reader;
+            SegmentReader segmentReader = (SegmentReader) zoieReader.getInnerReader();
+            // liveDocs and generation are read as one, so the entry matches the deletes applied
+            ZoieSegmentReader.LiveDocsGeneration live = zoieReader.getLiveDocsGeneration();
+            long deleteGeneration = live._generation;
+            Bits liveDocs = live._bits != null ? live._bits : segmentReader.getLiveDocs();
+            CacheKey key = new CacheKey(_filter, segmentReader.getCoreCacheKey(), deleteGeneration);
+
+            DocIdSet docIdSet = _cache.get(key);
+            if (docIdSet == null) {
+                // cached with the deletes of the segment applied
+                FixedBitSet bits = toBitSet(_filter.getDocIdSet(context, liveDocs), reader.maxDoc());
+                _cache.put(key, bits, segmentReader);
+                docIdSet = bits;
+            }
+            if (acceptDocs == null || acceptDocs == liveDocs) {
+                return docIdSet;
+            }
+            return BitsFilteredDocIdSet.wrap(docIdSet, acceptDocs);
+        }
+
+        private static FixedBitSet toBitSet(DocIdSet docIdSet, int maxDoc) throws IOException {
+            FixedBitSet bits = new FixedBitSet(maxDoc);
+            if (docIdSet != null) {
+                DocIdSetIterator iter = docIdSet.iterator();
+                if (iter != null) {
+                    bits.or(iter);
+                }
+            }
+            return bits;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CachingFilter)) {
+                return false;
+            }
+            CachingFilter other = (CachingFilter) o;
+            return _cache == other._cache && _filter.equals(other._filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return _filter.hashCode() ^ System.identityHashCode(_cache);
+        }
+
+        @Override
+        public String toString() {
+            return "CachingFilter(" + _filter + ")";
+        }
+    }
+}
@@ -17,76 +17,71 @@ package proj.zoie.api;
  * limitations under the License.
  */
 
-import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
-
 import java.io.IOException;
 import java.util.Arrays;
 
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.DocIdSetIterator;
 
+import proj.zoie.api.impl.util.ArrayDocIdSet;
+import proj.zoie.api.impl.util.EliasFanoDocIdSet;
+
 public class UIDDocIdSet extends DocIdSet {
-    private final int[] _sorted;
+    /**
+     * number of matching docids from which they are Elias-Fano encoded when the segment size is known
+     */
+    public static final int COMPRESSION_THRESHOLD = 4096;
+
+    private final DocIdSet _docIdSet;
 
     public UIDDocIdSet(long[] uidArray, DocIDMapper mapper) {
+        this(uidArray, mapper, -1);
+    }
+
+    /**
+     * @param maxDoc maxDoc of the segment, or -1 if unknown. With maxDoc known, large results are
+     *               compressed.
+     */
+    public UIDDocIdSet(long[] uidArray, DocIDMapper mapper, int maxDoc) {
         if (uidArray == null) {
             throw new IllegalArgumentException("Input uid array is null");
         }
-        _sorted = mapUID(uidArray, mapper);
+        int[] docids = new int[uidArray.length];
+        int count = AbstractDocIDMapper.getDocIDs(mapper, uidArray, docids);
+        if (maxDoc >= 0 && count >= COMPRESSION_THRESHOLD) {
+            _docIdSet = new EliasFanoDocIdSet(docids, count, maxDoc);
+        } else {
+            _docIdSet = new ArrayDocIdSet(count == docids.length ? docids : Arrays.copyOf(docids, count));
+        }
     }
 
     public static int[] mapUID(long[] uidArray, DocIDMapper mapper) {
-        IntRBTreeSet idSet = new IntRBTreeSet();
-        for (long uid : uidArray) {
-            if (uid != ZoieSegmentReader.DELETED_UID) {
-                int docid = mapper.getDocID(uid);
-                if (docid != DocIDMapper.NOT_FOUND) {
-                    idSet.add(docid);
-                }
-            }
-        }
-        return idSet.toIntArray();
+        int[] docids = new int[uidArray.length];
+        int count = AbstractDocIDMapper.getDocIDs(mapper, uidArray, docids);
+        return count == docids.length ? docids : Arrays.copyOf(docids, count);
     }
 
-    @Override
-    public DocIdSetIterator iterator() {
-        return new DocIdSetIterator() {
-            int doc = -1;
-            int current = -1;
-
-            @Override
-            public int docID() {
-                return doc;
-            }
-
-            @Override
-            public int nextDoc() throws IOException {
-                if (current < _sorted.length - 1) {
-                    current++;
-                    doc = _sorted[current];
-                    return doc;
-                }
-                return DocIdSetIterator.NO_MORE_DOCS;
-            }
+    /**
+     * @return number of matching docids
+     */
+    public int size() {
+        if (_docIdSet instanceof EliasFanoDocIdSet) {
+            return ((EliasFanoDocIdSet) _docIdSet).size();
+        }
+        return ((ArrayDocIdSet) _docIdSet).size();
+    }
 
-            @Override
-            public int advance(int target) throws IOException {
-                int idx = Arrays.binarySearch(_sorted, target);
-                if (idx < 0) {
-                    idx = -(idx + 1);
-                    if (idx >= _sorted.length) return DocIdSetIterator.NO_MORE_DOCS;
-                }
-                current = idx;
-                doc = _sorted[current];
-                return doc;
-            }
+    public boolean isCompressed() {
+        return _docIdSet instanceof EliasFanoDocIdSet;
+    }
 
-            // No use, just implement abstract function
-            @Override
-            public long cost() {
-                return 0;
-            }
-        };
+    @Override
+    public boolean isCacheable() {
+        return true;
     }
 
+    @Override
+    public DocIdSetIterator iterator() throws IOException {
+        return _docIdSet.iterator();
+    }
 }
@@ -18,38 +18,98 @@ package proj.zoie.api;
  */
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
+import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.search.BitsFilteredDocIdSet;
 import org.apache.lucene.search.DocIdSet;
 import org.apache.lucene.search.Filter;
 import org.apache.lucene.util.Bits;
 
+import proj.zoie.api.impl.DocIDMapperImpl;
+
 /**
- * Filter implementation based on a list of uids
+ * Filter implementation based on a list of uids. Works on the leaves of the ZoieMultiReader it was
+ * created for as well as on the SegmentReaders an IndexWriter opens over the same segments.
  */
 public class UIDFilter extends Filter {
     private final long[] _filteredIDs;
     private final ZoieSegmentReader<?>[] _subZoieReaders;
+    private volatile Map<String, ZoieSegmentReader<?>> _readersByName = null;
+    private final Map<String, DocIDMapper> _segmentMappers;
 
     public UIDFilter(long[] filteredIDs, ZoieMultiReader<?> reader) {
+        this(filteredIDs, reader, null);
+    }
+
+    /**
+     * @param segmentMappers mappers of the segments the reader does not know, by segment name,
+     *                       kept across the filters of the same writer, may be null
+     */
+    public UIDFilter(long[] filteredIDs, ZoieMultiReader<?> reader,
+                     Map<String, DocIDMapper> segmentMappers) {
         _filteredIDs = filteredIDs;
         _subZoieReaders = reader.getSubReaders();
+        _segmentMappers = segmentMappers;
     }
 
     @Override
     public DocIdSet getDocIdSet(AtomicReaderContext ctx, Bits acceptDocs) throws IOException {
-        SegmentReader reader = (SegmentReader) (ctx.reader());
-        int idx = -1;
-        for (int i = 0; i < _subZoieReaders.length; ++i) {
-            if (_subZoieReaders[i].getSegmentName().equals(reader.getSegmentName())) {
-                idx = i;
-                break;
-            }
+        AtomicReader reader = ctx.reader();
+        if (reader instanceof ZoieSegmentReader<?>) {
+            ZoieSegmentReader<?> zoieReader = (ZoieSegmentReader<?>) reader;
+            return BitsFilteredDocIdSet.wrap(new UIDDocIdSet(_filteredIDs, zoieReader.getDocIDMapper(),
+                    zoieReader.maxDoc()), acceptDocs);
         }
-        if (idx == -1) {
-            throw new IOException("Can't find sub-reader");
+        SegmentReader segmentReader = (SegmentReader) reader;
+        ZoieSegmentReader<?> zoieReader = findSubReader(ctx.ord, segmentReader.getSegmentName());
+        DocIDMapper mapper;
+        if (zoieReader == null) {
+            // a segment flushed or merged by a writer that stayed open after the reader was opened
+            mapper = getSegmentMapper(segmentReader);
+        } else {
+            mapper = zoieReader.getDocIDMapper();
+        }
+        return BitsFilteredDocIdSet.wrap(new UIDDocIdSet(_filteredIDs, mapper, segmentReader.maxDoc()),
+                acceptDocs);
+    }
+
+    /**
+     * the uids of a segment do not change, its mapper is built once and then reused by the following
+     * filters
+     */
+    private DocIDMapper getSegmentMapper(SegmentReader segmentReader) throws IOException {
+        if (_segmentMappers == null) {
+            return new DocIDMapperImpl(ZoieSegmentReader.readUIDArray(segmentReader));
+        }
+        String segmentName = segmentReader.getSegmentName();
+        DocIDMapper mapper = _segmentMappers.get(segmentName);
+        if (mapper == null) {
+            mapper = new DocIDMapperImpl(ZoieSegmentReader.readUIDArray(segmentReader));
+            _segmentMappers.put(segmentName, mapper);
+        }
+        return mapper;
+    }
+
+    /**
+     * the leaf at the same ordinal usually is the same segment, otherwise looks it up by name
+     */
+    private ZoieSegmentReader<?> findSubReader(int ord, String segmentName) {
+        if (ord >= 0 && ord < _subZoieReaders.length
+                && _subZoieReaders[ord].getSegmentName().equals(segmentName)) {
+            return _subZoieReaders[ord];
+        }
+        Map<String, ZoieSegmentReader<?>> readersByName = _readersByName;
+        if (readersByName == null) {
+            readersByName = new HashMap<String, ZoieSegmentReader<?>>();
+            for (ZoieSegmentReader<?> subReader : _subZoieReaders) {
+                readersByName.put(subReader.getSegmentName(), subReader);
+            }
+            _readersByName = readersByName;
         }
-        return new UIDDocIdSet(_filteredIDs, _subZoieReaders[idx].getDocIDMapper());
+        return readersByName.get(segmentName);
     }
 }
@@ -17,12 +17,15 @@ package proj.zoie.api;
  * limitations under the License.
  */
 
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.index.AtomicReader;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.FilterDirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.util.BytesRef;
 import proj.zoie.api.indexing.IndexReaderDecorator;
@@ -64,6 +67,23 @@ public class ZoieMultiReader<R extends IndexReader> extends FilterDirectoryReade
         zoieRefCounter.incrementAndGet();
     }
 
+    /**
+     * takes a reference unless the last one was already released
+     *
+     * @return false if the reader is released and must not be used
+     */
+    public boolean tryIncZoieRef() {
+        while (true) {
+            long refCount = zoieRefCounter.get();
+            if (refCount <= 0) {
+                return false;
+            }
+            if (zoieRefCounter.compareAndSet(refCount, refCount + 1)) {
+                return true;
+            }
+        }
+    }
+
     public void decZoieRef() {
         long refCount = zoieRefCounter.decrementAndGet();
         if (refCount < 0) {
@@ -107,6 +127,42 @@ public class ZoieMultiReader<R extends IndexReader> extends FilterDirectoryReade
         return subReader.getStoredValue(docid - readerBase(idx));
     }
 
+    /**
+     * reads the stored values of a list of uids. The uids are looked up segment by segment from
+     * the newest one, so an uid present in several segments is read from the newest.
+     *
+     * @param uids   uids to read, uids already present in <code>values</code> are skipped
+     * @param values receives the stored value by uid
+     * @return number of values added
+     */
+    public int getStoredValues(long[] uids, Long2ObjectMap<BytesRef> values) throws IOException {
+        int added = 0;
+        for (int i = _subZoieReaders.size() - 1; i >= 0; --i) {
+            added += _subZoieReaders.get(i).getStoredValues(uids, values);
+        }
+        return added;
+    }
+
+    /**
+     * reads the stored values of a list of uids from the readers returned by
+     * {@link IndexReaderFactory#getIndexReaders()}. The readers are visited in order, so that the
+     * freshest index wins, and uids deleted in a fresher index are not read from an older one as
+     * they are marked deleted there.
+     *
+     * @return the stored values by uid, uids not found are absent
+     */
+    public static <R extends IndexReader> Long2ObjectMap<BytesRef> getStoredValues(
+            List<ZoieMultiReader<R>> readers, long[] uids) throws IOException {
+        Long2ObjectMap<BytesRef> values = new Long2ObjectOpenHashMap<BytesRef>(uids.length);
+        for (ZoieMultiReader<R> reader : readers) {
+            if (values.size() >= uids.length) {
+                break;
+            }
+            reader.getStoredValues(uids, values);
+        }
+        return values;
+    }
+
     private void init() throws IOException {
         for (ZoieSegmentReader<R> subReader : _subZoieReaders) {
             String segmentName = subReader.getSegmentName();
@@ -166,6 +222,25 @@ public class ZoieMultiReader<R extends IndexReader> extends FilterDirectoryReade
     public ZoieMultiReader<R> reopen() throws IOException {
         long t0 = System.currentTimeMillis();
         DirectoryReader inner = DirectoryReader.openIfChanged(in);
+        return reopened(inner, t0);
+    }
+
+    /**
+     * reopens a near-real-time reader from the given writer, changes that are not yet
+     * committed are visible to the returned reader
+     *
+     * @param writer          the writer to pull the changes from
+     * @param applyAllDeletes whether buffered deletes must be applied
+     * @return a new reader if there are changes, otherwise this reader
+     * @throws IOException
+     */
+    public ZoieMultiReader<R> reopen(IndexWriter writer, boolean applyAllDeletes) throws IOException {
+        long t0 = System.currentTimeMillis();
+        DirectoryReader inner = DirectoryReader.openIfChanged(in, writer, applyAllDeletes);
+        return reopened(inner, t0);
+    }
+
+    private ZoieMultiReader<R> reopened(DirectoryReader inner, long t0) throws IOException {
         if (inner == null) {
             t0 = System.currentTimeMillis() - t0;
             if (t0 > 1000) {
@@ -178,14 +253,14 @@ public class ZoieMultiReader<R extends IndexReader> extends FilterDirectoryReade
             return this;
         }
 
-        ZoieMultiReader<R> ret = new ZoieMultiReader<R>(inner, _decorator, new ZoieSubReaderWrapper<R>(
-                _decorator, _readerMap));
+        ZoieSubReaderWrapper<R> wrapper = new ZoieSubReaderWrapper<R>(_decorator, _readerMap);
+        ZoieMultiReader<R> ret = new ZoieMultiReader<R>(inner, _decorator, wrapper);
         t0 = System.currentTimeMillis() - t0;
         if (t0 > 1000) {
-            log.info("reopen returns in " + t0 + "ms with change");
+            log.info("reopen returns in " + t0 + "ms with change, " + wrapper.getStats());
         } else {
             if (log.isDebugEnabled()) {
-                log.debug("reopen returns in " + t0 + "ms with change");
+                log.debug("reopen returns in " + t0 + "ms with change, " + wrapper.getStats());
             }
         }
         return ret;
@@ -213,6 +288,9 @@ public class ZoieMultiReader<R extends IndexReader> extends FilterDirectoryReade
     public static class ZoieSubReaderWrapper<R extends IndexReader> extends SubReaderWrapper {
         private final IndexReaderDecorator<R> _decorator;
         private final Map<String, ZoieSegmentReader<R>> _readerMap;
+        private int _numReused = 0;
+        private int _numCarriedForward = 0;
+        private int _numRebuilt = 0;
 
         /**
          * Constructor
@@ -238,15 +316,29 @@ public class ZoieMultiReader<R extends IndexReader> extends FilterDirectoryReade
                     SegmentReader sr = (SegmentReader) reader;
                     String segmentName = sr.getSegmentName();
                     ZoieSegmentReader<R> zoieSegmentReader = _readerMap.get(segmentName);
-                    if (zoieSegmentReader != null && zoieSegmentReader.getInnerReader() == sr) {
-                        return new ZoieSegmentReader<R>(zoieSegmentReader, sr);
+                    if (zoieSegmentReader != null) {
+                        if (zoieSegmentReader.getInnerReader() == sr) {
+                            ++_numReused;
+                            return new ZoieSegmentReader<R>(zoieSegmentReader, sr);
+                        }
+                        // only the deletions changed, keep the uid array and DocIDMapper
+                        if (zoieSegmentReader.getInnerReader().getCoreCacheKey() == sr.getCoreCacheKey()) {
+                            ++_numCarriedForward;
+                            return new ZoieSegmentReader<R>(zoieSegmentReader, sr, _decorator);
+                        }
                     }
                 }
+                ++_numRebuilt;
                 return new ZoieSegmentReader<R>(reader, _decorator);
             } catch (IOException e) {
                 e.printStackTrace();
                 throw new RuntimeException(e);
             }
         }
+
+        String getStats() {
+            return "segments reused: " + _numReused + ", carried forward: " + _numCarriedForward
+                    + ", rebuilt: " + _numRebuilt;
+        }
     }
 }
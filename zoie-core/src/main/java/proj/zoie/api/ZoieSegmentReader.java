@@ -17,65 +17,135 @@ package proj.zoie.api;
  * limitations under the License.
  */
 
-import it.unimi.dsi.fastutil.ints.IntRBTreeSet;
-import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
 import it.unimi.dsi.fastutil.longs.LongSet;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.FilterAtomicReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.NumericDocValues;
 import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 
 import proj.zoie.api.indexing.AbstractZoieIndexable;
 import proj.zoie.api.indexing.IndexReaderDecorator;
 
 public class ZoieSegmentReader<R extends IndexReader> extends FilterAtomicReader {
     public static final long DELETED_UID = Long.MIN_VALUE;
+    private static final AtomicLong DELETE_GENERATIONS = new AtomicLong(0);
+    private static final Set<String> STORE_FIELDS = Collections
+            .singleton(AbstractZoieIndexable.DOCUMENT_STORE_FIELD);
     private R _decoratedReader;
     private final IndexReaderDecorator<R> _decorator;
-    private IntRBTreeSet _delDocIdSet = new IntRBTreeSet();
+    // sorted docids marked as deleted, published to _currentDelDocIds by commitDeletes
+    private int[] _delDocIds = null;
     private int[] _currentDelDocIds = null;
-    private long[] _uidArray = null;
+    // liveDocs returned by getLiveDocs and their generation, published together
+    private volatile LiveDocsGeneration _liveDocs;
+    private volatile int _numPendingDeletes = 0;
+    // inner liveDocs as a bitset, built on the first commit with pending deletes
+    private FixedBitSet _innerLiveDocs = null;
+    // read on first use, never when the DocIDMapper serves the uids
+    private volatile long[] _uidArray = null;
     private DocIDMapper _docIDMapper = null;
+    // set when _uidArray was carried forward from a reader over the same segment core, documents
+    // deleted since then are still present in _uidArray and must be masked by the inner liveDocs
+    private final boolean _liveDocsOverlay;
+
+    /**
+     * longest store value written as BinaryDocValues, longer ones are stored fields
+     */
+    public static final int MAX_DOC_VALUES_STORE_LENGTH = 32766;
 
     public static void fillDocumentID(Document doc, long id) {
         Field uidField = new NumericDocValuesField(AbstractZoieIndexable.DOCUMENT_ID_PAYLOAD_FIELD, id);
         doc.add(uidField);
     }
 
+    /**
+     * adds the store value of a document
+     *
+     * @param docValues whether to write it as BinaryDocValues, read by docid without loading the
+     *                  stored fields, instead of a stored field
+     */
+    public static void fillStoreValue(Document doc, byte[] bytes, boolean docValues) {
+        if (docValues && bytes.length > 0 && bytes.length <= MAX_DOC_VALUES_STORE_LENGTH) {
+            doc.add(new BinaryDocValuesField(AbstractZoieIndexable.DOCUMENT_STORE_FIELD, new BytesRef(
+                    bytes)));
+        } else {
+            doc.add(new StoredField(AbstractZoieIndexable.DOCUMENT_STORE_FIELD, bytes));
+        }
+    }
+
     public ZoieSegmentReader(AtomicReader in, IndexReaderDecorator<R> decorator) throws IOException {
         super(in);
         if (!(in instanceof SegmentReader)) {
             throw new IllegalStateException("ZoieSegmentReader can only be constucted from "
                     + SegmentReader.class);
         }
-        init(in);
+        _liveDocsOverlay = false;
+        _liveDocs = new LiveDocsGeneration(null);
         _decorator = decorator;
         _decoratedReader = (_decorator == null ? null : _decorator.decorate(this));
     }
 
-    private void init(AtomicReader reader) throws IOException {
+    /**
+     * reads the uids of a segment, deleted documents get {@link #DELETED_UID}
+     */
+    static long[] readUIDArray(AtomicReader reader) throws IOException {
         int maxDoc = reader.maxDoc();
-        _uidArray = new long[maxDoc];
+        long[] uidArray = new long[maxDoc];
         NumericDocValues uidValues = reader
                 .getNumericDocValues(AbstractZoieIndexable.DOCUMENT_ID_PAYLOAD_FIELD);
         Bits liveDocs = reader.getLiveDocs();
         for (int i = 0; i < maxDoc; ++i) {
             if (liveDocs != null && !liveDocs.get(i)) {
-                _uidArray[i] = ZoieSegmentReader.DELETED_UID;
+                uidArray[i] = ZoieSegmentReader.DELETED_UID;
                 continue;
             }
-            _uidArray[i] = uidValues.get(i);
+            uidArray[i] = uidValues.get(i);
         }
+        return uidArray;
+    }
+
+    /**
+     * builds a reader for a segment whose core is shared with <code>coreFrom</code> but whose
+     * deletions changed. The uid array and DocIDMapper are carried forward instead of being
+     * rebuilt, deletions are applied as an overlay of the inner reader's liveDocs.
+     *
+     * @param coreFrom    reader over an older version of the same segment
+     * @param innerReader new SegmentReader sharing the core of coreFrom's inner reader
+     * @param decorator
+     * @throws IOException
+     */
+    ZoieSegmentReader(ZoieSegmentReader<R> coreFrom, SegmentReader innerReader,
+                      IndexReaderDecorator<R> decorator) throws IOException {
+        super(innerReader);
+        if (coreFrom.in.getCoreCacheKey() != innerReader.getCoreCacheKey()) {
+            throw new IllegalStateException("segment core changed: " + innerReader.getSegmentName());
+        }
+        _uidArray = coreFrom._uidArray;
+        _liveDocsOverlay = true;
+        _liveDocs = new LiveDocsGeneration(null);
+        if (coreFrom._docIDMapper != null) {
+            _docIDMapper = new LiveDocsDocIDMapper(unwrap(coreFrom._docIDMapper), innerReader.getLiveDocs());
+        }
+        _decorator = decorator;
+        _decoratedReader = (_decorator == null ? null : _decorator.decorate(this));
     }
 
     /**
@@ -89,9 +159,13 @@ public class ZoieSegmentReader<R extends IndexReader> extends FilterAtomicReader
         super(innerReader);
         _docIDMapper = copyFrom._docIDMapper;
         _decorator = copyFrom._decorator;
-        _delDocIdSet = copyFrom._delDocIdSet;
+        _delDocIds = copyFrom._delDocIds;
         _currentDelDocIds = copyFrom._currentDelDocIds;
+        _liveDocs = copyFrom._liveDocs;
+        _numPendingDeletes = copyFrom._numPendingDeletes;
+        _innerLiveDocs = copyFrom._innerLiveDocs;
         _uidArray = copyFrom._uidArray;
+        _liveDocsOverlay = copyFrom._liveDocsOverlay;
 
         if (copyFrom._decorator == null) {
             _decoratedReader = null;
@@ -116,45 +190,117 @@ public class ZoieSegmentReader<R extends IndexReader> extends FilterAtomicReader
     @Override
     public Bits getLiveDocs() {
         ensureOpen();
-        return new Bits() {
-            @Override
-            public boolean get(int index) {
-                int[] delSet = _currentDelDocIds;
-                if (delSet != null && Arrays.binarySearch(delSet, index) >= 0) {
-                    return false;
-                }
-                Bits liveDocs = in.getLiveDocs();
-                if (liveDocs == null) {
-                    return true;
-                }
-                return liveDocs.get(index);
-            }
+        FixedBitSet liveDocs = _liveDocs._bits;
+        return liveDocs != null ? liveDocs : in.getLiveDocs();
+    }
 
-            @Override
-            public int length() {
-                return in.getLiveDocs().length();
+    public void markDeletes(LongSet delDocs, LongSet deletedUIDs) {
+        if (delDocs.isEmpty()) {
+            return;
+        }
+        int[] docids = new int[delDocs.size()];
+        int count = AbstractDocIDMapper.getDocIDs(_docIDMapper, delDocs.toLongArray(), docids);
+        if (count == 0) {
+            return;
+        }
+        for (int i = 0; i < count; ++i) {
+            deletedUIDs.add(getUID(docids[i]));
+        }
+        _delDocIds = merge(_delDocIds, docids, count);
+    }
+
+    /**
+     * publishes the marked deletes. The returned liveDocs are rebuilt here once, so that checking
+     * a document costs a single bit lookup instead of a search in the pending deletes.
+     */
+    public void commitDeletes() {
+        int[] delDocIds = _delDocIds;
+        if (delDocIds == null || delDocIds.length == 0) {
+            if (_liveDocs._bits != null) {
+                _liveDocs = new LiveDocsGeneration(null);
             }
-        };
+            _numPendingDeletes = 0;
+            _currentDelDocIds = delDocIds;
+            return;
+        }
+        if (delDocIds == _currentDelDocIds && _liveDocs._bits != null) {
+            // nothing marked since the last commit
+            return;
+        }
+        FixedBitSet liveDocs = getInnerLiveDocs().clone();
+        int numDeleted = 0;
+        for (int docid : delDocIds) {
+            if (liveDocs.get(docid)) {
+                liveDocs.clear(docid);
+                ++numDeleted;
+            }
+        }
+        _numPendingDeletes = numDeleted;
+        _currentDelDocIds = delDocIds;
+        _liveDocs = new LiveDocsGeneration(liveDocs);
     }
 
-    public void markDeletes(LongSet delDocs, LongSet deletedUIDs) {
-        LongIterator iter = delDocs.iterator();
-        IntRBTreeSet delDocIdSet = _delDocIdSet;
-
-        while (iter.hasNext()) {
-            long uid = iter.nextLong();
-            if (ZoieSegmentReader.DELETED_UID != uid) {
-                int docid = _docIDMapper.getDocID(uid);
-                if (docid != DocIDMapper.NOT_FOUND) {
-                    delDocIdSet.add(docid);
-                    deletedUIDs.add(uid);
+    /**
+     * @return a number identifying the liveDocs of this reader, readers over the same segment core
+     *         with the same generation have the same deletes
+     */
+    public long getDeleteGeneration() {
+        return _liveDocs._generation;
+    }
+
+    /**
+     * @return the liveDocs returned by {@link #getLiveDocs()} together with their generation
+     */
+    LiveDocsGeneration getLiveDocsGeneration() {
+        return _liveDocs;
+    }
+
+    private FixedBitSet getInnerLiveDocs() {
+        FixedBitSet bits = _innerLiveDocs;
+        if (bits == null) {
+            int maxDoc = in.maxDoc();
+            bits = new FixedBitSet(maxDoc);
+            Bits liveDocs = in.getLiveDocs();
+            if (liveDocs == null) {
+                bits.set(0, maxDoc);
+            } else {
+                for (int i = 0; i < maxDoc; ++i) {
+                    if (liveDocs.get(i)) {
+                        bits.set(i);
+                    }
                 }
             }
+            _innerLiveDocs = bits;
         }
+        return bits;
     }
 
-    public void commitDeletes() {
-        _currentDelDocIds = _delDocIdSet.toIntArray();
+    /**
+     * merges two sorted docid arrays without duplicates into a new one
+     */
+    private static int[] merge(int[] current, int[] docids, int count) {
+        if (current == null || current.length == 0) {
+            return Arrays.copyOf(docids, count);
+        }
+        int[] merged = new int[current.length + count];
+        int i = 0, j = 0, n = 0;
+        while (i < current.length && j < count) {
+            if (current[i] < docids[j]) {
+                merged[n++] = current[i++];
+            } else if (current[i] > docids[j]) {
+                merged[n++] = docids[j++];
+            } else {
+                merged[n++] = current[i++];
+                j++;
+            }
+        }
+        while (i < current.length) {
+            merged[n++] = current[i++];
+        }
+        while (j < count) {
+            merged[n++] = docids[j++];
+        }
+        return n == merged.length ? merged : Arrays.copyOf(merged, n);
     }
 
     public R getDecoratedReader() {
@@ -162,39 +308,124 @@ public class ZoieSegmentReader<R extends IndexReader> extends FilterAtomicReader
     }
 
     public BytesRef getStoredValue(int docid) throws IOException {
-        Document doc = in.document(docid);
+        return getStoredValue(docid, in.getBinaryDocValues(AbstractZoieIndexable.DOCUMENT_STORE_FIELD));
+    }
+
+    private BytesRef getStoredValue(int docid, BinaryDocValues storeValues) throws IOException {
+        if (storeValues != null) {
+            BytesRef value = new BytesRef();
+            storeValues.get(docid, value);
+            if (value.length > 0) {
+                return BytesRef.deepCopyOf(value);
+            }
+            // written as a stored field, too long or before the doc values were enabled
+        }
+        // only the store field is decoded, other stored fields are skipped
+        Document doc = in.document(docid, STORE_FIELDS);
         if (doc != null) {
             return doc.getBinaryValue(AbstractZoieIndexable.DOCUMENT_STORE_FIELD);
         }
         return null;
     }
 
+    /**
+     * reads the stored values of the given uids that are live in this segment, in docid order
+     *
+     * @param uids   uids to read, uids already present in <code>values</code> are skipped
+     * @param values receives the stored value by uid
+     * @return number of values added
+     */
+    public int getStoredValues(long[] uids, Long2ObjectMap<BytesRef> values) throws IOException {
+        if (_docIDMapper == null || uids.length == 0) {
+            return 0;
+        }
+        int[] docids = new int[uids.length];
+        int count = AbstractDocIDMapper.getDocIDs(_docIDMapper, uids, docids);
+        BinaryDocValues storeValues = in.getBinaryDocValues(AbstractZoieIndexable.DOCUMENT_STORE_FIELD);
+        int added = 0;
+        // sorted docids read the stored fields file sequentially
+        for (int i = 0; i < count; ++i) {
+            int docid = docids[i];
+            if (isDeleted(docid)) {
+                continue;
+            }
+            long uid = getUID(docid);
+            if (uid == DELETED_UID || values.containsKey(uid)) {
+                continue;
+            }
+            values.put(uid, getStoredValue(docid, storeValues));
+            ++added;
+        }
+        return added;
+    }
+
     public DocIDMapper getDocIDMapper() {
         return _docIDMapper;
     }
 
+    /**
+     * @return the uids by docid, read from the segment on the first call. Once a
+     *         {@link ReverseDocIDMapper} is set the array is read again on every call and not
+     *         kept, {@link #getUID(int)} is the cheaper way to look up single uids
+     */
     public long[] getUIDArray() {
-        return _uidArray;
+        long[] uidArray = _uidArray;
+        if (uidArray == null) {
+            try {
+                uidArray = readUIDArray(in);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (!(unwrap(_docIDMapper) instanceof ReverseDocIDMapper)) {
+                _uidArray = uidArray;
+            }
+        }
+        return uidArray;
     }
 
     public void setDocIDMapper(DocIDMapper docIDMapper) {
+        if (_liveDocsOverlay && docIDMapper != null) {
+            docIDMapper = new LiveDocsDocIDMapper(unwrap(docIDMapper), in.getLiveDocs());
+        }
         _docIDMapper = docIDMapper;
+        if (unwrap(docIDMapper) instanceof ReverseDocIDMapper) {
+            // the mapper serves the uids, no need to keep them on heap
+            _uidArray = null;
+        }
+    }
+
+    /**
+     * @return true if the uid array and DocIDMapper were carried forward from an older reader
+     *         over the same segment core rather than rebuilt
+     */
+    public boolean isLiveDocsOverlay() {
+        return _liveDocsOverlay;
     }
 
     public long getUID(int docid) {
-        return _uidArray[docid];
+        if (_liveDocsOverlay) {
+            Bits liveDocs = in.getLiveDocs();
+            if (liveDocs != null && !liveDocs.get(docid)) {
+                return DELETED_UID;
+            }
+        }
+        long[] uidArray = _uidArray;
+        if (uidArray == null) {
+            DocIDMapper mapper = unwrap(_docIDMapper);
+            if (mapper instanceof ReverseDocIDMapper) {
+                return ((ReverseDocIDMapper) mapper).getUID(docid);
+            }
+            uidArray = getUIDArray();
+        }
+        return uidArray[docid];
     }
 
     public boolean isDeleted(int docid) {
-        int[] delSet = _currentDelDocIds;
-        if (delSet != null && Arrays.binarySearch(delSet, docid) >= 0) {
-            return true;
-        }
-        Bits liveDocs = in.getLiveDocs();
+        Bits liveDocs = _liveDocs._bits;
         if (liveDocs == null) {
-            return false;
+            liveDocs = in.getLiveDocs();
         }
-        return !liveDocs.get(docid);
+        return liveDocs != null && !liveDocs.get(docid);
     }
 
     public boolean isDeletedInMask(int docid) {
@@ -211,11 +442,64 @@ public class ZoieSegmentReader<R extends IndexReader> extends FilterAtomicReader
 
     @Override
     public int numDocs() {
-        if (_currentDelDocIds != null) {
-            return super.numDocs() - _currentDelDocIds.length;
-        } else {
-            return super.numDocs();
+        return super.numDocs() - _numPendingDeletes;
+    }
+
+    /**
+     * liveDocs with the generation identifying them
+     */
+    static final class LiveDocsGeneration {
+        // inner liveDocs with _currentDelDocIds cleared, null when there are no pending deletes
+        final FixedBitSet _bits;
+        final long _generation;
+
+        LiveDocsGeneration(FixedBitSet bits) {
+            _bits = bits;
+            _generation = DELETE_GENERATIONS.incrementAndGet();
+        }
+    }
+
+    private static DocIDMapper unwrap(DocIDMapper mapper) {
+        if (mapper instanceof LiveDocsDocIDMapper) {
+            return ((LiveDocsDocIDMapper) mapper)._inner;
         }
+        return mapper;
     }
 
+    /**
+     * DocIDMapper built on an older version of a segment, hides the documents deleted since.
+     */
+    private static class LiveDocsDocIDMapper extends AbstractDocIDMapper {
+        private final DocIDMapper _inner;
+        private final Bits _liveDocs;
+
+        LiveDocsDocIDMapper(DocIDMapper inner, Bits liveDocs) {
+            _inner = inner;
+            _liveDocs = liveDocs;
+        }
+
+        @Override
+        public int getDocID(long uid) {
+            int docid = _inner.getDocID(uid);
+            if (docid != NOT_FOUND && _liveDocs != null && !_liveDocs.get(docid)) {
+                return NOT_FOUND;
+            }
+            return docid;
+        }
+
+        @Override
+        public int getDocIDs(long[] uids, int[] out) {
+            int count = AbstractDocIDMapper.getDocIDs(_inner, uids, out);
+            if (_liveDocs == null) {
+                return count;
+            }
+            int n = 0;
+            for (int i = 0; i < count; ++i) {
+                if (_liveDocs.get(out[i])) {
+                    out[n++] = out[i];
+                }
+            }
+            return n;
+        }
+    }
 }
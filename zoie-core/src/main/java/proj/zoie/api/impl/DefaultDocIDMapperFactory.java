@@ -2,6 +2,7 @@ package proj.zoie.api.impl;
 
 import java.io.IOException;
 
+import proj.zoie.api.AbstractDocIDMapper;
 import proj.zoie.api.DocIDMapper;
 import proj.zoie.api.DocIDMapperFactory;
 import proj.zoie.api.ZoieMultiReader;
@@ -25,12 +26,13 @@ public class DefaultDocIDMapperFactory implements DocIDMapperFactory {
             if (zoieSegmentReaders[i].getDocIDMapper() != null) {
                 mappers[i] = zoieSegmentReaders[i].getDocIDMapper();
             } else {
-                mappers[i] = getDocIDMapper(zoieSegmentReaders[i]);
-                zoieSegmentReaders[i].setDocIDMapper(mappers[i]);
+                zoieSegmentReaders[i].setDocIDMapper(getDocIDMapper(zoieSegmentReaders[i]));
+                // the reader may mask the mapper with its liveDocs
+                mappers[i] = zoieSegmentReaders[i].getDocIDMapper();
             }
         }
 
-        return new DocIDMapper() {
+        return new AbstractDocIDMapper() {
 
             @Override
             public int getDocID(long uid) {
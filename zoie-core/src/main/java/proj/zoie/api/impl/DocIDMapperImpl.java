@@ -19,19 +19,19 @@ package proj.zoie.api.impl;
 
 import java.util.Arrays;
 
-import proj.zoie.api.DocIDMapper;
+import proj.zoie.api.AbstractDocIDMapper;
 import proj.zoie.api.ZoieSegmentReader;
 
 /**
  * @author ymatsuda
  */
-public class DocIDMapperImpl implements DocIDMapper {
+public class DocIDMapperImpl extends AbstractDocIDMapper {
     private final int[] _docArray; // the doc id of uid in _uidArray with the same index
     private final long[] _partitionedUIDArray; // partitioned uid array
     private final int[] _start; // partition boundaries in _uidArray
     private final long[] _filter; // a helper filter to early detect false lookup
     private final int _mask; // the mask also the partition count - 1
-    private static final int MIXER = 2147482951; // a prime number
+    static final int MIXER = 2147482951; // a prime number
 
     public DocIDMapperImpl(long[] uidArray) {
 
@@ -163,6 +163,38 @@ public class DocIDMapperImpl implements DocIDMapper {
         }
     }
 
+    @Override
+    public int getDocIDs(final long[] uids, final int[] out) {
+        // sort the probes by partition, so the partitions are walked in order. each probe keeps
+        // the partition in the high and the index into uids in the low 32 bits
+        long[] probes = new long[uids.length];
+        int n = 0;
+        for (int i = 0; i < uids.length; ++i) {
+            long uid = uids[i];
+            if (uid == ZoieSegmentReader.DELETED_UID) {
+                continue;
+            }
+            int h = (int) ((uid >> 32) ^ uid) * MIXER;
+            int p = h & _mask;
+            long bits = _filter[p];
+            if ((bits & (1L << (h >> 26))) == 0 || (bits & (1L << ((h >> 20) & 0x3F))) == 0) {
+                continue;
+            }
+            probes[n++] = ((long) p << 32) | i;
+        }
+        Arrays.sort(probes, 0, n);
+
+        int count = 0;
+        for (int i = 0; i < n; ++i) {
+            int p = (int) (probes[i] >>> 32);
+            int idx = findIndex(_partitionedUIDArray, uids[(int) probes[i]], _start[p], _start[p + 1]);
+            if (idx >= 0) {
+                out[count++] = _docArray[idx];
+            }
+        }
+        return sortUnique(out, count);
+    }
+
     private static final int findIndex(final long[] arr, final long uid, int begin, int end) {
         if (begin >= end) {
             return NOT_FOUND;
@@ -189,4 +221,20 @@ public class DocIDMapperImpl implements DocIDMapper {
     public int[] getDocArray() {
         return _docArray;
     }
+
+    long[] getPartitionedUIDArray() {
+        return _partitionedUIDArray;
+    }
+
+    int[] getStart() {
+        return _start;
+    }
+
+    long[] getFilter() {
+        return _filter;
+    }
+
+    int getMask() {
+        return _mask;
+    }
 }
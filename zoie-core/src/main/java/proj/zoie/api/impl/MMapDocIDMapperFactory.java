@@ -0,0 +1,429 @@
+package proj.zoie.api.impl;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SegmentInfoPerCommit;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+
+import proj.zoie.api.AbstractDocIDMapper;
+import proj.zoie.api.DocIDMapper;
+import proj.zoie.api.ReverseDocIDMapper;
+import proj.zoie.api.ZoieMultiReader;
+import proj.zoie.api.ZoieSegmentReader;
+import proj.zoie.api.indexing.AbstractZoieIndexable;
+
+/**
+ * A DocIDMapperFactory keeping the uid array and the hash partitions of each segment in a sidecar
+ * file next to the segment. The file is written once per segment and memory mapped, so the
+ * mapping costs almost no heap. Segments not stored in a {@link FSDirectory}, e.g. the RAM
+ * indexes, fall back to the heap based {@link DocIDMapperImpl}.
+ * <p>
+ * The partitions leave out the documents deleted when the sidecar was written, later deletions
+ * are applied with the liveDocs of the reader the mapper is created for. A sidecar is matched to
+ * its segment by its header alone: segment name, size of the segment files, maxDoc and the delete
+ * generation it was written at.
+ */
+@Slf4j
+public class MMapDocIDMapperFactory extends DefaultDocIDMapperFactory {
+    // lucene deletes files matching its own naming pattern, so the sidecar must not start with '_'
+    public static final String SIDECAR_PREFIX = "zoieuid";
+    public static final String SIDECAR_SUFFIX = ".map";
+
+    private static final int MAGIC = 0x5a554944; // "ZUID"
+    private static final int FORMAT_VERSION = 3;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // magic, version, maxDoc, mask, len, delete generation, segment size, name length, followed
+    // by the segment name padded to a multiple of 8
+    private static final int FIXED_HEADER_SIZE = 5 * 4 + 2 * 8 + 4;
+
+    // segment names each index directory was last cleaned up for
+    private final ConcurrentMap<File, Set<String>> _sweptSegments =
+            new ConcurrentHashMap<File, Set<String>>();
+
+    @Override
+    public DocIDMapper getDocIDMapper(final ZoieSegmentReader<?> reader) throws IOException {
+        AtomicReader inner = reader.getInnerReader();
+        Directory dir = ((SegmentReader) inner).directory();
+        if (!(dir instanceof FSDirectory)) {
+            return super.getDocIDMapper(reader);
+        }
+        SegmentInfoPerCommit segmentInfo = ((SegmentReader) inner).getSegmentInfo();
+        String segmentName = segmentInfo.info.name;
+        byte[] name = segmentName.getBytes(UTF8);
+        File file = getSidecarFile(((FSDirectory) dir).getDirectory(), segmentName);
+        int maxDoc = inner.maxDoc();
+        int headerSize = getHeaderSize(name.length);
+        if (maxDoc == 0 || getSize(headerSize, maxDoc, getMask(maxDoc), maxDoc) > Integer.MAX_VALUE) {
+            // empty segment, or too large to be mapped as a single buffer
+            return super.getDocIDMapper(reader);
+        }
+        long segmentSize = getSegmentSize(dir, segmentInfo);
+        long delGen = segmentInfo.getDelGen();
+
+        MappedByteBuffer buffer = null;
+        if (file.exists()) {
+            buffer = map(file);
+            if (!isValid(buffer, name, segmentSize, maxDoc, delGen, inner.numDocs())) {
+                log.info("stale uid sidecar " + file + ", rebuilding");
+                buffer = null;
+            }
+        }
+        if (buffer == null) {
+            NumericDocValues uidValues = inner
+                    .getNumericDocValues(AbstractZoieIndexable.DOCUMENT_ID_PAYLOAD_FIELD);
+            write(file, name, segmentSize, maxDoc, delGen, inner.numDocs(), uidValues,
+                    inner.getLiveDocs());
+            buffer = map(file);
+        }
+        return new MMapDocIDMapper(buffer, inner.getLiveDocs());
+    }
+
+    @Override
+    public DocIDMapper getDocIDMapper(final ZoieMultiReader<?> reader) throws IOException {
+        DocIDMapper mapper = super.getDocIDMapper(reader);
+        removeStaleSidecars(reader);
+        return mapper;
+    }
+
+    static File getSidecarFile(File dir, String segmentName) {
+        return new File(dir, SIDECAR_PREFIX + segmentName + SIDECAR_SUFFIX);
+    }
+
+    /**
+     * sum of the lengths of the files written with the segment, the deletes are not included
+     */
+    private static long getSegmentSize(Directory dir, SegmentInfoPerCommit segmentInfo)
+            throws IOException {
+        long size = 0;
+        for (String fileName : segmentInfo.info.files()) {
+            size += dir.fileLength(fileName);
+        }
+        return size;
+    }
+
+    /**
+     * deletes the sidecars of segments no longer referenced by the reader, mappings of older
+     * readers stay valid after the file is unlinked. The directory is only listed the first time
+     * it is seen and whenever its segments changed since.
+     */
+    private void removeStaleSidecars(ZoieMultiReader<?> reader) {
+        ZoieSegmentReader<?>[] subReaders = reader.getSubReaders();
+        if (subReaders.length == 0) {
+            return;
+        }
+        Directory dir = ((SegmentReader) subReaders[0].getInnerReader()).directory();
+        if (!(dir instanceof FSDirectory)) {
+            return;
+        }
+        File idxDir = ((FSDirectory) dir).getDirectory();
+        Set<String> current = new HashSet<String>();
+        for (ZoieSegmentReader<?> subReader : subReaders) {
+            current.add(getSidecarFile(idxDir, subReader.getSegmentName()).getName());
+        }
+        if (current.equals(_sweptSegments.put(idxDir, current))) {
+            return;
+        }
+        String[] names = idxDir.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            if (name.startsWith(SIDECAR_PREFIX) && name.endsWith(SIDECAR_SUFFIX)
+                    && !current.contains(name)) {
+                File stale = new File(idxDir, name);
+                if (!stale.delete()) {
+                    log.warn("unable to delete uid sidecar " + stale);
+                }
+            }
+        }
+    }
+
+    /**
+     * same partition count as {@link DocIDMapperImpl}
+     */
+    private static int getMask(int maxDoc) {
+        int mask = maxDoc / 4;
+        mask |= (mask >> 1);
+        mask |= (mask >> 2);
+        mask |= (mask >> 4);
+        mask |= (mask >> 8);
+        mask |= (mask >> 16);
+        return mask;
+    }
+
+    private static int getHeaderSize(int nameLength) {
+        return (FIXED_HEADER_SIZE + nameLength + 7) & ~7;
+    }
+
+    private static long getSize(int headerSize, int maxDoc, int mask, int len) {
+        return headerSize + 8L * maxDoc + 8L * (mask + 1) + 4L * (mask + 2) + 12L * len;
+    }
+
+    /**
+     * a sidecar is valid for a segment if its header names the same segment files and leaves out
+     * no document live in the segment. Segment files are written once, and deletes only grow, so a
+     * sidecar written at the same or an older delete generation holds every live document.
+     */
+    private static boolean isValid(ByteBuffer buffer, byte[] name, long segmentSize, int maxDoc,
+                                   long delGen, int numDocs) {
+        if (buffer.capacity() < FIXED_HEADER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != FORMAT_VERSION || buffer.getInt(8) != maxDoc
+                || buffer.getLong(20) > delGen || buffer.getLong(28) != segmentSize
+                || buffer.getInt(36) != name.length) {
+            return false;
+        }
+        int headerSize = getHeaderSize(name.length);
+        int mask = buffer.getInt(12);
+        int len = buffer.getInt(16);
+        if (mask != getMask(maxDoc) || len < numDocs || len > maxDoc
+                || buffer.capacity() != getSize(headerSize, maxDoc, mask, len)) {
+            return false;
+        }
+        for (int i = 0; i < name.length; ++i) {
+            if (buffer.get(FIXED_HEADER_SIZE + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * writes the sidecar in a single pass over the uids, straight into the mapped file. The
+     * partitions are then filled from the uid section of the file, so that no array of the size
+     * of the segment is allocated.
+     *
+     * @param numDocs number of live documents, documents deleted at this point are left out of
+     *                the partitions, an older version of an updated document may share its uid
+     *                with a live one in the same segment
+     */
+    private static void write(File file, byte[] name, long segmentSize, int maxDoc, long delGen,
+                              int numDocs, NumericDocValues uidValues, Bits liveDocs)
+            throws IOException {
+        int headerSize = getHeaderSize(name.length);
+        int mask = getMask(maxDoc);
+        int size = (int) getSize(headerSize, maxDoc, mask, numDocs);
+
+        // write to a temporary file of its own first, so that neither a concurrent nor a crashed
+        // writer ever exposes a partial sidecar
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        boolean success = false;
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            ByteBuffer view = buffer.duplicate();
+            view.position(headerSize);
+            LongBuffer uidArray = MMapDocIDMapper.slice(view, 8 * maxDoc).asLongBuffer();
+            LongBuffer filter = MMapDocIDMapper.slice(view, 8 * (mask + 1)).asLongBuffer();
+            IntBuffer start = MMapDocIDMapper.slice(view, 4 * (mask + 2)).asIntBuffer();
+            LongBuffer partitionedUIDArray = MMapDocIDMapper.slice(view, 8 * numDocs).asLongBuffer();
+            IntBuffer docArray = MMapDocIDMapper.slice(view, 4 * numDocs).asIntBuffer();
+
+            // the only pass over the doc values: uids, filter bits and partition sizes
+            int len = 0;
+            for (int docid = 0; docid < maxDoc; ++docid) {
+                long uid = uidValues.get(docid);
+                uidArray.put(docid, uid);
+                if (liveDocs != null && !liveDocs.get(docid)) {
+                    continue;
+                }
+                int h = (int) ((uid >> 32) ^ uid) * DocIDMapperImpl.MIXER;
+                int p = h & mask;
+                filter.put(p, filter.get(p) | (1L << (h >> 26)) | (1L << ((h >> 20) & 0x3F)));
+                start.put(p, start.get(p) + 1);
+                ++len;
+            }
+            if (len != numDocs) {
+                throw new IOException("expected " + numDocs + " live documents in " + file
+                        + ", found " + len);
+            }
+
+            // end of each partition, moved down to its start while the partition is filled
+            int val = 0;
+            for (int p = 0; p < mask + 2; ++p) {
+                val += start.get(p);
+                start.put(p, val);
+            }
+            for (int docid = 0; docid < maxDoc; ++docid) {
+                if (liveDocs != null && !liveDocs.get(docid)) {
+                    continue;
+                }
+                long uid = uidArray.get(docid);
+                int p = ((int) ((uid >> 32) ^ uid) * DocIDMapperImpl.MIXER) & mask;
+                int i = start.get(p) - 1;
+                start.put(p, i);
+                partitionedUIDArray.put(i, uid);
+                docArray.put(i, docid);
+            }
+
+            // the partitions hold a few uids each, sort them in place by uid
+            for (int p = 0; p <= mask; ++p) {
+                int end = start.get(p + 1);
+                for (int i = start.get(p) + 1; i < end; ++i) {
+                    long uid = partitionedUIDArray.get(i);
+                    int docid = docArray.get(i);
+                    int j = i - 1;
+                    while (j >= start.get(p) && partitionedUIDArray.get(j) > uid) {
+                        partitionedUIDArray.put(j + 1, partitionedUIDArray.get(j));
+                        docArray.put(j + 1, docArray.get(j));
+                        --j;
+                    }
+                    partitionedUIDArray.put(j + 1, uid);
+                    docArray.put(j + 1, docid);
+                }
+            }
+
+            buffer.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putInt(8, maxDoc).putInt(12, mask)
+                    .putInt(16, len).putLong(20, delGen).putLong(28, segmentSize)
+                    .putInt(36, name.length);
+            for (int i = 0; i < name.length; ++i) {
+                buffer.put(FIXED_HEADER_SIZE + i, name[i]);
+            }
+            buffer.force();
+            raf.close();
+
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                raf.close();
+                if (!tmp.delete()) {
+                    log.warn("unable to delete " + tmp);
+                }
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Memory mapped counterpart of {@link DocIDMapperImpl}.
+     */
+    private static class MMapDocIDMapper extends AbstractDocIDMapper implements ReverseDocIDMapper {
+        private final LongBuffer _uidArray;
+        private final LongBuffer _filter;
+        private final IntBuffer _start;
+        private final LongBuffer _partitionedUIDArray;
+        private final IntBuffer _docArray;
+        private final int _mask;
+        private final Bits _liveDocs;
+
+        MMapDocIDMapper(ByteBuffer buffer, Bits liveDocs) {
+            int maxDoc = buffer.getInt(8);
+            _mask = buffer.getInt(12);
+            int len = buffer.getInt(16);
+            _liveDocs = liveDocs;
+
+            ByteBuffer view = buffer.duplicate();
+            view.position(getHeaderSize(buffer.getInt(36)));
+            _uidArray = slice(view, 8 * maxDoc).asLongBuffer();
+            _filter = slice(view, 8 * (_mask + 1)).asLongBuffer();
+            _start = slice(view, 4 * (_mask + 2)).asIntBuffer();
+            _partitionedUIDArray = slice(view, 8 * len).asLongBuffer();
+            _docArray = slice(view, 4 * len).asIntBuffer();
+        }
+
+        private static ByteBuffer slice(ByteBuffer view, int length) {
+            ByteBuffer slice = view.slice();
+            slice.limit(length);
+            view.position(view.position() + length);
+            return slice;
+        }
+
+        @Override
+        public int getDocID(final long uid) {
+            final int h = (int) ((uid >> 32) ^ uid) * DocIDMapperImpl.MIXER;
+            final int p = h & _mask;
+
+            // check the filter
+            final long bits = _filter.get(p);
+            if ((bits & (1L << (h >> 26))) == 0 || (bits & (1L << ((h >> 20) & 0x3F))) == 0) {
+                return NOT_FOUND;
+            }
+
+            // do binary search in the partition
+            int begin = _start.get(p);
+            int end = _start.get(p + 1) - 1;
+            while (true) {
+                int mid = (begin + end) >> 1;
+                long midval = _partitionedUIDArray.get(mid);
+
+                if (midval == uid) {
+                    int docid = _docArray.get(mid);
+                    if (_liveDocs != null && !_liveDocs.get(docid)) {
+                        return NOT_FOUND;
+                    }
+                    return docid;
+                }
+                if (mid == end) {
+                    return NOT_FOUND;
+                }
+                if (midval < uid) {
+                    begin = mid + 1;
+                } else {
+                    end = mid;
+                }
+            }
+        }
+
+        @Override
+        public long getUID(int docid) {
+            if (_liveDocs != null && !_liveDocs.get(docid)) {
+                return ZoieSegmentReader.DELETED_UID;
+            }
+            return _uidArray.get(docid);
+        }
+    }
+}
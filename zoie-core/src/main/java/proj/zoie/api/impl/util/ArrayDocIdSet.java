@@ -38,27 +38,43 @@ public class ArrayDocIdSet extends DocIdSet {
         }
     }
 
-    final private static int binarySearch(int[] a, int key) {
-        return binarySearch(a, key, 0, a.length - 1);
+    public int size() {
+        return _lengthminusone + 1;
     }
 
-    final private static int binarySearch(int[] a, int key, int low, int high) {
-        while (low <= high) {
+    /**
+     * galloping search for the first index at or after <code>from</code> whose docid is at least
+     * <code>target</code>: probes from + 1, from + 2, from + 4, ... before a binary search of the
+     * last interval, so short skips cost a few comparisons and long ones O(log(distance))
+     *
+     * @return the index, or a.length if all remaining docids are smaller
+     */
+    static int gallop(int[] a, int from, int to, int target) {
+        if (from >= to || a[from] >= target) {
+            return from;
+        }
+        int low = from;
+        int step = 1;
+        int high = from + step;
+        while (high < to && a[high] < target) {
+            low = high;
+            step <<= 1;
+            high = from + step;
+        }
+        if (high > to) {
+            high = to;
+        }
+        // a[low] < target, a[high] >= target or high == to
+        ++low;
+        while (low < high) {
             int mid = (low + high) >>> 1;
-            int midVal = a[mid];
-            int cmp;
-
-            cmp = midVal - key;
-
-            if (cmp < 0) {
+            if (a[mid] < target) {
                 low = mid + 1;
-            } else if (cmp > 0) {
-                high = mid - 1;
             } else {
-                return mid;
+                high = mid;
             }
         }
-        return -(low + 1);
+        return low;
     }
 
     @Override
@@ -66,7 +82,6 @@ public class ArrayDocIdSet extends DocIdSet {
         return new DocIdSetIterator() {
             int doc = -1;
             int current = -1;
-            int largest = _lengthminusone;
 
             @Override
             public int docID() {
@@ -80,28 +95,26 @@ public class ArrayDocIdSet extends DocIdSet {
                     doc = _docids[current];
                     return doc;
                 }
-                return DocIdSetIterator.NO_MORE_DOCS;
+                current = _lengthminusone + 1;
+                doc = DocIdSetIterator.NO_MORE_DOCS;
+                return doc;
             }
 
             @Override
             public int advance(int target) throws IOException {
-                int idx = current < 0 ? binarySearch(_docids, target) : binarySearch(_docids, target,
-                        current, largest);
-                if (idx < 0) {
-                    idx = -(idx + 1);
-                    if (idx >= _docids.length) {
-                        return DocIdSetIterator.NO_MORE_DOCS;
-                    }
-                }
+                int idx = gallop(_docids, current + 1, _lengthminusone + 1, target);
                 current = idx;
+                if (idx > _lengthminusone) {
+                    doc = DocIdSetIterator.NO_MORE_DOCS;
+                    return doc;
+                }
                 doc = _docids[current];
                 return doc;
             }
 
             @Override
             public long cost() {
-                // TODO Auto-generated method stub
-                return 0;
+                return _lengthminusone + 1;
             }
         };
     }
@@ -0,0 +1,194 @@
+package proj.zoie.api.impl.util;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * Elias-Fano encoded set of sorted docids in [0, maxDoc). Each docid is split into
+ * <code>L = floor(log2(maxDoc / size))</code> low bits, packed into a bit array, and its high bits,
+ * stored in unary as bit <code>high + index</code> of the upper bit array. This takes about
+ * 2 + L bits per docid instead of 32, and advance skips over whole words of the upper bits.
+ */
+public class EliasFanoDocIdSet extends DocIdSet {
+    private final int _size;
+    private final int _maxDoc;
+    private final int _numLowBits;
+    private final long _lowMask;
+    private final long[] _upperBits;
+    private final long[] _lowerBits;
+
+    /**
+     * @param docids sorted, unique docids, the first <code>count</code> of them are encoded
+     * @param count  number of docids
+     * @param maxDoc upper bound of the docids, exclusive
+     */
+    public EliasFanoDocIdSet(int[] docids, int count, int maxDoc) {
+        _size = count;
+        _maxDoc = maxDoc;
+        int numLowBits = 0;
+        if (count > 0 && maxDoc / count > 1) {
+            numLowBits = 31 - Integer.numberOfLeadingZeros(maxDoc / count);
+        }
+        _numLowBits = numLowBits;
+        _lowMask = (1L << numLowBits) - 1;
+        long numUpperBits = (long) count + (maxDoc >>> numLowBits) + 1;
+        _upperBits = new long[(int) ((numUpperBits + 63) >>> 6)];
+        _lowerBits = new long[(int) (((long) count * numLowBits + 63) >>> 6)];
+
+        int last = -1;
+        for (int i = 0; i < count; ++i) {
+            int docid = docids[i];
+            if (docid <= last || docid >= maxDoc) {
+                throw new IllegalArgumentException("docids must be sorted, unique and less than "
+                        + maxDoc + ": " + docid + " at " + i);
+            }
+            last = docid;
+            long pos = (long) (docid >>> numLowBits) + i;
+            _upperBits[(int) (pos >>> 6)] |= 1L << pos;
+            if (numLowBits > 0) {
+                setLow(i, docid & _lowMask);
+            }
+        }
+    }
+
+    private void setLow(int index, long value) {
+        long bitIndex = (long) index * _numLowBits;
+        int word = (int) (bitIndex >>> 6);
+        int offset = (int) (bitIndex & 63);
+        _lowerBits[word] |= value << offset;
+        if (offset + _numLowBits > 64) {
+            _lowerBits[word + 1] |= value >>> (64 - offset);
+        }
+    }
+
+    private long getLow(int index) {
+        if (_numLowBits == 0) {
+            return 0;
+        }
+        long bitIndex = (long) index * _numLowBits;
+        int word = (int) (bitIndex >>> 6);
+        int offset = (int) (bitIndex & 63);
+        long value = _lowerBits[word] >>> offset;
+        if (offset + _numLowBits > 64) {
+            value |= _lowerBits[word + 1] << (64 - offset);
+        }
+        return value & _lowMask;
+    }
+
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return bytes used by the encoded docids
+     */
+    public long sizeInBytes() {
+        return 8L * (_upperBits.length + _lowerBits.length);
+    }
+
+    @Override
+    public boolean isCacheable() {
+        return true;
+    }
+
+    @Override
+    public DocIdSetIterator iterator() {
+        return new DocIdSetIterator() {
+            int doc = -1;
+            // index of the current docid and the position of its bit in the upper bits
+            int index = -1;
+            long pos = -1;
+
+            @Override
+            public int docID() {
+                return doc;
+            }
+
+            @Override
+            public int nextDoc() throws IOException {
+                if (++index >= _size) {
+                    index = _size;
+                    doc = DocIdSetIterator.NO_MORE_DOCS;
+                    return doc;
+                }
+                pos = nextSetBit(pos + 1);
+                doc = (int) (((pos - index) << _numLowBits) | getLow(index));
+                return doc;
+            }
+
+            private long nextSetBit(long from) {
+                int w = (int) (from >>> 6);
+                long word = _upperBits[w] & (-1L << from);
+                while (word == 0) {
+                    word = _upperBits[++w];
+                }
+                return ((long) w << 6) + Long.numberOfTrailingZeros(word);
+            }
+
+            @Override
+            public int advance(int target) throws IOException {
+                if (index >= _size || target >= _maxDoc) {
+                    index = _size;
+                    doc = DocIdSetIterator.NO_MORE_DOCS;
+                    return doc;
+                }
+                skipToHigh(target >>> _numLowBits);
+                int d;
+                while ((d = nextDoc()) < target) {
+                    // scan the docids sharing the high bits of target
+                }
+                return d;
+            }
+
+            /**
+             * moves right before the first docid whose high bits are at least <code>high</code>,
+             * that is past the first <code>high</code> zeros of the upper bits
+             */
+            private void skipToHigh(long high) {
+                long start = pos + 1;
+                // the upper bits before start hold index + 1 ones
+                long need = high - (start - (index + 1));
+                if (need <= 0) {
+                    return;
+                }
+                int w = (int) (start >>> 6);
+                long zeros = ~_upperBits[w] & (-1L << start);
+                int count;
+                while ((count = Long.bitCount(zeros)) < need) {
+                    need -= count;
+                    zeros = ~_upperBits[++w];
+                }
+                for (long k = 1; k < need; ++k) {
+                    zeros &= zeros - 1;
+                }
+                long next = ((long) w << 6) + Long.numberOfTrailingZeros(zeros) + 1;
+                index = (int) (next - high) - 1;
+                pos = next - 1;
+            }
+
+            @Override
+            public long cost() {
+                return _size;
+            }
+        };
+    }
+}
@@ -4,7 +4,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 
 
 import lombok.extern.slf4j.Slf4j;
@@ -48,18 +50,7 @@ public class JDBCStreamDataProvider<T> extends StreamDataProvider<T> {
         DataEvent<T> event = null;
         try {
             if (!_res.next()) {
-                try {
-                    _res.close();
-                } finally {
-                    _stmt.close();
-                }
-                try {
-                    Thread.sleep(_pullTime);
-                } catch (InterruptedException e) {
-                    log.error(e.getMessage(), e);
-                }
-                _stmt = _stmtBuilder.buildStatment(_conn, _version);
-                _res = _stmt.executeQuery();
+                requery(true);
             } else {
                 event = _stmtBuilder.buildDataEvent(_res);
                 _version = event.getVersion();
@@ -70,6 +61,47 @@ public class JDBCStreamDataProvider<T> extends StreamDataProvider<T> {
         return event;
     }
 
+    /**
+     * reads up to max rows of the current result set, the query is run again from the last version
+     * read once the result set is exhausted
+     */
+    @Override
+    public List<DataEvent<T>> nextBatch(int max) {
+        List<DataEvent<T>> events = new ArrayList<DataEvent<T>>(Math.min(max, 1024));
+        try {
+            while (events.size() < max) {
+                if (!_res.next()) {
+                    // only wait for new rows if there was nothing to read
+                    requery(events.isEmpty());
+                    break;
+                }
+                DataEvent<T> event = _stmtBuilder.buildDataEvent(_res);
+                _version = event.getVersion();
+                events.add(event);
+            }
+        } catch (SQLException sqle) {
+            log.error(sqle.getMessage(), sqle);
+        }
+        return events;
+    }
+
+    private void requery(boolean pause) throws SQLException {
+        try {
+            _res.close();
+        } finally {
+            _stmt.close();
+        }
+        if (pause) {
+            try {
+                Thread.sleep(_pullTime);
+            } catch (InterruptedException e) {
+                log.error(e.getMessage(), e);
+            }
+        }
+        _stmt = _stmtBuilder.buildStatment(_conn, _version);
+        _res = _stmt.executeQuery();
+    }
+
     @Override
     public void setStartingOffset(String version) {
         _version = version;
@@ -0,0 +1,109 @@
+package proj.zoie.hourglass.impl;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The rolling period an Hourglass index covers, from the time encoded in its directory name to
+ * the time the next index took over, exclusive.
+ */
+public final class ArchivePeriod {
+    /**
+     * period of an index whose directory name cannot be parsed, overlaps every range
+     */
+    public static final ArchivePeriod ALL = new ArchivePeriod(Long.MIN_VALUE, Long.MAX_VALUE);
+
+    private final long _start;
+    private final long _end;
+
+    public ArchivePeriod(long start, long end) {
+        _start = start;
+        _end = end;
+    }
+
+    public long getStart() {
+        return _start;
+    }
+
+    public long getEnd() {
+        return _end;
+    }
+
+    /**
+     * @param from start of the range in ms, inclusive
+     * @param to   end of the range in ms, inclusive
+     */
+    public boolean overlaps(long from, long to) {
+        return _start <= to && from < _end;
+    }
+
+    /**
+     * @return the period of an index still accepting updates, ALL if the name cannot be parsed
+     */
+    public static ArchivePeriod open(String dirName) {
+        try {
+            return new ArchivePeriod(HourglassDirectoryManagerFactory.getCalendarTime(dirName)
+                    .getTimeInMillis(), Long.MAX_VALUE);
+        } catch (ParseException e) {
+            return ALL;
+        }
+    }
+
+    /**
+     * @param dirName directory name of the index
+     * @param end     time the next index took over
+     * @return the period of a retired index, ALL if the name cannot be parsed
+     */
+    public static ArchivePeriod closed(String dirName, long end) {
+        try {
+            return new ArchivePeriod(HourglassDirectoryManagerFactory.getCalendarTime(dirName)
+                    .getTimeInMillis(), end);
+        } catch (ParseException e) {
+            return ALL;
+        }
+    }
+
+    /**
+     * computes the periods of archived indexes from their directory names, each ending when the
+     * next one starts.
+     *
+     * @param dirNames    directory names of the archives
+     * @param currentName directory name of the index currently accepting updates, ends the newest
+     *                    archive
+     * @return the periods by directory name, names that cannot be parsed are absent
+     */
+    public static Map<String, ArchivePeriod> fromDirectoryNames(List<String> dirNames,
+                                                                String currentName) {
+        List<String> names = new ArrayList<String>(dirNames);
+        if (currentName != null) {
+            names.add(currentName);
+        }
+        // the names sort in time order
+        Collections.sort(names);
+        Map<String, ArchivePeriod> periods = new HashMap<String, ArchivePeriod>();
+        long end = Long.MAX_VALUE;
+        for (int i = names.size() - 1; i >= 0; --i) {
+            String name = names.get(i);
+            long start;
+            try {
+                start = HourglassDirectoryManagerFactory.getCalendarTime(name).getTimeInMillis();
+            } catch (ParseException e) {
+                continue;
+            }
+            if (!name.equals(currentName)) {
+                periods.put(name, new ArchivePeriod(start, end));
+            }
+            end = start;
+        }
+        return periods;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + _start + ", " + _end + ")";
+    }
+}
@@ -15,6 +15,8 @@ public class HourGlassScheduler {
     private int[] _params = new int[6];
     private int _trimThreshold = Integer.MAX_VALUE;
     private boolean _appendOnly = true;
+    private int _compactionThreads = 0;
+    private double _compactionMBPerSec = 0;
     private static ThreadLocal<SimpleDateFormat> dateFormatter = new ThreadLocal<SimpleDateFormat>() {
         @Override
         protected SimpleDateFormat initialValue() {
@@ -109,6 +111,37 @@ public class HourGlassScheduler {
         return _appendOnly;
     }
 
+    /**
+     * @return number of threads merging the archives of completed hours or days, 0 if archives
+     *         are not compacted
+     */
+    public int getCompactionThreads() {
+        return _compactionThreads;
+    }
+
+    /**
+     * archives are compacted in append-only mode only, each retired index is then no longer
+     * force-merged to a single segment
+     */
+    public void setCompactionThreads(int compactionThreads) {
+        _compactionThreads = compactionThreads;
+    }
+
+    /**
+     * @return write rate limit of each compaction in MB/s, 0 for none
+     */
+    public double getCompactionMBPerSec() {
+        return _compactionMBPerSec;
+    }
+
+    public void setCompactionMBPerSec(double compactionMBPerSec) {
+        _compactionMBPerSec = compactionMBPerSec;
+    }
+
+    public boolean isCompactionEnabled() {
+        return _appendOnly && _compactionThreads > 0 && _freq != FREQUENCY.DAILY;
+    }
+
     protected Calendar getNextRoll() {
         long timenow = System.currentTimeMillis();
         Calendar next = Calendar.getInstance();
@@ -159,20 +192,34 @@ public class HourGlassScheduler {
 
     public Calendar getTrimTime(Calendar now) {
         Calendar threshold = (Calendar) now.clone();
-        int trimUnit = 60 * 60 * 24;
+        // in ms, an int number of seconds overflows for large thresholds
+        threshold.setTimeInMillis(now.getTimeInMillis() - getPeriodMillis() * _trimThreshold);
+        return threshold;
+    }
+
+    /**
+     * @param now current time in ms
+     * @return the time before which archived data is dropped, Long.MIN_VALUE if archives are
+     *         kept forever
+     */
+    public long getRetentionHorizon(long now) {
+        if (_trimThreshold == Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(now);
+        return getTrimTime(cal).getTimeInMillis();
+    }
+
+    private long getPeriodMillis() {
         switch (getFreq()) {
             case MINUTELY:
-                trimUnit = 60;
-                break;
+                return 60 * 1000L;
             case HOURLY:
-                trimUnit = 60 * 60;
-                break;
-            case DAILY:
-                trimUnit = 60 * 60 * 24;
-                break;
+                return 60 * 60 * 1000L;
+            default:
+                return 24 * 60 * 60 * 1000L;
         }
-        threshold.add(Calendar.SECOND, -trimUnit * _trimThreshold);
-        return threshold;
     }
 
     /**
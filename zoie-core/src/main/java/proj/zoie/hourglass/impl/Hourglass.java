@@ -9,10 +9,13 @@ import org.apache.lucene.store.Directory;
 import proj.zoie.api.DefaultDirectoryManager;
 import proj.zoie.api.DirectoryManager;
 import proj.zoie.api.DocIDMapper;
+import proj.zoie.api.FlowControlledDataConsumer;
 import proj.zoie.api.Zoie;
 import proj.zoie.api.ZoieException;
 import proj.zoie.api.ZoieMultiReader;
+import proj.zoie.api.ZoieSegmentReader;
 import proj.zoie.api.indexing.IndexReaderDecorator;
+import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexableInterpreter;
 import proj.zoie.hourglass.mbean.HourglassAdmin;
 import proj.zoie.hourglass.mbean.HourglassAdminMBean;
@@ -28,13 +31,16 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 @Slf4j
-public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
+public class Hourglass<R extends IndexReader, D> implements Zoie<R, D>, FlowControlledDataConsumer<D> {
     private final HourglassDirectoryManagerFactory _dirMgrFactory;
     private final ZoieIndexableInterpreter<D> _interpreter;
     private final IndexReaderDecorator<R> _decorator;
@@ -70,6 +76,7 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
         List<ZoieMultiReader<R>> archives;
         List<ZoieSystem<R, D>> archiveZoies;
         if (_dirMgrFactory.getScheduler().isAppendOnly()) {
+            HourglassCompactor.recover(_dirMgrFactory.getRoot());
             archives = loadArchives();
             archiveZoies = Collections.emptyList();
         } else {
@@ -82,6 +89,13 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
         _currentZoie = _readerMgr.retireAndNew(null);
         _currentZoie.start();
         _freshness = zoieConfig.getFreshness();
+        try {
+            updateCachedReaders();
+        } catch (IOException e) {
+            log.error("cannot open the initial readers, retrying in the background", e);
+        }
+        _readerRefresher = new ReaderRefresher();
+        _readerRefresher.start();
         log.info("start Hourglass at version: " + _currentVersion);
     }
 
@@ -176,6 +190,8 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
      * It is typical that we create a MultiReader from these readers. When creating MultiReader, it should be created with
      * the closeSubReaders parameter set to false in order to do reference counting correctly.
      * <br> If this indexing system is already shut down, then we return an empty list.
+     * <br> The readers come from a snapshot refreshed in the background every freshness period,
+     * the list returned is shared and must not be modified.
      *
      * @see proj.zoie.hourglass.impl.Hourglass#returnIndexReaders(List)
      * @see proj.zoie.api.IndexReaderFactory#getIndexReaders()
@@ -183,73 +199,160 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
     @Override
     public List<ZoieMultiReader<R>> getIndexReaders() throws IOException {
         long t0 = System.currentTimeMillis();
-        try {
-            _shutdownLock.readLock().lock();
-            if (_isShutdown) {
-                log.warn("System already shut down. No search request allowed.");
-                List<ZoieMultiReader<R>> list = new ArrayList<ZoieMultiReader<R>>();
-                return list;// if already shutdown, return an empty list
+        if (_isShutdown) {
+            log.warn("System already shut down. No search request allowed.");
+            return new ArrayList<ZoieMultiReader<R>>();// if already shutdown, return an empty list
+        }
+        List<ZoieMultiReader<R>> rlist = acquire()._readers;
+        t0 = System.currentTimeMillis() - t0;
+        if (t0 > SLA) {
+            log.warn("getIndexReaders returned in " + t0 + "ms more than " + SLA + "ms");
+        }
+        return rlist;
+    }
+
+    /**
+     * returns the readers of the indexes whose rolling period overlaps the given time range, so
+     * that a query on the last hours does not search the whole retention window. The readers are
+     * reference counted like the ones returned by {@link #getIndexReaders()} and must be returned
+     * with {@link #returnIndexReaders(List)}.
+     *
+     * @param from start of the range in ms, inclusive
+     * @param to   end of the range in ms, inclusive
+     */
+    public List<ZoieMultiReader<R>> getIndexReaders(long from, long to) throws IOException {
+        long t0 = System.currentTimeMillis();
+        if (_isShutdown) {
+            log.warn("System already shut down. No search request allowed.");
+            return new ArrayList<ZoieMultiReader<R>>();
+        }
+        ReaderSnapshot<R> snapshot = acquire();
+        List<ZoieMultiReader<R>> rlist = new ArrayList<ZoieMultiReader<R>>();
+        for (ZoieMultiReader<R> r : snapshot._readers) {
+            ArchivePeriod period = snapshot._periods.get(r);
+            if (period == null || period.overlaps(from, to)) {
+                rlist.add(r);
+            } else {
+                r.decZoieRef();
             }
-            try {
-                cacheLock.lock();
-                if (System.currentTimeMillis() - lastupdate > _freshness) {
-                    updateCachedReaders();
-                }
-                List<ZoieMultiReader<R>> rlist = list;
-                for (ZoieMultiReader<R> r : rlist) {
-                    r.incZoieRef();
-                }
-                t0 = System.currentTimeMillis() - t0;
-                if (t0 > SLA) {
-                    log.warn("getIndexReaders returned in " + t0 + "ms more than " + SLA + "ms");
+        }
+        t0 = System.currentTimeMillis() - t0;
+        if (t0 > SLA) {
+            log.warn("getIndexReaders returned in " + t0 + "ms more than " + SLA + "ms");
+        }
+        return rlist;
+    }
+
+    /**
+     * takes a reference on every reader of the current snapshot, without locking. A snapshot
+     * is published before the references it holds are released, so a reader found released
+     * belongs to a superseded snapshot and the current one is tried instead.
+     */
+    private ReaderSnapshot<R> acquire() {
+        while (true) {
+            ReaderSnapshot<R> snapshot = _snapshot;
+            int acquired = 0;
+            for (ZoieMultiReader<R> r : snapshot._readers) {
+                if (!r.tryIncZoieRef()) {
+                    break;
                 }
-                return rlist;
-            } finally {
-                cacheLock.unlock();
+                ++acquired;
+            }
+            if (acquired == snapshot._readers.size()) {
+                return snapshot;
+            }
+            for (int i = 0; i < acquired; ++i) {
+                snapshot._readers.get(i).decZoieRef();
             }
-        } finally {
-            _shutdownLock.readLock().unlock();
         }
     }
 
     /**
-     * not thread safe. should be properly lock. Right now we have two places to use it
-     * and locked by the shutdown lock. If it gets more complicated, we should use separate
-     * lock.
+     * rebuilds the reader snapshot, publishes it and releases the previous one. Called by the
+     * reader refresher only, and once at construction.
      *
      * @throws IOException
      */
     private void updateCachedReaders() throws IOException {
-        if (log.isDebugEnabled()) {
-            log.debug("updating reader cache");
-        }
-        List<ZoieMultiReader<R>> olist = list;
-        returnIndexReaders(olist);
         if (log.isDebugEnabled()) {
             log.debug("getting new reader from reader cache");
         }
-        list = _readerMgr.getIndexReaders();
+        long t0 = System.currentTimeMillis();
+        Map<ZoieMultiReader<R>, ArchivePeriod> periods = new IdentityHashMap<ZoieMultiReader<R>, ArchivePeriod>();
+        List<ZoieMultiReader<R>> readers = _readerMgr.getIndexReaders(Long.MIN_VALUE, Long.MAX_VALUE,
+                periods);
+        ReaderSnapshot<R> old = _snapshot;
+        _snapshot = new ReaderSnapshot<R>(readers, periods);
+        returnIndexReaders(old._readers);
         if (log.isDebugEnabled()) {
-            log.debug("reader updated with size: " + list.size());
+            log.debug("reader updated with size: " + readers.size() + " in "
+                    + (System.currentTimeMillis() - t0) + "ms");
         }
-        lastupdate = System.currentTimeMillis();
     }
 
     /**
-     * not thread safe. should be properly lock. Right now we have two places to use it
-     * and locked by the shutdown lock. If it gets more complicated, we should use separate
-     * lock.
+     * releases the reader snapshot, called at shutdown once the refresher has stopped.
      */
     private void clearCachedReaders() {
-        List<ZoieMultiReader<R>> olist = list;
-        returnIndexReaders(olist);
-        list = null;
-        lastupdate = 0;
+        ReaderSnapshot<R> old = _snapshot;
+        _snapshot = new ReaderSnapshot<R>(new ArrayList<ZoieMultiReader<R>>(0),
+                Collections.<ZoieMultiReader<R>, ArchivePeriod>emptyMap());
+        returnIndexReaders(old._readers);
     }
 
-    private volatile long lastupdate = 0;
-    private volatile List<ZoieMultiReader<R>> list = new ArrayList<ZoieMultiReader<R>>();
-    private final ReentrantLock cacheLock = new ReentrantLock();
+    private volatile ReaderSnapshot<R> _snapshot = new ReaderSnapshot<R>(
+            new ArrayList<ZoieMultiReader<R>>(0), Collections.<ZoieMultiReader<R>, ArchivePeriod>emptyMap());
+    private final Object _refreshMonitor = new Object();
+    private final ReaderRefresher _readerRefresher;
+    private final AtomicLong _archiveDeletesRouted = new AtomicLong();
+    private final AtomicLong _archiveDeletesSkipped = new AtomicLong();
+
+    /**
+     * readers handed out to searches, each holding one reference on every reader until it is
+     * superseded
+     */
+    private static final class ReaderSnapshot<R extends IndexReader> {
+        private final List<ZoieMultiReader<R>> _readers;
+        // period of the index of each reader
+        private final Map<ZoieMultiReader<R>, ArchivePeriod> _periods;
+
+        ReaderSnapshot(List<ZoieMultiReader<R>> readers, Map<ZoieMultiReader<R>, ArchivePeriod> periods) {
+            _readers = Collections.unmodifiableList(readers);
+            _periods = periods;
+        }
+    }
+
+    private class ReaderRefresher extends Thread {
+        ReaderRefresher() {
+            super("Hourglass-zoie-indexReader-refresher");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!_isShutdown) {
+                synchronized (_refreshMonitor) {
+                    try {
+                        _refreshMonitor.wait(_freshness);
+                    } catch (InterruptedException e) {
+                        Thread.interrupted(); // clear interrupted state
+                    }
+                }
+                try {
+                    _shutdownLock.readLock().lock();
+                    if (_isShutdown) {
+                        break;
+                    }
+                    updateCachedReaders();
+                } catch (Exception e) {
+                    log.error("refreshing readers failed, keeping the previous ones", e);
+                } finally {
+                    _shutdownLock.readLock().unlock();
+                }
+            }
+            log.info("Exiting " + getName());
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -272,15 +375,81 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
 
         if (data != null && data.size() > 0) {
             List<DataEvent<D>> deletes = new ArrayList<DataEvent<D>>(data.size());
+            long[] uids = new long[data.size()];
+            int i = 0;
             for (DataEvent<D> event : data) {
-                deletes.add(new DataEvent<D>(event.getData(), event.getVersion(), true));
+                deletes.add(event.copy(event.getData(), true));
+                uids[i++] = getUID(event);
             }
             for (ZoieSystem<R, D> zoie : _readerMgr.getArchiveZoies()) {
-                zoie.consume(deletes);
+                if (_readerMgr.isExpired(zoie)) {
+                    // dropped at the next maintenance, its documents are no longer searched
+                    continue;
+                }
+                UIDBloomFilter filter = _readerMgr.getUIDFilter(zoie);
+                if (filter == null) {
+                    zoie.consume(deletes);
+                    _archiveDeletesRouted.addAndGet(deletes.size());
+                    continue;
+                }
+                // only the deletes of uids the archive might hold
+                List<DataEvent<D>> routed = new ArrayList<DataEvent<D>>();
+                for (i = 0; i < uids.length; ++i) {
+                    if (uids[i] == ZoieSegmentReader.DELETED_UID || filter.mightContain(uids[i])) {
+                        routed.add(deletes.get(i));
+                    }
+                }
+                if (!routed.isEmpty()) {
+                    zoie.consume(routed);
+                }
+                _archiveDeletesRouted.addAndGet(routed.size());
+                _archiveDeletesSkipped.addAndGet(deletes.size() - routed.size());
             }
         }
     }
 
+    /**
+     * @return the uid of the event, {@link ZoieSegmentReader#DELETED_UID} if it cannot be
+     *         interpreted, such events are sent to every archive
+     */
+    private long getUID(DataEvent<D> event) {
+        try {
+            ZoieIndexable indexable = _interpreter.convertAndInterpret(event.getData());
+            return indexable == null ? ZoieSegmentReader.DELETED_UID : indexable.getUID();
+        } catch (RuntimeException e) {
+            log.warn("cannot interpret " + event.getData() + ", deleting it from every archive", e);
+            return ZoieSegmentReader.DELETED_UID;
+        }
+    }
+
+    /**
+     * @return number of archived indexes
+     */
+    public int getArchiveCount() {
+        return _readerMgr.getArchiveCount();
+    }
+
+    /**
+     * @return number of background merges of archives done
+     */
+    public long getCompactionCount() {
+        return _readerMgr.getNumCompactions();
+    }
+
+    /**
+     * @return number of deletes sent to the archived zoies
+     */
+    public long getArchiveDeletesRouted() {
+        return _archiveDeletesRouted.get();
+    }
+
+    /**
+     * @return number of deletes not sent to an archived zoie as its uid filter rules the uid out
+     */
+    public long getArchiveDeletesSkipped() {
+        return _archiveDeletesSkipped.get();
+    }
+
     /*
      * (non-Javadoc)
      * @see proj.zoie.api.DataConsumer#consume(java.util.Collection)
@@ -319,6 +488,24 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
         }
     }
 
+    /**
+     * @return the credits of the current time period's ZoieSystem
+     */
+    @Override
+    public int getCredits() {
+        ZoieSystem<R, D> zoie = _currentZoie;
+        return zoie == null || _isShutdown ? 0 : zoie.getCredits();
+    }
+
+    @Override
+    public int awaitCredits(long timeout) throws InterruptedException {
+        ZoieSystem<R, D> zoie = _currentZoie;
+        if (zoie == null || _isShutdown) {
+            return 0;
+        }
+        return zoie.awaitCredits(timeout);
+    }
+
     @Override
     public void shutdown() {
         try {
@@ -331,6 +518,14 @@ public class Hourglass<R extends IndexReader, D> implements Zoie<R, D> {
         } finally {
             _shutdownLock.writeLock().unlock();
         }
+        synchronized (_refreshMonitor) {
+            _refreshMonitor.notifyAll();
+        }
+        try {
+            _readerRefresher.join(10000);
+        } catch (InterruptedException e) {
+            log.warn("interrupted waiting for the reader refresher", e);
+        }
         clearCachedReaders();
         _readerMgr.shutdown();
 
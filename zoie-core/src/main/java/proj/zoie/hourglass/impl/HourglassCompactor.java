@@ -0,0 +1,408 @@
+package proj.zoie.hourglass.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.RateLimitedDirectoryWrapper;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.apache.lucene.util.Version;
+
+import proj.zoie.api.DefaultDirectoryManager;
+import proj.zoie.api.DirectoryManager;
+import proj.zoie.api.ZoieMultiReader;
+import proj.zoie.api.impl.util.FileUtil;
+import proj.zoie.impl.indexing.internal.IndexSignature;
+
+/**
+ * Merges the archives of an append-only Hourglass in the background. The archives of a
+ * completed hour or day are merged into one index named after the oldest of them, coarser tiers
+ * first, so that the number of archive readers stays bounded without force-merging the index
+ * being retired.
+ * <p>
+ * A merge is written to a <code>compacting-</code> directory that is installed in place of its
+ * members once complete. The merged index is opened and swapped in before any member is deleted,
+ * the members are deleted once their readers are released. An install interrupted by a crash is
+ * finished by {@link #recover(File)}.
+ */
+@Slf4j
+public class HourglassCompactor<R extends IndexReader, D> {
+    static final String COMPACTING_PREFIX = "compacting-";
+    static final String COMPACTED_PREFIX = "compacted-";
+    static final String MEMBERS_FILE = "compaction.members";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final HourglassReaderManager<R, D> _readerMgr;
+    private final File _root;
+    private final Analyzer _analyzer;
+    private final int[] _tiers;
+    private final double _maxWriteMBPerSec;
+    private final ExecutorService _mergeThreadPool;
+    // names of the archives being merged
+    private final Set<String> _compacting = Collections.synchronizedSet(new HashSet<String>());
+    private final AtomicLong _numCompactions = new AtomicLong();
+    private final AtomicLong _numCompactedArchives = new AtomicLong();
+    private volatile boolean _isShutdown = false;
+
+    public HourglassCompactor(HourglassReaderManager<R, D> readerMgr, File root, Analyzer analyzer,
+                              HourGlassScheduler scheduler) {
+        _readerMgr = readerMgr;
+        _root = root;
+        _analyzer = analyzer;
+        _tiers = getTiers(scheduler.getFreq());
+        _maxWriteMBPerSec = scheduler.getCompactionMBPerSec();
+        _mergeThreadPool = Executors.newFixedThreadPool(scheduler.getCompactionThreads());
+    }
+
+    /**
+     * @return the calendar fields of the periods archives are merged into, coarsest first
+     */
+    static int[] getTiers(HourGlassScheduler.FREQUENCY freq) {
+        switch (freq) {
+            case MINUTELY:
+                return new int[]{Calendar.DAY_OF_MONTH, Calendar.HOUR_OF_DAY};
+            case HOURLY:
+                return new int[]{Calendar.DAY_OF_MONTH};
+            default:
+                return new int[0];
+        }
+    }
+
+    /**
+     * @param time  start of an archive
+     * @param field calendar field of the tier
+     * @return start of the tier period holding the given time
+     */
+    static Calendar getBucket(Calendar time, int field) {
+        Calendar bucket = (Calendar) time.clone();
+        bucket.set(Calendar.MILLISECOND, 0);
+        bucket.set(Calendar.SECOND, 0);
+        bucket.set(Calendar.MINUTE, 0);
+        if (field == Calendar.DAY_OF_MONTH) {
+            bucket.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        return bucket;
+    }
+
+    /**
+     * groups the archives of the completed tier periods and submits a merge for each group of
+     * two or more archives not already being merged
+     *
+     * @return number of merges submitted
+     */
+    public int schedule(List<ZoieMultiReader<R>> archives) {
+        if (_isShutdown) {
+            return 0;
+        }
+        Map<String, ZoieMultiReader<R>> byName = new TreeMap<String, ZoieMultiReader<R>>();
+        for (ZoieMultiReader<R> reader : archives) {
+            String name = HourglassReaderManager.getDirName(reader);
+            if (name != null) {
+                byName.put(name, reader);
+            }
+        }
+        long now = System.currentTimeMillis();
+        int submitted = 0;
+        for (int tier : _tiers) {
+            Map<Long, List<String>> buckets = new TreeMap<Long, List<String>>();
+            for (String name : byName.keySet()) {
+                Calendar bucket;
+                try {
+                    bucket = getBucket(HourglassDirectoryManagerFactory.getCalendarTime(name), tier);
+                } catch (ParseException e) {
+                    continue;
+                }
+                Calendar end = (Calendar) bucket.clone();
+                end.add(tier, 1);
+                if (end.getTimeInMillis() > now) {
+                    // archives may still be added to this period
+                    continue;
+                }
+                List<String> names = buckets.get(bucket.getTimeInMillis());
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    buckets.put(bucket.getTimeInMillis(), names);
+                }
+                names.add(name);
+            }
+            for (List<String> names : buckets.values()) {
+                if (names.size() < 2 || !reserve(names)) {
+                    continue;
+                }
+                List<ZoieMultiReader<R>> group = new ArrayList<ZoieMultiReader<R>>(names.size());
+                for (String name : names) {
+                    ZoieMultiReader<R> reader = byName.get(name);
+                    if (!reader.tryIncZoieRef()) {
+                        break;
+                    }
+                    group.add(reader);
+                }
+                if (group.size() < names.size()) {
+                    // an archive expired in the meantime
+                    release(group, names);
+                    continue;
+                }
+                submit(group, names);
+                ++submitted;
+            }
+        }
+        return submitted;
+    }
+
+    private boolean reserve(List<String> names) {
+        synchronized (_compacting) {
+            for (String name : names) {
+                if (_compacting.contains(name)) {
+                    return false;
+                }
+            }
+            _compacting.addAll(names);
+            return true;
+        }
+    }
+
+    private void release(List<ZoieMultiReader<R>> group, List<String> names) {
+        for (ZoieMultiReader<R> reader : group) {
+            reader.decZoieRef();
+        }
+        _compacting.removeAll(names);
+    }
+
+    private void submit(final List<ZoieMultiReader<R>> group, final List<String> names) {
+        _mergeThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                File compacting = new File(_root, COMPACTING_PREFIX + names.get(0));
+                long t0 = System.currentTimeMillis();
+                try {
+                    if (_isShutdown) {
+                        return;
+                    }
+                    try {
+                        merge(group, names, compacting);
+                        if (!_readerMgr.installCompacted(group, compacting)) {
+                            log.info("archives of " + names + " expired while compacting");
+                            FileUtil.rmDir(compacting);
+                            return;
+                        }
+                    } catch (IOException e) {
+                        if (new File(compacting, DirectoryManager.INDEX_DIRECTORY).exists()) {
+                            // the install is finished by recover at the next start
+                            log.error("installing compaction of " + names + " failed", e);
+                        } else {
+                            log.error("compacting " + names + " failed, keeping the archives", e);
+                            FileUtil.rmDir(compacting);
+                        }
+                        return;
+                    }
+                    _numCompactions.incrementAndGet();
+                    _numCompactedArchives.addAndGet(names.size());
+                    log.info("compacted " + names + " in " + (System.currentTimeMillis() - t0) + "ms");
+                } finally {
+                    release(group, names);
+                }
+            }
+        });
+    }
+
+    /**
+     * writes the live documents of the given archives to a new index, with the version of the
+     * newest archive
+     */
+    private void merge(List<ZoieMultiReader<R>> group, List<String> names, File compacting)
+            throws IOException {
+        if (compacting.exists()) {
+            FileUtil.rmDir(compacting);
+        }
+        compacting.mkdirs();
+        RateLimitedDirectoryWrapper dir = new RateLimitedDirectoryWrapper(new SimpleFSDirectory(compacting));
+        if (_maxWriteMBPerSec > 0) {
+            dir.setMaxWriteMBPerSec(_maxWriteMBPerSec, IOContext.Context.MERGE);
+        }
+        try {
+            IndexWriterConfig config = new IndexWriterConfig(Version.LUCENE_43, _analyzer);
+            config.setOpenMode(OpenMode.CREATE);
+            IndexWriter writer = new IndexWriter(dir, config);
+            try {
+                writer.addIndexes(group.toArray(new IndexReader[group.size()]));
+                writer.commit();
+            } finally {
+                writer.close();
+            }
+        } finally {
+            dir.close();
+        }
+        Files.write(new File(compacting, MEMBERS_FILE).toPath(), names, UTF8);
+        IndexSignature sig = DefaultDirectoryManager.getCurrentIndexSignature(new File(_root,
+                names.get(names.size() - 1)));
+        if (sig == null) {
+            sig = new IndexSignature(null);
+        }
+        // the signature marks the merge complete
+        File sigFile = new File(compacting, DirectoryManager.INDEX_DIRECTORY + ".new");
+        DefaultDirectoryManager.saveSignature(sig, sigFile);
+        if (!sigFile.renameTo(new File(compacting, DirectoryManager.INDEX_DIRECTORY))) {
+            throw new IOException("cannot save the signature of " + compacting);
+        }
+    }
+
+    /**
+     * moves a complete merge in place of the oldest of its members, that member is moved aside
+     * to <code>compacted-</code> until {@link #removeMembers(File, File, List)}
+     *
+     * @return the directory of the merged index
+     */
+    static File install(File root, File compacting) throws IOException {
+        String name = compacting.getName().substring(COMPACTING_PREFIX.length());
+        File target = new File(root, name);
+        File old = new File(root, COMPACTED_PREFIX + name);
+        if (target.exists()) {
+            if (old.exists()) {
+                throw new IOException("previous compaction " + old + " not yet removed");
+            }
+            if (!target.renameTo(old)) {
+                throw new IOException("cannot move " + target + " to " + old);
+            }
+        }
+        if (!compacting.renameTo(target)) {
+            if (old.exists() && !old.renameTo(target)) {
+                log.error("cannot move " + old + " back to " + target);
+            }
+            throw new IOException("cannot move " + compacting + " to " + target);
+        }
+        return target;
+    }
+
+    /**
+     * undoes {@link #install(File, File)}, the merge goes back to its <code>compacting-</code>
+     * directory and the member it replaced is restored
+     */
+    static void uninstall(File root, File target) throws IOException {
+        File compacting = new File(root, COMPACTING_PREFIX + target.getName());
+        File old = new File(root, COMPACTED_PREFIX + target.getName());
+        if (!target.renameTo(compacting)) {
+            throw new IOException("cannot move " + target + " back to " + compacting);
+        }
+        if (old.exists() && !old.renameTo(target)) {
+            throw new IOException("cannot move " + old + " back to " + target);
+        }
+    }
+
+    /**
+     * deletes the members replaced by the merged index in the given directory, as listed in it
+     */
+    static void removeMembers(File root, File target) {
+        File membersFile = new File(target, MEMBERS_FILE);
+        if (!membersFile.exists()) {
+            return;
+        }
+        try {
+            removeMembers(root, target, Files.readAllLines(membersFile.toPath(), UTF8));
+        } catch (IOException e) {
+            log.error("cannot read the members of " + target, e);
+        }
+    }
+
+    /**
+     * deletes the given members replaced by the merged index in the given directory, must only be
+     * called once no reader uses them
+     */
+    static void removeMembers(File root, File target, List<String> members) {
+        for (String member : members) {
+            if (!member.equals(target.getName())) {
+                FileUtil.rmDir(new File(root, member));
+            }
+        }
+        FileUtil.rmDir(new File(root, COMPACTED_PREFIX + target.getName()));
+        File membersFile = new File(target, MEMBERS_FILE);
+        if (membersFile.exists() && !membersFile.delete()) {
+            log.warn("cannot delete " + membersFile);
+        }
+    }
+
+    /**
+     * finishes the installs interrupted by a crash, deletes the members left by installed merges
+     * and drops incomplete merges, must be called before the archives are loaded
+     */
+    public static void recover(File root) {
+        File[] files = root.listFiles();
+        if (files == null) {
+            return;
+        }
+        // a merge pending removal may have moved aside the member of a later merge
+        removeAllMembers(root);
+        files = root.listFiles();
+        for (File file : files) {
+            if (!file.getName().startsWith(COMPACTING_PREFIX)) {
+                continue;
+            }
+            if (new File(file, DirectoryManager.INDEX_DIRECTORY).exists()) {
+                try {
+                    log.info("finishing compaction " + install(root, file));
+                } catch (IOException e) {
+                    log.error("cannot finish compaction " + file, e);
+                }
+            } else {
+                log.info("dropping incomplete compaction " + file);
+                FileUtil.rmDir(file);
+            }
+        }
+        removeAllMembers(root);
+        files = root.listFiles();
+        for (File file : files) {
+            if (file.getName().startsWith(COMPACTED_PREFIX)) {
+                FileUtil.rmDir(file);
+            }
+        }
+    }
+
+    private static void removeAllMembers(File root) {
+        for (File file : root.listFiles()) {
+            if (file.isDirectory() && !file.getName().startsWith(COMPACTED_PREFIX)
+                    && !file.getName().startsWith(COMPACTING_PREFIX)) {
+                removeMembers(root, file);
+            }
+        }
+    }
+
+    public long getNumCompactions() {
+        return _numCompactions.get();
+    }
+
+    public long getNumCompactedArchives() {
+        return _numCompactedArchives.get();
+    }
+
+    public void shutdown() {
+        _isShutdown = true;
+        _mergeThreadPool.shutdown();
+        try {
+            if (!_mergeThreadPool.awaitTermination(60, TimeUnit.SECONDS)) {
+                log.warn("compactions still running at shutdown");
+            }
+        } catch (InterruptedException e) {
+            log.warn("interrupted waiting for compactions", e);
+        }
+    }
+}
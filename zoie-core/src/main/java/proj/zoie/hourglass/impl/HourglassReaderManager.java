@@ -2,29 +2,33 @@ package proj.zoie.hourglass.impl;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.index.CorruptIndexException;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.SimpleFSDirectory;
 
 import proj.zoie.api.DirectoryManager;
 import proj.zoie.api.DocIDMapper;
 import proj.zoie.api.ZoieException;
 import proj.zoie.api.ZoieMultiReader;
+import proj.zoie.api.ZoieSegmentReader;
 import proj.zoie.api.impl.util.FileUtil;
 import proj.zoie.api.indexing.IndexReaderDecorator;
 import proj.zoie.impl.indexing.ZoieSystem;
@@ -40,6 +44,14 @@ public class HourglassReaderManager<R extends IndexReader, D> {
     private final ExecutorService retireThreadPool = Executors.newCachedThreadPool();
     private final HourglassListener<R, D> listener;
     private final boolean _appendOnly;
+    // periods of the retired indexes by directory name
+    private final Map<String, ArchivePeriod> _periods = new ConcurrentHashMap<String, ArchivePeriod>();
+    // uids held by the archived zoies, they only receive deletes so the filters never go stale
+    private final Map<ZoieSystem<R, D>, UIDBloomFilter> _uidFilters = new ConcurrentHashMap<ZoieSystem<R, D>, UIDBloomFilter>();
+    // null unless archives are compacted
+    private final HourglassCompactor<R, D> _compactor;
+    // serializes expiring and installing compacted archives, both remove archive directories
+    private final Object _archiveDirLock = new Object();
 
     @SuppressWarnings({"rawtypes", "unchecked"})
     public HourglassReaderManager(final Hourglass<R, D> hourglass,
@@ -55,10 +67,33 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         List<ZoieSystem<R, D>> emptyList = Collections.emptyList();
 
         box = new Box<R, D>(initArchives, initArchiveZoies, emptyList, emptyList, _decorator);
+        List<String> archiveNames = new ArrayList<String>();
+        for (ZoieMultiReader<R> reader : initArchives) {
+            archiveNames.add(getDirName(reader));
+        }
+        for (ZoieSystem<R, D> zoie : initArchiveZoies) {
+            archiveNames.add(getDirName(zoie));
+        }
+        DirectoryManager currentDirMgr = _dirMgrFactory.getDirectoryManager();
+        _periods.putAll(ArchivePeriod.fromDirectoryNames(archiveNames,
+                currentDirMgr == null ? null : new File(currentDirMgr.getPath()).getName()));
+        for (final ZoieSystem<R, D> zoie : initArchiveZoies) {
+            // deletes are sent to the archive until its filter is built
+            retireThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    loadUIDFilter(zoie);
+                }
+            });
+        }
+        if (_dirMgrFactory.getScheduler().isCompactionEnabled()) {
+            _compactor = new HourglassCompactor<R, D>(this, _dirMgrFactory.getRoot(),
+                    hourglass.getAnalyzer(), _dirMgrFactory.getScheduler());
+        } else {
+            _compactor = null;
+        }
 
         maintenanceThread = new Thread(new Runnable() {
-            final int trimThreshold = hourglass._scheduler.getTrimThreshold();
-
             @Override
             public void run() {
                 while (true) {
@@ -69,34 +104,15 @@ public class HourglassReaderManager<R extends IndexReader, D> {
                     } catch (InterruptedException e) {
                         log.warn("e", e);
                     }
-                    List<ZoieMultiReader<R>> archives = new LinkedList<ZoieMultiReader<R>>(box._archives);
-                    List<ZoieMultiReader<R>> add = new LinkedList<ZoieMultiReader<R>>();
-                    List<ZoieSystem<R, D>> archiveZoies = new LinkedList<ZoieSystem<R, D>>(box._archiveZoies);
-                    List<ZoieSystem<R, D>> addZoies = new LinkedList<ZoieSystem<R, D>>();
                     try {
                         hourglass._shutdownLock.readLock().lock();
                         if (isShutdown) {
                             log.info("Already shut down. Quiting maintenance thread.");
                             break;
                         }
-                        if (_appendOnly) {
-                            if (archives.size() > trimThreshold) {
-                                log.info("to maintain");
-                            } else {
-                                continue;
-                            }
-                            trim(archives);
-                            // swap the archive with consolidated one
-                            swapArchives(archives, add);
-                        } else {
-                            if (archiveZoies.size() > trimThreshold) {
-                                log.info("to maintain");
-                            } else {
-                                continue;
-                            }
-                            trimZoie(archiveZoies);
-                            // swap the archive with consolidated one
-                            swapArchiveZoies(archiveZoies, addZoies);
+                        expire(getRetentionHorizon());
+                        if (_compactor != null) {
+                            _compactor.schedule(box._archives);
                         }
                     } finally {
                         hourglass._shutdownLock.readLock().unlock();
@@ -108,138 +124,121 @@ public class HourglassReaderManager<R extends IndexReader, D> {
     }
 
     /**
-     * consolidate the archived Index to one big optimized index and put in add
-     *
-     * @param toRemove
+     * @return the time before which archived data is dropped, Long.MIN_VALUE if it is kept
+     *         forever
      */
-    private void trimZoie(List<ZoieSystem<R, D>> toRemove) {
-        long timenow = System.currentTimeMillis();
-        List<ZoieSystem<R, D>> toKeep = new LinkedList<ZoieSystem<R, D>>();
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(timenow);
-        Calendar threshold = hg._scheduler.getTrimTime(now);
-
-        List<ZoieSystem<R, D>> zoieList = new ArrayList<ZoieSystem<R, D>>(toRemove);
-        Collections.sort(zoieList, new Comparator<ZoieSystem<R, D>>() {
-            @Override
-            public int compare(ZoieSystem<R, D> r1, ZoieSystem<R, D> r2) {
-                String name1 = r1.getIndexDir();
-                String name2 = r2.getIndexDir();
-                return name2.compareTo(name1);
+    public long getRetentionHorizon() {
+        long horizon = hg._scheduler.getRetentionHorizon(System.currentTimeMillis());
+        DirectoryManager currentDirMgr = _dirMgrFactory.getDirectoryManager();
+        if (horizon != Long.MIN_VALUE && currentDirMgr != null) {
+            // a horizon past the start of the active index, e.g. after a clock jump, keeps the
+            // newest archive rather than dropping every archive at once
+            long activeStart = ArchivePeriod.open(new File(currentDirMgr.getPath()).getName()).getStart();
+            if (activeStart != Long.MIN_VALUE) {
+                horizon = Math.min(horizon, activeStart - 1);
             }
-        });
+        }
+        return horizon;
+    }
 
-        boolean foundOldestToKeep = false;
+    /**
+     * @return true if the whole period of the index in the given directory is before the horizon
+     */
+    private boolean isExpired(String dirName, long horizon) {
+        return horizon != Long.MIN_VALUE && getPeriod(dirName).getEnd() <= horizon;
+    }
 
-        for (ZoieSystem<R, D> zoie : zoieList) {
-            File dir = new File(zoie.getIndexDir());
-            String path = dir.getName();
+    /**
+     * @return true if the archived zoie holds no data newer than the retention horizon and is
+     *         about to be dropped
+     */
+    public boolean isExpired(ZoieSystem<R, D> zoie) {
+        return isExpired(getDirName(zoie), getRetentionHorizon());
+    }
 
-            if (foundOldestToKeep) {
-                if (listener != null) {
-                    List<ZoieMultiReader<R>> readers = null;
-                    try {
-                        readers = zoie.getIndexReaders();
-                        if (readers != null) {
-                            for (ZoieMultiReader<R> reader : readers) {
-                                listener.onIndexReaderCleanUp(reader);
-                            }
-                        }
-                    } catch (Exception e) {
-                        log.error("Error happend on reader cleanup", e);
-                    } finally {
-                        if (readers != null) {
-                            zoie.returnIndexReaders(readers);
-                        }
+    /**
+     * drops the archives whose period ended before the given horizon. Each archive is dropped as
+     * a whole: it is swapped out of the readers at once and its directory is deleted in the
+     * background. Archives whose directory name cannot be parsed are kept.
+     *
+     * @return number of archives dropped
+     */
+    int expire(long horizon) {
+        if (horizon == Long.MIN_VALUE) {
+            return 0;
+        }
+        final List<File> dirs = new ArrayList<File>();
+        if (_appendOnly) {
+            List<ZoieMultiReader<R>> expired = new ArrayList<ZoieMultiReader<R>>();
+            synchronized (_archiveDirLock) {
+                for (ZoieMultiReader<R> reader : box._archives) {
+                    String name = getDirName(reader);
+                    if (name != null && isExpired(name, horizon)) {
+                        expired.add(reader);
                     }
                 }
-                zoie.shutdown();
-                log.info("trimming: remove " + path);
-                log.info(path + " -before-- delete");
-                FileUtil.rmDir(dir);
-                log.info(path + " -after-- delete");
-                continue;
-            } else {
-                // Always keep this zoie (when the oldest one to keep has not
-                // been found), no matter the index directory name can be parsed
-                // or not.
-                toKeep.add(zoie);
-
-                Calendar archivetime = null;
-                try {
-                    archivetime = HourglassDirectoryManagerFactory.getCalendarTime(path);
-                } catch (ParseException e) {
-                    log.error("index directory name bad. potential corruption. Move on without trimming.", e);
-                    continue;
+                if (expired.isEmpty()) {
+                    return 0;
                 }
-
-                if (archivetime.before(threshold)) {
-                    foundOldestToKeep = true;
+                for (ZoieMultiReader<R> reader : expired) {
+                    if (listener != null) {
+                        listener.onIndexReaderCleanUp(reader);
+                    }
+                    dirs.add(((FSDirectory) reader.directory()).getDirectory());
                 }
+                swapArchives(expired, Collections.<ZoieMultiReader<R>>emptyList());
             }
+            retireThreadPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (File dir : dirs) {
+                        _periods.remove(dir.getName());
+                        FileUtil.rmDir(dir);
+                        log.info("expired " + dir);
+                    }
+                }
+            });
+            return dirs.size();
         }
-        toRemove.removeAll(toKeep);
-    }
 
-    /**
-     * consolidate the archived Index to one big optimized index and put in add
-     *
-     * @param toRemove
-     */
-    private void trim(List<ZoieMultiReader<R>> toRemove) {
-        long timenow = System.currentTimeMillis();
-        List<ZoieMultiReader<R>> toKeep = new LinkedList<ZoieMultiReader<R>>();
-        Calendar now = Calendar.getInstance();
-        now.setTimeInMillis(timenow);
-        Calendar threshold = hg._scheduler.getTrimTime(now);
-
-        List<ZoieMultiReader<R>> readerList = new ArrayList<ZoieMultiReader<R>>(toRemove);
-        Collections.sort(readerList, new Comparator<ZoieMultiReader<R>>() {
-            @Override
-            public int compare(ZoieMultiReader<R> r1, ZoieMultiReader<R> r2) {
-                String name1 = ((SimpleFSDirectory) (r1.directory())).getDirectory().getName();
-                String name2 = ((SimpleFSDirectory) (r1.directory())).getDirectory().getName();
-                return name2.compareTo(name1);
+        final List<ZoieSystem<R, D>> expired = new ArrayList<ZoieSystem<R, D>>();
+        for (ZoieSystem<R, D> zoie : box._archiveZoies) {
+            if (isExpired(getDirName(zoie), horizon)) {
+                expired.add(zoie);
             }
-        });
-
-        boolean foundOldestToKeep = false;
-
-        for (ZoieMultiReader<R> reader : readerList) {
-            SimpleFSDirectory dir = (SimpleFSDirectory) reader.directory();
-            String path = dir.getDirectory().getName();
-
-            if (foundOldestToKeep) {
-                if (listener != null) {
-                    listener.onIndexReaderCleanUp(reader);
-                }
-                log.info("trimming: remove " + path);
-                log.info(dir.getDirectory() + " -before--"
-                        + (dir.getDirectory().exists() ? " not deleted " : " deleted"));
-                FileUtil.rmDir(dir.getDirectory());
-                log.info(dir.getDirectory() + " -after--"
-                        + (dir.getDirectory().exists() ? " not deleted " : " deleted"));
-                continue;
-            } else {
-                // Always keep this reader (when the oldest one to keep has not
-                // been found), no matter the index directory name can be parsed
-                // or not.
-                toKeep.add(reader);
-
-                Calendar archivetime = null;
-                try {
-                    archivetime = HourglassDirectoryManagerFactory.getCalendarTime(path);
-                } catch (ParseException e) {
-                    log.error("index directory name bad. potential corruption. Move on without trimming.", e);
-                    continue;
-                }
-
-                if (archivetime.before(threshold)) {
-                    foundOldestToKeep = true;
+        }
+        if (expired.isEmpty()) {
+            return 0;
+        }
+        swapArchiveZoies(expired, Collections.<ZoieSystem<R, D>>emptyList());
+        retireThreadPool.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (ZoieSystem<R, D> zoie : expired) {
+                    if (listener != null) {
+                        List<ZoieMultiReader<R>> readers = null;
+                        try {
+                            readers = zoie.getIndexReaders();
+                            for (ZoieMultiReader<R> reader : readers) {
+                                listener.onIndexReaderCleanUp(reader);
+                            }
+                        } catch (Exception e) {
+                            log.error("Error happend on reader cleanup", e);
+                        } finally {
+                            if (readers != null) {
+                                zoie.returnIndexReaders(readers);
+                            }
+                        }
+                    }
+                    zoie.shutdown();
+                    File dir = new File(zoie.getIndexDir());
+                    _periods.remove(dir.getName());
+                    FileUtil.rmDir(dir);
+                    log.info("expired " + dir);
                 }
             }
-        }
-        toRemove.removeAll(toKeep);
+        });
+        return expired.size();
     }
 
     /**
@@ -256,6 +255,9 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         }
         archives.addAll(box._archiveZoies);
         archives.removeAll(remove);
+        for (ZoieSystem<R, D> zoie : remove) {
+            _uidFilters.remove(zoie);
+        }
         Box<R, D> newbox = new Box<R, D>(box._archives, archives, box._retiree, box._actives,
                 _decorator);
         box = newbox;
@@ -295,6 +297,10 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         List<ZoieSystem<R, D>> actives = new LinkedList<ZoieSystem<R, D>>(box._actives);
         List<ZoieSystem<R, D>> retiring = new LinkedList<ZoieSystem<R, D>>(box._retiree);
         if (old != null) {
+            // the period of the old index ends where the new one starts
+            long end = ArchivePeriod.open(getDirName(newzoie)).getStart();
+            _periods.put(getDirName(old), ArchivePeriod.closed(getDirName(old),
+                    end == Long.MIN_VALUE ? System.currentTimeMillis() : end));
             actives.remove(old);
             retiring.add(old);
             retireThreadPool.execute(new Runnable() {
@@ -337,6 +343,130 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         }
         Box<R, D> newbox = new Box<R, D>(archives, archiveZoies, retiring, actives, _decorator);
         box = newbox;
+        if (_compactor != null && reader != null) {
+            _compactor.schedule(archives);
+        }
+    }
+
+    /**
+     * replaces the given archives by the index they were merged into. The merged index is opened
+     * and swapped in first, the directories of the archives are deleted once their readers are
+     * released.
+     *
+     * @param group      the archives merged, still referenced by the caller
+     * @param compacting the complete merged index
+     * @return false if some of the archives expired in the meantime, nothing is installed
+     * @throws IOException if the merged index cannot be installed or opened, the archives are
+     *                     then kept
+     */
+    boolean installCompacted(List<ZoieMultiReader<R>> group, File compacting) throws IOException {
+        synchronized (_archiveDirLock) {
+            if (!box._archives.containsAll(group)) {
+                return false;
+            }
+            long start = Long.MAX_VALUE;
+            long end = Long.MIN_VALUE;
+            for (ZoieMultiReader<R> reader : group) {
+                ArchivePeriod period = getPeriod(getDirName(reader));
+                start = Math.min(start, period.getStart());
+                end = Math.max(end, period.getEnd());
+            }
+            File root = _dirMgrFactory.getRoot();
+            File target = HourglassCompactor.install(root, compacting);
+            ZoieMultiReader<R> zoiereader;
+            try {
+                zoiereader = openArchive(target);
+            } catch (IOException e) {
+                // the archives are still in place, the merge is dropped
+                try {
+                    HourglassCompactor.uninstall(root, target);
+                    FileUtil.rmDir(compacting);
+                } catch (IOException ue) {
+                    log.error("cannot restore the archives of " + target, ue);
+                }
+                throw e;
+            }
+            for (ZoieMultiReader<R> reader : group) {
+                _periods.remove(getDirName(reader));
+            }
+            _periods.put(target.getName(), new ArchivePeriod(start, end));
+            List<ZoieMultiReader<R>> add = new ArrayList<ZoieMultiReader<R>>(1);
+            add.add(zoiereader);
+            swapArchives(group, add);
+            removeMembersOnClose(group, target);
+            return true;
+        }
+    }
+
+    private ZoieMultiReader<R> openArchive(File dir) throws IOException {
+        DirectoryReader reader = DirectoryReader.open(new SimpleFSDirectory(dir));
+        try {
+            ZoieMultiReader<R> zoiereader = new ZoieMultiReader<R>(reader, _decorator);
+            DocIDMapper mapper = hg.getzConfig().getDocidMapperFactory().getDocIDMapper(zoiereader);
+            zoiereader.setDocIDMapper(mapper);
+            return zoiereader;
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+    }
+
+    /**
+     * deletes the directories of the merged archives once the cores of all their segments are
+     * closed, searches may still hold their readers
+     */
+    private void removeMembersOnClose(List<ZoieMultiReader<R>> group, final File target) {
+        final File root = _dirMgrFactory.getRoot();
+        final List<String> members = new ArrayList<String>();
+        List<SegmentReader> segments = new ArrayList<SegmentReader>();
+        for (ZoieMultiReader<R> reader : group) {
+            members.add(getDirName(reader));
+            for (ZoieSegmentReader<R> subReader : reader.getSubReaders()) {
+                segments.add((SegmentReader) subReader.getInnerReader());
+            }
+        }
+        // one more for the registration below
+        final AtomicInteger open = new AtomicInteger(segments.size() + 1);
+        final Runnable remove = new Runnable() {
+            @Override
+            public void run() {
+                HourglassCompactor.removeMembers(root, target, members);
+                log.info("removed the archives merged into " + target);
+            }
+        };
+        SegmentReader.CoreClosedListener listener = new SegmentReader.CoreClosedListener() {
+            @Override
+            public void onClose(SegmentReader owner) {
+                if (open.decrementAndGet() == 0) {
+                    removeMembersLater(remove, target);
+                }
+            }
+        };
+        for (SegmentReader segment : segments) {
+            segment.addCoreClosedListener(listener);
+        }
+        if (open.decrementAndGet() == 0) {
+            removeMembersLater(remove, target);
+        }
+    }
+
+    private void removeMembersLater(Runnable remove, File target) {
+        try {
+            retireThreadPool.execute(remove);
+        } catch (RejectedExecutionException e) {
+            log.info("shutting down, the archives merged into " + target + " are removed at the next start");
+        }
+    }
+
+    /**
+     * @return number of compactions done, 0 if archives are not compacted
+     */
+    public long getNumCompactions() {
+        return _compactor == null ? 0 : _compactor.getNumCompactions();
+    }
+
+    public int getArchiveCount() {
+        return _appendOnly ? box._archives.size() : box._archiveZoies.size();
     }
 
     private synchronized void preshutdown() {
@@ -351,6 +481,9 @@ public class HourglassReaderManager<R extends IndexReader, D> {
             log.info("Maintenance thread interrpted");
         }
         retireThreadPool.shutdown();
+        if (_compactor != null) {
+            _compactor.shutdown();
+        }
     }
 
     public void shutdown() {
@@ -372,16 +505,45 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         log.info("shutting down indices complete.");
     }
 
-    public synchronized List<ZoieMultiReader<R>> getIndexReaders() throws IOException {
+    public List<ZoieMultiReader<R>> getIndexReaders() throws IOException {
+        return getIndexReaders(Long.MIN_VALUE, Long.MAX_VALUE, null);
+    }
+
+    /**
+     * returns the readers of the indexes whose rolling period overlaps the given time range
+     *
+     * @param from start of the range in ms, inclusive
+     * @param to   end of the range in ms, inclusive
+     */
+    public List<ZoieMultiReader<R>> getIndexReaders(long from, long to) throws IOException {
+        return getIndexReaders(from, to, null);
+    }
+
+    /**
+     * @param periods if not null, receives the period of the index of each reader returned
+     */
+    synchronized List<ZoieMultiReader<R>> getIndexReaders(long from, long to,
+                                                          Map<ZoieMultiReader<R>, ArchivePeriod> periods) throws IOException {
         List<ZoieMultiReader<R>> list = new ArrayList<ZoieMultiReader<R>>();
+        int pruned = 0;
+        // archives about to expire hold no data newer than the horizon
+        from = Math.max(from, getRetentionHorizon());
         if (_appendOnly) {
             // add the archived index readers.
             for (ZoieMultiReader<R> r : box._archives) {
+                ArchivePeriod period = getPeriod(getDirName(r));
+                if (!period.overlaps(from, to)) {
+                    ++pruned;
+                    continue;
+                }
                 if (log.isDebugEnabled()) {
                     log.debug("add reader from box archives");
                 }
                 r.incZoieRef();
                 list.add(r);
+                if (periods != null) {
+                    periods.put(r, period);
+                }
             }
         } else {
             // add the archived readers from zoie.
@@ -389,7 +551,7 @@ public class HourglassReaderManager<R extends IndexReader, D> {
                 if (log.isDebugEnabled()) {
                     log.debug("add reader from box archiveZoies");
                 }
-                list.addAll(zoie.getIndexReaders());
+                pruned += addIndexReaders(zoie, from, to, list, periods);
             }
         }
         // add the retiring index readers
@@ -398,7 +560,7 @@ public class HourglassReaderManager<R extends IndexReader, D> {
             if (log.isDebugEnabled()) {
                 log.debug("add reader from box retiree");
             }
-            list.addAll(zoie.getIndexReaders());
+            pruned += addIndexReaders(zoie, from, to, list, periods);
         }
         // add the active index readers
         for (ZoieSystem<R, D> zoie : box._actives) {
@@ -406,7 +568,10 @@ public class HourglassReaderManager<R extends IndexReader, D> {
             if (log.isDebugEnabled()) {
                 log.debug("add reader from box actvies");
             }
-            list.addAll(zoie.getIndexReaders());
+            pruned += addIndexReaders(zoie, from, to, list, periods);
+        }
+        if (pruned > 0 && log.isDebugEnabled()) {
+            log.debug("pruned " + pruned + " indexes outside of [" + from + ", " + to + "]");
         }
 
         if (log.isDebugEnabled()) {
@@ -415,6 +580,46 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         return list;
     }
 
+    /**
+     * @return 1 if the zoie was pruned, 0 if its readers were added
+     */
+    private int addIndexReaders(ZoieSystem<R, D> zoie, long from, long to,
+                                List<ZoieMultiReader<R>> list, Map<ZoieMultiReader<R>, ArchivePeriod> periods)
+            throws IOException {
+        ArchivePeriod period = getPeriod(getDirName(zoie));
+        if (!period.overlaps(from, to)) {
+            return 1;
+        }
+        List<ZoieMultiReader<R>> readers = zoie.getIndexReaders();
+        list.addAll(readers);
+        if (periods != null) {
+            for (ZoieMultiReader<R> reader : readers) {
+                periods.put(reader, period);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the period of the index in the given directory, open ended if it is not retired
+     */
+    public ArchivePeriod getPeriod(String dirName) {
+        if (dirName == null) {
+            return ArchivePeriod.ALL;
+        }
+        ArchivePeriod period = _periods.get(dirName);
+        return period != null ? period : ArchivePeriod.open(dirName);
+    }
+
+    private static String getDirName(ZoieSystem<?, ?> zoie) {
+        return new File(zoie.getIndexDir()).getName();
+    }
+
+    static String getDirName(ZoieMultiReader<?> reader) {
+        Directory dir = reader.directory();
+        return dir instanceof FSDirectory ? ((FSDirectory) dir).getDirectory().getName() : null;
+    }
+
     protected void retire(ZoieSystem<R, D> zoie) {
         long t0 = System.currentTimeMillis();
         log.info("retiring " + zoie.getAdminMBean().getIndexDir());
@@ -423,7 +628,9 @@ public class HourglassReaderManager<R extends IndexReader, D> {
             try {
                 zoie.flushEvents(flushwait);
                 zoie.getAdminMBean().setUseCompoundFile(true);
-                zoie.getAdminMBean().optimize(1);
+                if (_compactor == null) {
+                    zoie.getAdminMBean().optimize(1);
+                }
                 break;
             } catch (IOException e) {
                 log.error("retiring " + zoie.getAdminMBean().getIndexDir()
@@ -459,6 +666,9 @@ public class HourglassReaderManager<R extends IndexReader, D> {
             } catch (IOException e) {
                 log.error(e.getMessage(), e);
             }
+        } else {
+            // built before the zoie is archived so that its deletes are routed right away
+            buildUIDFilter(zoie);
         }
         archive(zoie, zoiereader);
         log.info("retired " + zoie.getAdminMBean().getIndexDir() + " in "
@@ -473,6 +683,83 @@ public class HourglassReaderManager<R extends IndexReader, D> {
         return box._archiveZoies;
     }
 
+    /**
+     * returns the uid summary of an archived zoie, never waits for it to be built
+     *
+     * @return null until the summary is built or if it cannot be, the zoie must then be assumed
+     *         to hold any uid
+     */
+    public UIDBloomFilter getUIDFilter(ZoieSystem<R, D> zoie) {
+        return _uidFilters.get(zoie);
+    }
+
+    /**
+     * builds the uid summary of a retiring zoie from its readers
+     */
+    private void buildUIDFilter(ZoieSystem<R, D> zoie) {
+        long t0 = System.currentTimeMillis();
+        UIDBloomFilter filter;
+        List<ZoieMultiReader<R>> readers = null;
+        try {
+            readers = zoie.getIndexReaders();
+            filter = UIDBloomFilter.build(readers);
+        } catch (IOException e) {
+            log.warn("cannot build uid filter of " + zoie.getIndexDir(), e);
+            return;
+        } finally {
+            if (readers != null) {
+                zoie.returnIndexReaders(readers);
+            }
+        }
+        putUIDFilter(zoie, filter, t0);
+    }
+
+    /**
+     * builds the uid summary of a zoie archived at startup from its index directory, its readers
+     * are not loaded yet
+     */
+    private void loadUIDFilter(ZoieSystem<R, D> zoie) {
+        long t0 = System.currentTimeMillis();
+        UIDBloomFilter filter;
+        DirectoryReader reader = null;
+        try {
+            reader = getArchive(zoie);
+            if (reader == null) {
+                return;
+            }
+            filter = UIDBloomFilter.build(reader);
+        } catch (IOException e) {
+            log.warn("cannot build uid filter of " + zoie.getIndexDir(), e);
+            return;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.warn(e.getMessage(), e);
+                }
+            }
+        }
+        putUIDFilter(zoie, filter, t0);
+    }
+
+    private void putUIDFilter(ZoieSystem<R, D> zoie, UIDBloomFilter filter, long t0) {
+        if (filter.isEmpty()) {
+            // the readers may not be loaded yet, deletes keep being sent to the zoie
+            log.info("no uid filter for " + zoie.getIndexDir() + ", no documents found");
+            return;
+        }
+        synchronized (this) {
+            // not kept for a zoie expired in the meantime
+            if (!box._archiveZoies.contains(zoie) && !box._retiree.contains(zoie)) {
+                return;
+            }
+            _uidFilters.put(zoie, filter);
+        }
+        log.info("built " + filter + " of " + zoie.getIndexDir() + " in "
+                + (System.currentTimeMillis() - t0) + "ms");
+    }
+
     private DirectoryReader getArchive(ZoieSystem<R, D> zoie) throws CorruptIndexException, IOException {
         String dirName = zoie.getAdminMBean().getIndexDir();
         Directory dir = new SimpleFSDirectory(new File(dirName));
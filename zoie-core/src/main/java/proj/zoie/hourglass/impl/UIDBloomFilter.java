@@ -0,0 +1,146 @@
+package proj.zoie.hourglass.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.AtomicReader;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.util.Bits;
+
+import proj.zoie.api.ZoieMultiReader;
+import proj.zoie.api.ZoieSegmentReader;
+import proj.zoie.api.indexing.AbstractZoieIndexable;
+
+/**
+ * Summary of the uids held by an archived index that no longer receives new documents. A
+ * negative answer of {@link #mightContain(long)} is exact, so deletes for that uid need not be
+ * sent to the archive; a positive answer may be wrong with a probability of about one percent.
+ */
+public final class UIDBloomFilter {
+    // about 1% false positives with 7 hashes
+    private static final int BITS_PER_UID = 10;
+    private static final int NUM_HASHES = 7;
+
+    private final long[] _bits;
+    private final long _numBits;
+    private final int _numUIDs;
+
+    private UIDBloomFilter(int expectedUIDs) {
+        long numBits = Math.max(64L, (long) expectedUIDs * BITS_PER_UID);
+        _bits = new long[(int) ((numBits + 63) >>> 6)];
+        _numBits = (long) _bits.length << 6;
+        _numUIDs = expectedUIDs;
+    }
+
+    /**
+     * builds the filter from the uids of the live documents of the given readers
+     */
+    public static <R extends IndexReader> UIDBloomFilter build(List<ZoieMultiReader<R>> readers) {
+        int numDocs = 0;
+        for (ZoieMultiReader<R> reader : readers) {
+            numDocs += reader.maxDoc();
+        }
+        UIDBloomFilter filter = new UIDBloomFilter(numDocs);
+        for (ZoieMultiReader<R> reader : readers) {
+            for (ZoieSegmentReader<R> subReader : reader.getSubReaders()) {
+                int maxDoc = subReader.maxDoc();
+                for (int docid = 0; docid < maxDoc; ++docid) {
+                    long uid = subReader.getUID(docid);
+                    if (uid != ZoieSegmentReader.DELETED_UID) {
+                        filter.add(uid);
+                    }
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * builds the filter from the uids of the live documents of an index read from its directory
+     */
+    public static UIDBloomFilter build(IndexReader reader) throws IOException {
+        UIDBloomFilter filter = new UIDBloomFilter(reader.maxDoc());
+        for (AtomicReaderContext context : reader.leaves()) {
+            AtomicReader leaf = context.reader();
+            NumericDocValues uidValues = leaf
+                    .getNumericDocValues(AbstractZoieIndexable.DOCUMENT_ID_PAYLOAD_FIELD);
+            if (uidValues == null) {
+                continue;
+            }
+            Bits liveDocs = leaf.getLiveDocs();
+            int maxDoc = leaf.maxDoc();
+            for (int docid = 0; docid < maxDoc; ++docid) {
+                if (liveDocs == null || liveDocs.get(docid)) {
+                    filter.add(uidValues.get(docid));
+                }
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * builds the filter from the given uids
+     */
+    public static UIDBloomFilter of(long... uids) {
+        UIDBloomFilter filter = new UIDBloomFilter(uids.length);
+        for (long uid : uids) {
+            filter.add(uid);
+        }
+        return filter;
+    }
+
+    private void add(long uid) {
+        long h1 = mix(uid);
+        long h2 = (h1 >>> 32) | 1L;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % _numBits;
+            _bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if the uid is certainly not in the archive
+     */
+    public boolean mightContain(long uid) {
+        long h1 = mix(uid);
+        long h2 = (h1 >>> 32) | 1L;
+        for (int i = 0; i < NUM_HASHES; ++i) {
+            long bit = ((h1 + i * h2) & Long.MAX_VALUE) % _numBits;
+            if ((_bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the filter was built for no uid at all
+     */
+    public boolean isEmpty() {
+        return _numUIDs == 0;
+    }
+
+    /**
+     * @return size of the filter in bytes
+     */
+    public long getSizeBytes() {
+        return (long) _bits.length << 3;
+    }
+
+    @Override
+    public String toString() {
+        return "UIDBloomFilter[uids: " + _numUIDs + ", bytes: " + getSizeBytes() + "]";
+    }
+
+    // finalizer of MurmurHash3, spreads sequential uids over the whole range
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -214,4 +214,24 @@ public class HourglassAdmin implements HourglassAdminMBean {
     public void setSLA(long sla) {
         hourglass.SLA = sla;
     }
+
+    @Override
+    public long getArchiveDeletesRouted() {
+        return hourglass.getArchiveDeletesRouted();
+    }
+
+    @Override
+    public long getArchiveDeletesSkipped() {
+        return hourglass.getArchiveDeletesSkipped();
+    }
+
+    @Override
+    public int getArchiveCount() {
+        return hourglass.getArchiveCount();
+    }
+
+    @Override
+    public long getCompactionCount() {
+        return hourglass.getCompactionCount();
+    }
 }
@@ -3,4 +3,11 @@ package proj.zoie.hourglass.mbean;
 import proj.zoie.mbean.ZoieAdminMBean;
 
 public interface HourglassAdminMBean extends ZoieAdminMBean {
+    long getArchiveDeletesRouted();
+
+    long getArchiveDeletesSkipped();
+
+    int getArchiveCount();
+
+    long getCompactionCount();
 }
@@ -22,4 +22,11 @@ public abstract class AbstractReaderCache<R extends IndexReader> {
 
     public abstract long getFreshness();
 
+    /**
+     * Called after the readers of the IndexReaderFactory changed, e.g. a batch was indexed or a new
+     * disk reader was loaded. Caches that refresh on change override this, it must not block.
+     */
+    public void indexChanged() {
+    }
+
 }
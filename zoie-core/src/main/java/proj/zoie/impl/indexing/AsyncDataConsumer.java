@@ -19,13 +19,19 @@ package proj.zoie.impl.indexing;
 
 import lombok.extern.slf4j.Slf4j;
 import proj.zoie.api.DataConsumer;
+import proj.zoie.api.FlowControlledDataConsumer;
 import proj.zoie.api.LifeCycleCotrolledDataConsumer;
 import proj.zoie.api.ZoieException;
 import proj.zoie.api.ZoieHealth;
+import proj.zoie.impl.indexing.ZoieConfig.DefaultVersionComparator;
+import proj.zoie.impl.indexing.internal.EventRingBuffer;
+import proj.zoie.impl.indexing.internal.EventRingBuffer.WaitStrategy;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 // hao: just for debugging
 //import proj.zoie.api.DefaultZoieVersion;
@@ -39,9 +45,16 @@ import java.util.LinkedList;
  * it already accumulate this many, then we block the incoming events until the number of
  * buffered events drop below this limit after some of them being sent to background
  * DataConsumer.
+ * <br><br>
+ * Alternatively the events can be handed off through a lock free ring buffer, see
+ * {@link #setRingBufferHandoff(int, WaitStrategy)}.
  */
 @Slf4j
-public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
+public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D>,
+        FlowControlledDataConsumer<D> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<AsyncDataConsumer, String> BUFFERED_VERSION_UPDATER = AtomicReferenceFieldUpdater
+            .newUpdater(AsyncDataConsumer.class, String.class, "_bufferedVersion");
 
     private volatile ConsumerThread _consumerThread;
     private volatile DataConsumer<D> _consumer;
@@ -56,6 +69,11 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
      * DataConsumer.
      */
     private int _batchSize;
+    // replaces _batch when set
+    private volatile EventRingBuffer<DataEvent<D>> _ringBuffer = null;
+    private volatile WaitStrategy _waitStrategy = WaitStrategy.PARK;
+    // ring buffer sequence up to which the events are consumed, guarded by this
+    private long _consumedSequence = 0;
 
     public AsyncDataConsumer(Comparator<String> versionComparator) {
         // _currentVersion = -1L;
@@ -91,6 +109,26 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
         _consumerThread.terminate();
     }
 
+    /**
+     * Hands the incoming events to the background thread through a preallocated lock free ring
+     * buffer instead of a synchronized list, so producers do not contend on this object's
+     * monitor. Producers wait for free slots and the background thread waits for events with the
+     * given strategy. The background thread takes all published events, up to the capacity, per
+     * batch. As the events of concurrent producers interleave, {@link #flushEvents(long)} and
+     * {@link #syncWithVersion(long, String)} also wait for every event claimed in the ring buffer
+     * before the call. Must be called before {@link #start()}.
+     *
+     * @param capacity     number of slots, rounded up to a power of 2, 0 or less restores the list
+     * @param waitStrategy how producers and the background thread wait
+     */
+    public void setRingBufferHandoff(int capacity, WaitStrategy waitStrategy) {
+        if (_consumerThread != null) {
+            throw new IllegalStateException("ring buffer handoff must be set before start");
+        }
+        _ringBuffer = capacity > 0 ? new EventRingBuffer<DataEvent<D>>(capacity) : null;
+        _waitStrategy = waitStrategy == null ? WaitStrategy.PARK : waitStrategy;
+    }
+
     /**
      * Set the background DataConsumer.
      *
@@ -133,11 +171,60 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
      * @return the number of unprocessed events in buffered already.
      */
     public int getCurrentBatchSize() {
+        EventRingBuffer<DataEvent<D>> ringBuffer = _ringBuffer;
+        if (ringBuffer != null) {
+            return ringBuffer.size();
+        }
         synchronized (this) {
             return (_batch != null ? _batch.size() : 0);
         }
     }
 
+    /**
+     * @return number of events that can be buffered before consume blocks
+     */
+    @Override
+    public int getCredits() {
+        EventRingBuffer<DataEvent<D>> ringBuffer = _ringBuffer;
+        if (ringBuffer != null) {
+            return Math.max(0, ringBuffer.capacity() - ringBuffer.size());
+        }
+        synchronized (this) {
+            return Math.max(0, _batchSize - _batch.size());
+        }
+    }
+
+    @Override
+    public int awaitCredits(long timeout) throws InterruptedException {
+        long due = System.currentTimeMillis() + timeout;
+        EventRingBuffer<DataEvent<D>> ringBuffer = _ringBuffer;
+        if (ringBuffer != null) {
+            int credits = getCredits();
+            int attempt = 0;
+            while (credits == 0 && System.currentTimeMillis() < due) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                _waitStrategy.idle(attempt++);
+                credits = getCredits();
+            }
+            return credits;
+        }
+        synchronized (this) {
+            int credits = Math.max(0, _batchSize - _batch.size());
+            while (credits == 0) {
+                long now = System.currentTimeMillis();
+                if (now >= due) {
+                    break;
+                }
+                // woken by flushBuffer when it takes the buffered events
+                this.wait(due - now);
+                credits = Math.max(0, _batchSize - _batch.size());
+            }
+            return credits;
+        }
+    }
+
     public String getCurrentVersion() {
         synchronized (this) {
             return _currentVersion;
@@ -169,9 +256,13 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
             log.info("buffered version is NULL. Nothing to flush.");
             return;
         }
+        // a batch may hold a higher version than events of other producers still in the ring
+        EventRingBuffer<DataEvent<D>> ringBuffer = _ringBuffer;
+        long sequence = ringBuffer == null ? 0 : ringBuffer.getTail();
         synchronized (this) {
             long timeRemaining = Long.MAX_VALUE;
-            while (_currentVersion == null || _versionComparator.compare(_currentVersion, version) < 0) {
+            while (_currentVersion == null || _versionComparator.compare(_currentVersion, version) < 0
+                    || _consumedSequence < sequence) {
                 if (log.isDebugEnabled()) {
                     if (timeRemaining > timeInMillis + 5000) {
                         log.debug("syncWithVersion: timeRemaining: "
@@ -215,6 +306,12 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
             return;
         }
 
+        EventRingBuffer<DataEvent<D>> ringBuffer = _ringBuffer;
+        if (ringBuffer != null) {
+            publish(ringBuffer, data);
+            return;
+        }
+
         synchronized (this) {
             while (_batch.size() >= _batchSize) {
                 if (_consumerThread == null || !_consumerThread.isAlive() || _consumerThread._stop) {
@@ -227,12 +324,8 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
                 } catch (InterruptedException e) {
                 }
             }
-            for (DataEvent<D> event : data) {
-                _bufferedVersion = (_bufferedVersion == null) ? event.getVersion() : (_versionComparator
-                        .compare(_bufferedVersion, event.getVersion()) < 0 ? event.getVersion()
-                        : _bufferedVersion);
-                _batch.add(event);
-            }
+            _bufferedVersion = DefaultVersionComparator.max(_versionComparator, _bufferedVersion, data);
+            _batch.addAll(data);
             if (log.isDebugEnabled()) {
                 log.debug("consume:receiving: buffered: " + _bufferedVersion);
             }
@@ -240,7 +333,52 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
         }
     }
 
+    private void publish(EventRingBuffer<DataEvent<D>> ringBuffer, Collection<DataEvent<D>> data)
+            throws ZoieException {
+        ArrayList<DataEvent<D>> events = new ArrayList<DataEvent<D>>(data.size());
+        for (DataEvent<D> event : data) {
+            if (event != null) {
+                events.add(event);
+            }
+        }
+        int from = 0;
+        int attempt = 0;
+        while (from < events.size()) {
+            int to = Math.min(events.size(), from + ringBuffer.capacity());
+            if (ringBuffer.offer(events, from, to)) {
+                from = to;
+                attempt = 0;
+                continue;
+            }
+            ConsumerThread consumerThread = _consumerThread;
+            if (consumerThread == null || !consumerThread.isAlive() || consumerThread._stop) {
+                ZoieHealth.setFatal();
+                throw new ZoieException("consumer thread has stopped");
+            }
+            _waitStrategy.idle(attempt++);
+        }
+
+        String version = DefaultVersionComparator.max(_versionComparator, null, events);
+        String bufferedVersion;
+        do {
+            bufferedVersion = _bufferedVersion;
+            if (version == null || (bufferedVersion != null
+                    && _versionComparator.compare(bufferedVersion, version) >= 0)) {
+                break;
+            }
+        } while (!BUFFERED_VERSION_UPDATER.compareAndSet(this, bufferedVersion, version));
+        if (log.isDebugEnabled()) {
+            log.debug("consume:receiving: buffered: " + _bufferedVersion);
+        }
+    }
+
     protected final void flushBuffer() {
+        EventRingBuffer<DataEvent<D>> ringBuffer = _ringBuffer;
+        if (ringBuffer != null) {
+            flushRingBuffer(ringBuffer);
+            return;
+        }
+
         String version;
         LinkedList<DataEvent<D>> currentBatch;
 
@@ -261,6 +399,27 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
             _batch = new LinkedList<DataEvent<D>>();
             this.notifyAll(); // wake up the thread waiting in consume(...)
         }
+        consumeBatch(currentBatch, version, 0);
+    }
+
+    private void flushRingBuffer(EventRingBuffer<DataEvent<D>> ringBuffer) {
+        ArrayList<DataEvent<D>> currentBatch = new ArrayList<DataEvent<D>>();
+        int attempt = 0;
+        while (ringBuffer.drainTo(currentBatch, ringBuffer.capacity()) == 0) {
+            if (_consumerThread._stop) {
+                return;
+            }
+            _waitStrategy.idle(attempt++);
+        }
+        // only this thread changes _currentVersion
+        String version = DefaultVersionComparator.max(_versionComparator, _currentVersion, currentBatch);
+        consumeBatch(currentBatch, version, ringBuffer.getHead());
+    }
+
+    /**
+     * @param sequence ring buffer sequence following the batch, 0 without ring buffer
+     */
+    private void consumeBatch(Collection<DataEvent<D>> currentBatch, String version, long sequence) {
         if (log.isDebugEnabled()) {
             log.debug("flushBuffer: pre-flush: currentVersion: " + _currentVersion
                     + " processing version: " + version + " of size: " + currentBatch.size());
@@ -276,6 +435,7 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
 
         synchronized (this) {
             _currentVersion = version;
+            _consumedSequence = sequence;
             if (log.isDebugEnabled()) {
                 log.debug("flushBuffer: post-flush: currentVersion: " + _currentVersion);
             }
@@ -284,7 +444,7 @@ public class AsyncDataConsumer<D> implements LifeCycleCotrolledDataConsumer<D> {
     }
 
     private final class ConsumerThread extends IndexingThread {
-        boolean _stop = false;
+        volatile boolean _stop = false;
 
         ConsumerThread() {
             super("ConsumerThread");
@@ -24,6 +24,10 @@ public class DefaultReaderCache<R extends IndexReader> extends AbstractReaderCac
     private final ReentrantReadWriteLock returningIndexReaderQueueLock = new ReentrantReadWriteLock();
     private final Object cachemonitor = new Object();
     private long _freshness = 10000L;
+    // refresh on indexChanged, _freshness is then the bound on staleness if a change is missed
+    private volatile boolean _eventDriven = false;
+    private volatile long _coalesceWindow = 50L;
+    private volatile boolean _changed = false;
     private final WeakReference<IndexReaderFactory<R>> _readerfactory;
 
     public DefaultReaderCache(IndexReaderFactory<R> readerfactory) {
@@ -59,11 +63,12 @@ public class DefaultReaderCache<R extends IndexReader> extends AbstractReaderCac
     @Override
     public void refreshCache(long timeout) throws ZoieException {
         long begintime = System.currentTimeMillis();
+        _changed = true;
         while (cachedreaderTimestamp <= begintime) {
             synchronized (cachemonitor) {
                 cachemonitor.notifyAll();
                 long elapsed = System.currentTimeMillis() - begintime;
-                if (elapsed > timeout) {
+                if (elapsed >= timeout) {
                     log.debug("refreshCached reader timeout in " + elapsed + "ms");
                     throw new ZoieException("refreshCached reader timeout in " + elapsed + "ms");
                 }
@@ -98,6 +103,65 @@ public class DefaultReaderCache<R extends IndexReader> extends AbstractReaderCac
         _freshness = freshness;
     }
 
+    /**
+     * Switches between refreshing every freshness ms and refreshing when the index changes.
+     *
+     * @param eventDriven    whether to refresh on {@link #indexChanged()}, the freshness then bounds
+     *                       the staleness of the readers if no change is signalled
+     * @param coalesceWindow minimum time in ms between two refreshes, changes signalled in between
+     *                       are picked up by one refresh
+     */
+    public void setEventDrivenRefresh(boolean eventDriven, long coalesceWindow) {
+        _coalesceWindow = Math.max(0L, coalesceWindow);
+        _eventDriven = eventDriven;
+        synchronized (cachemonitor) {
+            cachemonitor.notifyAll();
+        }
+    }
+
+    public boolean isEventDrivenRefresh() {
+        return _eventDriven;
+    }
+
+    @Override
+    public void indexChanged() {
+        if (!_eventDriven || _changed) {
+            return;
+        }
+        _changed = true;
+        synchronized (cachemonitor) {
+            cachemonitor.notifyAll();
+        }
+    }
+
+    /**
+     * waits for the next refresh: the freshness in polling mode, otherwise until a change is
+     * signalled, at most the freshness, and no earlier than the coalesce window after the last
+     * refresh
+     */
+    private void awaitRefresh() throws InterruptedException {
+        if (!_eventDriven) {
+            synchronized (cachemonitor) {
+                cachemonitor.wait(_freshness);
+            }
+            return;
+        }
+        long deadline = cachedreaderTimestamp + _freshness;
+        synchronized (cachemonitor) {
+            while (!_changed && !alreadyShutdown && _eventDriven) {
+                long timetowait = deadline - System.currentTimeMillis();
+                if (timetowait <= 0) {
+                    return;
+                }
+                cachemonitor.wait(timetowait);
+            }
+        }
+        long timetowait = cachedreaderTimestamp + _coalesceWindow - System.currentTimeMillis();
+        if (timetowait > 0 && !alreadyShutdown) {
+            Thread.sleep(timetowait);
+        }
+    }
+
     private Thread newMaintenanceThread() {
         return new MaintenanceThread();
     }
@@ -111,12 +175,12 @@ public class DefaultReaderCache<R extends IndexReader> extends AbstractReaderCac
         public void run() {
             while (true) {
                 try {
-                    synchronized (cachemonitor) {
-                        cachemonitor.wait(_freshness);
-                    }
+                    awaitRefresh();
                 } catch (InterruptedException e) {
                     Thread.interrupted(); // clear interrupted state
                 }
+                // changes signalled from here on are picked up by the next refresh
+                _changed = false;
                 List<ZoieMultiReader<R>> newreaders = null;
                 if (alreadyShutdown) {
                     newreaders = new ArrayList<ZoieMultiReader<R>>();
@@ -0,0 +1,189 @@
+package proj.zoie.impl.indexing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.index.IndexReader;
+import proj.zoie.api.IndexReaderFactory;
+import proj.zoie.api.ZoieException;
+import proj.zoie.api.ZoieMultiReader;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reader cache that hands out the cached readers of the current epoch. A search takes a reference
+ * on each reader in getIndexReaders and returnIndexReaders releases them reader by reader, so the
+ * list returned may be a copy of, or merged into, the one handed out. When the maintenance thread
+ * publishes new readers the cache returns its references on the previous epoch to the
+ * IndexReaderFactory right away, and the last search releasing a superseded reader closes it,
+ * without waiting for the garbage collector or the next maintenance cycle.
+ * <p>
+ * The lists returned by getIndexReaders are shared by all searches of an epoch and must not be
+ * modified.
+ */
+@Slf4j
+public class EpochReaderCache<R extends IndexReader> extends AbstractReaderCache<R> {
+    private final Thread _maintenance;
+    private volatile boolean alreadyShutdown = false;
+    // readers of the current epoch, the cache holds one reference on each
+    private volatile List<ZoieMultiReader<R>> currentReaders = Collections
+            .unmodifiableList(new ArrayList<ZoieMultiReader<R>>(0));
+    private volatile long cachedreaderTimestamp = 0;
+    private final Object cachemonitor = new Object();
+    private long _freshness = 10000L;
+    private final WeakReference<IndexReaderFactory<R>> _readerfactory;
+
+    public EpochReaderCache(IndexReaderFactory<R> readerfactory) {
+        _readerfactory = new WeakReference<IndexReaderFactory<R>>(readerfactory);
+        _maintenance = new MaintenanceThread();
+        _maintenance.setDaemon(true);
+    }
+
+    @Override
+    public List<ZoieMultiReader<R>> getIndexReaders() {
+        while (true) {
+            List<ZoieMultiReader<R>> readers = currentReaders;
+            if (acquire(readers)) {
+                return readers;
+            }
+            // superseded and released in the meantime, a newer epoch is already published
+        }
+    }
+
+    /**
+     * takes a reference on each reader, or on none if one of them is already released
+     */
+    private static <R extends IndexReader> boolean acquire(List<ZoieMultiReader<R>> readers) {
+        for (int i = 0; i < readers.size(); ++i) {
+            if (!readers.get(i).tryIncZoieRef()) {
+                for (int j = 0; j < i; ++j) {
+                    readers.get(j).decZoieRef();
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void returnIndexReaders(List<ZoieMultiReader<R>> readers) {
+        if (readers == null || readers.size() == 0) {
+            return;
+        }
+        IndexReaderFactory<R> readerfactory = _readerfactory.get();
+        if (readerfactory != null) {
+            readerfactory.returnIndexReaders(readers);
+        } else {
+            for (ZoieMultiReader<R> r : readers) {
+                r.decZoieRef();
+            }
+        }
+    }
+
+    @Override
+    public void refreshCache(long timeout) throws ZoieException {
+        long begintime = System.currentTimeMillis();
+        while (cachedreaderTimestamp <= begintime) {
+            synchronized (cachemonitor) {
+                cachemonitor.notifyAll();
+                long elapsed = System.currentTimeMillis() - begintime;
+                if (elapsed >= timeout) {
+                    log.debug("refreshCached reader timeout in " + elapsed + "ms");
+                    throw new ZoieException("refreshCached reader timeout in " + elapsed + "ms");
+                }
+                long timetowait = Math.min(timeout - elapsed, 200);
+                try {
+                    cachemonitor.wait(timetowait);
+                } catch (InterruptedException e) {
+                    log.warn("refreshCache", e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        _freshness = 30000L;
+        alreadyShutdown = true;
+        synchronized (cachemonitor) {
+            cachemonitor.notifyAll();
+        }
+    }
+
+    @Override
+    public void start() {
+        _maintenance.start();
+    }
+
+    @Override
+    public long getFreshness() {
+        return _freshness;
+    }
+
+    @Override
+    public void setFreshness(long freshness) {
+        _freshness = freshness;
+    }
+
+    private class MaintenanceThread extends Thread {
+        public MaintenanceThread() {
+            super("EpochReaderCache-zoie-indexReader-maintenance");
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    synchronized (cachemonitor) {
+                        cachemonitor.wait(_freshness);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.interrupted(); // clear interrupted state
+                }
+                List<ZoieMultiReader<R>> newreaders = null;
+                if (alreadyShutdown) {
+                    newreaders = new ArrayList<ZoieMultiReader<R>>(0);
+                    // clean up and quit
+                } else {
+                    try {
+                        IndexReaderFactory<R> readerfactory = _readerfactory.get();
+                        if (readerfactory != null) {
+                            newreaders = readerfactory.getIndexReaders();
+                        } else {
+                            newreaders = new ArrayList<ZoieMultiReader<R>>(0);
+                        }
+                    } catch (IOException e) {
+                        log.info("EpochReaderCache-zoie-indexReader-maintenance", e);
+                        newreaders = new ArrayList<ZoieMultiReader<R>>(0);
+                    }
+                }
+                List<ZoieMultiReader<R>> oldreaders = currentReaders;
+                currentReaders = Collections.unmodifiableList(newreaders);
+                cachedreaderTimestamp = System.currentTimeMillis();
+                synchronized (cachemonitor) {
+                    cachemonitor.notifyAll();
+                }
+                // drop the references held for being the current epoch, searches still holding
+                // the readers release them when they are done
+                returnIndexReaders(oldreaders);
+                // keeps serving refreshCache after shutdown, ZoieSystem flushes once it is shut down
+                if (_readerfactory.get() == null && newreaders.isEmpty()) {
+                    log.info("ZoieSystem has been GCed. Exiting EpochReaderCache Maintenance Thread "
+                            + this);
+                    break;
+                }
+            }
+        }
+    }
+
+    public static ReaderCacheFactory FACTORY = new ReaderCacheFactory() {
+
+        @Override
+        public <R extends IndexReader> AbstractReaderCache<R> newInstance(
+                IndexReaderFactory<R> readerfactory) {
+            return new EpochReaderCache<R>(readerfactory);
+        }
+    };
+}
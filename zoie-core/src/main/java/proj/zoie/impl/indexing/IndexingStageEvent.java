@@ -0,0 +1,84 @@
+package proj.zoie.impl.indexing;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import proj.zoie.api.indexing.IndexingEventListener.IndexingEvent;
+
+/**
+ * Reports how long one stage of the indexing pipeline took for a batch of events.
+ */
+public final class IndexingStageEvent extends IndexingEvent {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 1L;
+
+    public static enum Stage {
+        /**
+         * converting and interpreting data events into indexables
+         */
+        INTERPRET,
+        /**
+         * indexing interpreted events into the RAM index
+         */
+        RAM_INDEX
+    }
+
+    private final Stage _stage;
+    private final int _numEvents;
+    private final long _startTime;
+    private final long _endTime;
+    private final int _numThreads;
+
+    public IndexingStageEvent(Stage stage, int numEvents, long startTime, long endTime, int numThreads) {
+        _stage = stage;
+        _numEvents = numEvents;
+        _startTime = startTime;
+        _endTime = endTime;
+        _numThreads = numThreads;
+    }
+
+    public Stage getStage() {
+        return _stage;
+    }
+
+    public int getNumEvents() {
+        return _numEvents;
+    }
+
+    public long getStartTime() {
+        return _startTime;
+    }
+
+    public long getEndTime() {
+        return _endTime;
+    }
+
+    public int getNumThreads() {
+        return _numThreads;
+    }
+
+    /**
+     * @return events processed per second by this stage for the batch
+     */
+    public double getThroughput() {
+        long duration = Math.max(1L, _endTime - _startTime);
+        return _numEvents * 1000.0 / duration;
+    }
+}
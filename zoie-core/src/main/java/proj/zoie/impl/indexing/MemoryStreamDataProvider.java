@@ -20,9 +20,10 @@ package proj.zoie.impl.indexing;
 import lombok.extern.slf4j.Slf4j;
 import proj.zoie.api.DataConsumer.DataEvent;
 import proj.zoie.api.ZoieException;
+import proj.zoie.impl.indexing.ZoieConfig.DefaultVersionComparator;
 
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -72,15 +73,10 @@ public class MemoryStreamDataProvider<D> extends StreamDataProvider<D> {
 
     public void addEvents(List<DataEvent<D>> list) {
         if (list != null && !list.isEmpty()) {
-            Iterator<DataEvent<D>> iter = list.iterator();
             synchronized (this) {
-                while (iter.hasNext()) {
-                    DataEvent<D> obj = iter.next();
-                    _maxVersion = _versionComparator.compare(_maxVersion, obj.getVersion()) >= 0 ? _maxVersion
-                            : obj.getVersion();
-                    _count++;
-                    _list.add(obj);
-                }
+                _maxVersion = DefaultVersionComparator.max(_versionComparator, _maxVersion, list);
+                _count += list.size();
+                _list.addAll(list);
                 this.notifyAll();
             }
         }
@@ -110,6 +106,20 @@ public class MemoryStreamDataProvider<D> extends StreamDataProvider<D> {
         return obj;
     }
 
+    @Override
+    public List<DataEvent<D>> nextBatch(int max) {
+        List<DataEvent<D>> events = new ArrayList<DataEvent<D>>(Math.min(max, 1024));
+        synchronized (this) {
+            while (events.size() < max && !_list.isEmpty()) {
+                events.add(_list.remove(0));
+            }
+            if (!events.isEmpty()) {
+                this.notifyAll();
+            }
+        }
+        return events;
+    }
+
     public int getCount() {
         synchronized (this) {
             return _count;
@@ -53,7 +53,7 @@ public class SmartReaderCache<R extends IndexReader> extends AbstractReaderCache
             synchronized (cachemonitor) {
                 cachemonitor.notifyAll();
                 long elapsed = System.currentTimeMillis() - begintime;
-                if (elapsed > timeout) {
+                if (elapsed >= timeout) {
                     log.debug("refreshCached reader timeout in " + elapsed + "ms");
                     throw new ZoieException("refreshCached reader timeout in " + elapsed + "ms");
                 }
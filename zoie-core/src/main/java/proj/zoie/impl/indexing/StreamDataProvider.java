@@ -21,12 +21,15 @@ import lombok.extern.slf4j.Slf4j;
 import proj.zoie.api.DataConsumer;
 import proj.zoie.api.DataConsumer.DataEvent;
 import proj.zoie.api.DataProvider;
+import proj.zoie.api.FlowControlledDataConsumer;
 import proj.zoie.api.ZoieException;
 import proj.zoie.mbean.DataProviderAdminMBean;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
@@ -36,6 +39,7 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
     private DataConsumer<D> _consumer;
     private DataThread<D> _thread;
     private volatile int _retryTime = 100; // default retry every 100ms
+    private volatile int _pipelineDepth = 0;
 
     protected final Comparator<String> _versionComparator;
 
@@ -63,6 +67,27 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
 
     public abstract DataEvent<D> next();
 
+    /**
+     * Fetches up to max events, used instead of {@link #next()} when the provider is pipelined.
+     * Fewer events are returned only if no more are available right now. The default implementation
+     * calls next() until it returns null, providers reading from a source that returns many events
+     * at a time should override it.
+     *
+     * @param max max number of events to return
+     * @return the events fetched, empty if none is available
+     */
+    public List<DataEvent<D>> nextBatch(int max) {
+        List<DataEvent<D>> events = new ArrayList<DataEvent<D>>(Math.min(max, 1024));
+        while (events.size() < max) {
+            DataEvent<D> event = next();
+            if (event == null) {
+                break;
+            }
+            events.add(event);
+        }
+        return events;
+    }
+
     public abstract void setStartingOffset(String version);
 
     public abstract void reset();
@@ -72,6 +97,20 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
         return _batchSize;
     }
 
+    public int getPipelineDepth() {
+        return _pipelineDepth;
+    }
+
+    /**
+     * Sets the number of fetched batches that can wait for the consumer. With a depth above 0 the
+     * events are fetched with {@link #nextBatch(int)} while a separate thread hands the previous
+     * batches to the consumer, so fetching and indexing overlap. 0, the default, fetches and
+     * consumes on the same thread. Takes effect on the next start.
+     */
+    public void setPipelineDepth(int pipelineDepth) {
+        _pipelineDepth = Math.max(0, pipelineDepth);
+    }
+
     @Override
     public long getEventsPerMinute() {
         DataThread<D> thread = _thread;
@@ -166,7 +205,7 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
         if (_thread == null || !_thread.isAlive()) {
             reset();
 
-            _thread = new DataThread<D>(this);
+            _thread = new DataThread<D>(this, _pipelineDepth);
             _thread.setMaxEventsPerMinute(_maxEventsPerMinute);
             _thread.setMaxVolatileTime(_maxVolatileTimeInMillis);
             _thread.start();
@@ -184,12 +223,19 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
         private final StreamDataProvider<D> _dataProvider;
         private volatile boolean _paused;
         private volatile boolean _stop;
+        private volatile boolean _waitingForCredits = false;
+        // events that may still be fetched, when the consumer is flow controlled
+        private int _credits = 0;
         private final AtomicLong _eventCount = new AtomicLong(0);
         private volatile long _throttle = 40000;
         private volatile long _maxVolatileTimeInMillis = Long.MAX_VALUE;
         private volatile long _lastFlushTime = System.currentTimeMillis();
         private boolean _flushing = false;
         private final Comparator<String> _versionComparator;
+        // batches fetched and not yet handed to the consumer, null if not pipelined
+        private final LinkedList<PendingBatch<D>> _pending;
+        private final int _pipelineDepth;
+        private final DeliveryThread _delivery;
 
         private void resetEventTimer() {
             _eventCount.set(0);
@@ -203,11 +249,14 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
                 if (_paused) {
                     return "paused";
                 }
+                if (_waitingForCredits) {
+                    return "waiting for consumer";
+                }
                 return "running";
             }
         }
 
-        DataThread(StreamDataProvider<D> dataProvider) {
+        DataThread(StreamDataProvider<D> dataProvider, int pipelineDepth) {
             super("Stream DataThread");
             setDaemon(false);
             _dataProvider = dataProvider;
@@ -217,10 +266,21 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
             _stop = false;
             _batch = new LinkedList<DataEvent<D>>();
             _versionComparator = dataProvider._versionComparator;
+            _pipelineDepth = pipelineDepth;
+            if (pipelineDepth > 0) {
+                _pending = new LinkedList<PendingBatch<D>>();
+                _delivery = new DeliveryThread();
+            } else {
+                _pending = null;
+                _delivery = null;
+            }
         }
 
         @Override
         public void start() {
+            if (_delivery != null) {
+                _delivery.start();
+            }
             super.start();
             resetEventTimer();
         }
@@ -244,23 +304,86 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
             }
         }
 
+        /**
+         * hands the batch to the consumer, or to the delivery thread if pipelined. Called holding
+         * the monitor.
+         */
         private void flush() {
             // FLUSH
             Collection<DataEvent<D>> tmp;
             tmp = _batch;
             _batch = new LinkedList<DataEvent<D>>();
+            _credits = Math.max(0, _credits - tmp.size());
+
+            if (_pending != null) {
+                if (tmp.size() > 0) {
+                    enqueue(new PendingBatch<D>(tmp, _bufferedVersion));
+                }
+            } else {
+                deliver(tmp);
+                _flushedVersion = _bufferedVersion;
+            }
+            _lastFlushTime = System.currentTimeMillis();
+        }
 
+        private void deliver(Collection<DataEvent<D>> batch) {
             try {
                 if (_dataProvider._consumer != null) {
-                    int batchSize = tmp.size();
-                    _dataProvider._consumer.consume(tmp);
+                    int batchSize = batch.size();
+                    _dataProvider._consumer.consume(batch);
                     _eventCount.getAndAdd(batchSize);
                     updateStats();
                 }
             } catch (ZoieException e) {
                 log.error(e.getMessage(), e);
             }
-            _lastFlushTime = System.currentTimeMillis();
+        }
+
+        /**
+         * waits, releasing the monitor, until the delivery thread has room for the batch
+         */
+        private void enqueue(PendingBatch<D> batch) {
+            while (_pending.size() >= _pipelineDepth && _delivery.isAlive()) {
+                try {
+                    this.wait(500);
+                } catch (InterruptedException e) {
+                    Thread.interrupted();
+                }
+            }
+            _pending.add(batch);
+            this.notifyAll();
+        }
+
+        /**
+         * Takes a credit for the next event when the consumer is flow controlled. Once the events
+         * fetched use up the credits they are handed over, then more credits are waited for.
+         *
+         * @return false if no credit was granted in time
+         */
+        private boolean acquireCredit() {
+            DataConsumer<D> consumer = _dataProvider._consumer;
+            if (!(consumer instanceof FlowControlledDataConsumer)) {
+                return true;
+            }
+            if (_batch.size() < _credits) {
+                return true;
+            }
+            if (_batch.size() > 0) {
+                synchronized (this) {
+                    flush();
+                    this.notifyAll();
+                }
+            }
+            try {
+                _waitingForCredits = true;
+                _credits = ((FlowControlledDataConsumer<D>) consumer).awaitCredits(500);
+            } catch (InterruptedException e) {
+                Thread.interrupted();
+                _credits = 0;
+            } finally {
+                _waitingForCredits = false;
+            }
+            return _credits > 0;
         }
 
         private long lastcount = 0;
@@ -322,37 +445,132 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
                         updateStats();
                     }
                 }
-                if (!_stop) {
+                if (!_stop && acquireCredit()) {
+                    if (_pending != null) {
+                        fetchBatch();
+                        continue;
+                    }
                     DataEvent<D> data = _dataProvider.next();
                     if (data != null) {
-                        _bufferedVersion = _versionComparator.compare(_bufferedVersion, data.getVersion()) >= 0 ? _bufferedVersion
-                                : data.getVersion();
+                        bufferVersion(data);
                         synchronized (this) {
                             _batch.add(data);
-                            if (_batch.size() >= _dataProvider._batchSize || _flushing
-                                    || System.currentTimeMillis() - _lastFlushTime > _maxVolatileTimeInMillis) {
+                            if (isBatchReady()) {
                                 flush();
-                                _flushedVersion = _bufferedVersion;
                                 this.notifyAll();
                             }
                         }
                     } else {
-                        synchronized (this) {
-                            if (_batch.size() > 0) {
-                                flush();
-                                _flushedVersion = _bufferedVersion;
-                            }
-                            this.notifyAll();
+                        idle();
+                    }
+                }
+            }
+            synchronized (this) {
+                flush();
+                if (_delivery != null) {
+                    // end of stream marker
+                    enqueue(new PendingBatch<D>(null, null));
+                }
+            }
+            if (_delivery != null) {
+                try {
+                    _delivery.join();
+                } catch (InterruptedException e) {
+                    log.warn("waiting for the delivery thread interrupted");
+                }
+            }
+        }
+
+        private void fetchBatch() {
+            int max = _dataProvider._batchSize - _batch.size();
+            if (_dataProvider._consumer instanceof FlowControlledDataConsumer) {
+                max = Math.min(max, _credits - _batch.size());
+            }
+            max = Math.max(1, max);
+            List<DataEvent<D>> events = _dataProvider.nextBatch(max);
+            if (events == null || events.isEmpty()) {
+                idle();
+                return;
+            }
+            for (DataEvent<D> data : events) {
+                bufferVersion(data);
+            }
+            synchronized (this) {
+                _batch.addAll(events);
+                // a short batch means the source has nothing more for now
+                if (events.size() < max || isBatchReady()) {
+                    flush();
+                    this.notifyAll();
+                }
+            }
+        }
+
+        private void bufferVersion(DataEvent<D> data) {
+            _bufferedVersion = _versionComparator.compare(_bufferedVersion, data.getVersion()) >= 0 ? _bufferedVersion
+                    : data.getVersion();
+        }
+
+        private boolean isBatchReady() {
+            return _batch.size() >= _dataProvider._batchSize || _flushing
+                    || System.currentTimeMillis() - _lastFlushTime > _maxVolatileTimeInMillis;
+        }
+
+        /**
+         * flushes what was fetched and waits before polling the provider again
+         */
+        private void idle() {
+            synchronized (this) {
+                if (_batch.size() > 0) {
+                    flush();
+                }
+                this.notifyAll();
+                try {
+                    this.wait(_dataProvider.getRetryTime());
+                } catch (InterruptedException e) {
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * delivery stage of a pipelined provider, hands the fetched batches to the consumer in order
+         */
+        private final class DeliveryThread extends Thread {
+            DeliveryThread() {
+                super("Stream DeliveryThread");
+                setDaemon(false);
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    PendingBatch<D> batch;
+                    synchronized (DataThread.this) {
+                        while (_pending.isEmpty()) {
                             try {
-                                this.wait(_dataProvider.getRetryTime());
+                                DataThread.this.wait(500);
                             } catch (InterruptedException e) {
                                 Thread.interrupted();
                             }
                         }
+                        batch = _pending.removeFirst();
+                        // room for the fetch stage
+                        DataThread.this.notifyAll();
+                    }
+                    if (batch._events == null) {
+                        return;
+                    }
+                    try {
+                        deliver(batch._events);
+                    } catch (RuntimeException e) {
+                        log.error(e.getMessage(), e);
+                    }
+                    synchronized (DataThread.this) {
+                        _flushedVersion = batch._version;
+                        DataThread.this.notifyAll();
                     }
                 }
             }
-            flush();
         }
 
         private long getEventCount() {
@@ -388,4 +606,15 @@ public abstract class StreamDataProvider<D> implements DataProvider<D>, DataProv
         }
 
     }
+
+    private static final class PendingBatch<D> {
+        // null marks the end of the stream
+        private final Collection<DataEvent<D>> _events;
+        private final String _version;
+
+        PendingBatch(Collection<DataEvent<D>> events, String version) {
+            _events = events;
+            _version = version;
+        }
+    }
 }
@@ -2,7 +2,6 @@ package proj.zoie.impl.indexing;
 
 import java.io.Serializable;
 import java.util.Comparator;
-import java.util.regex.Pattern;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
@@ -10,9 +9,11 @@ import org.apache.lucene.search.similarities.DefaultSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
 import org.apache.lucene.util.Version;
 
+import proj.zoie.api.DataConsumer.DataEvent;
 import proj.zoie.api.DocIDMapperFactory;
 import proj.zoie.api.impl.DefaultDocIDMapperFactory;
 import proj.zoie.impl.indexing.internal.DefaultRAMIndexFactory;
+import proj.zoie.impl.indexing.internal.EventRingBuffer.WaitStrategy;
 import proj.zoie.impl.indexing.internal.RAMIndexFactory;
 
 /**
@@ -56,6 +57,16 @@ public class ZoieConfig {
     ReaderCacheFactory readercachefactory = null;
     RAMIndexFactory<?> ramIndexFactory = null;
     boolean skipBadRecord = false;
+    boolean nearRealtimeRamIndex = false;
+    int interpretationThreads = 1;
+    int indexingThreads = 1;
+    int ringBufferSize = 0;
+    WaitStrategy ringBufferWaitStrategy = WaitStrategy.PARK;
+    boolean keepDiskWriterOpen = false;
+    boolean eventDrivenRefresh = false;
+    long refreshCoalesceWindow = 50;
+    boolean storeValueAsDocValues = false;
+    long targetIndexingLag = 0;
 
     /**
      * Default constructor. Set the size of batch and batch delay to default value
@@ -178,19 +189,145 @@ public class ZoieConfig {
     @SuppressWarnings("rawtypes")
     public RAMIndexFactory<?> getRamIndexFactory() {
         if (ramIndexFactory == null) {
-            return new DefaultRAMIndexFactory();
+            return new DefaultRAMIndexFactory(nearRealtimeRamIndex);
         }
         return ramIndexFactory;
     }
 
+    public int getInterpretationThreads() {
+        return interpretationThreads;
+    }
+
+    /**
+     * Sets the number of threads that run {@link proj.zoie.api.indexing.ZoieIndexableInterpreter#convertAndInterpret}
+     * and build the indexing requests of a batch. Default is 1, i.e. events are interpreted on the consumer thread.
+     */
+    public void setInterpretationThreads(int interpretationThreads) {
+        this.interpretationThreads = interpretationThreads;
+    }
+
+    public int getIndexingThreads() {
+        return indexingThreads;
+    }
+
+    /**
+     * Sets the number of threads adding the documents of a batch to the RAM and disk IndexWriters.
+     * Default is 1, i.e. documents are added by the indexing thread only.
+     */
+    public void setIndexingThreads(int indexingThreads) {
+        this.indexingThreads = indexingThreads;
+    }
+
+    public int getRingBufferSize() {
+        return ringBufferSize;
+    }
+
+    /**
+     * Sets the capacity of the ring buffer handing incoming events to the indexing thread, see
+     * {@link AsyncDataConsumer#setRingBufferHandoff}. Default is 0, i.e. events are buffered in a
+     * synchronized list.
+     */
+    public void setRingBufferSize(int ringBufferSize) {
+        this.ringBufferSize = ringBufferSize;
+    }
+
+    public WaitStrategy getRingBufferWaitStrategy() {
+        return ringBufferWaitStrategy;
+    }
+
+    /**
+     * Sets how threads wait on the ring buffer when it is full or empty. Default is
+     * {@link WaitStrategy#PARK}.
+     */
+    public void setRingBufferWaitStrategy(WaitStrategy ringBufferWaitStrategy) {
+        this.ringBufferWaitStrategy = ringBufferWaitStrategy;
+    }
+
+    public boolean isEventDrivenRefresh() {
+        return eventDrivenRefresh;
+    }
+
+    /**
+     * Sets whether the {@link DefaultReaderCache} refreshes its readers when the index changes
+     * instead of every freshness ms. The freshness then bounds the staleness if no change is
+     * signalled. Default is false.
+     */
+    public void setEventDrivenRefresh(boolean eventDrivenRefresh) {
+        this.eventDrivenRefresh = eventDrivenRefresh;
+    }
+
+    public long getRefreshCoalesceWindow() {
+        return refreshCoalesceWindow;
+    }
+
+    /**
+     * Sets the minimum time in ms between two event driven reader refreshes. Default is 50.
+     */
+    public void setRefreshCoalesceWindow(long refreshCoalesceWindow) {
+        this.refreshCoalesceWindow = refreshCoalesceWindow;
+    }
+
+    public boolean isKeepDiskWriterOpen() {
+        return keepDiskWriterOpen;
+    }
+
+    /**
+     * Sets whether the disk index keeps its IndexWriter open between batches and RAM index flushes
+     * instead of closing it after each commit. Default is false.
+     */
+    public void setKeepDiskWriterOpen(boolean keepDiskWriterOpen) {
+        this.keepDiskWriterOpen = keepDiskWriterOpen;
+    }
+
+    public boolean isStoreValueAsDocValues() {
+        return storeValueAsDocValues;
+    }
+
+    /**
+     * Sets whether the store values of indexables are written as BinaryDocValues instead of a
+     * stored field, so that reading them by uid does not load and decompress the stored fields.
+     * Segments written with either mode can be read. Default is false.
+     */
+    public void setStoreValueAsDocValues(boolean storeValueAsDocValues) {
+        this.storeValueAsDocValues = storeValueAsDocValues;
+    }
+
+    public long getTargetIndexingLag() {
+        return targetIndexingLag;
+    }
+
+    /**
+     * Sets the indexing lag in ms the disk batch size and batch delay are adjusted to after each
+     * flush, the configured values being the starting point. Default is 0, keeping them static.
+     */
+    public void setTargetIndexingLag(long targetIndexingLag) {
+        this.targetIndexingLag = targetIndexingLag;
+    }
+
+    public boolean isNearRealtimeRamIndex() {
+        return nearRealtimeRamIndex;
+    }
+
+    /**
+     * If true, the default RAM indexes keep one IndexWriter open and refresh readers from it,
+     * the RAM index is only committed when it is flushed to disk. Ignored if a RAMIndexFactory is set.
+     */
+    public void setNearRealtimeRamIndex(boolean nearRealtimeRamIndex) {
+        this.nearRealtimeRamIndex = nearRealtimeRamIndex;
+    }
+
     public void setRamIndexFactory(RAMIndexFactory<?> ramIndexFactory) {
         this.ramIndexFactory = ramIndexFactory;
     }
 
+    /**
+     * Compares versions made of digits by their numeric value, other versions as Strings.
+     */
     public static class DefaultVersionComparator implements Comparator<String>, Serializable {
         private static final long serialVersionUID = 1L;
 
-        private static final Pattern _numPattern = Pattern.compile("[0-9]+");
+        // numbers with up to 18 digits always fit in a long
+        private static final int MAX_SAFE_DIGITS = 18;
 
         @Override
         public int compare(String s1, String s2) {
@@ -204,7 +341,25 @@ public class ZoieConfig {
                 return 1;
             }
 
-            if (_numPattern.matcher(s1).matches() && _numPattern.matcher(s2).matches()) {
+            if (isNumber(s1) && isNumber(s2)) {
+                int start1 = skipLeadingZeros(s1);
+                int start2 = skipLeadingZeros(s2);
+                int len1 = s1.length() - start1;
+                int len2 = s2.length() - start2;
+                if (len1 <= MAX_SAFE_DIGITS && len2 <= MAX_SAFE_DIGITS) {
+                    // same as comparing the values, without parsing them
+                    if (len1 != len2) {
+                        return len1 < len2 ? -1 : 1;
+                    }
+                    for (int i = 0; i < len1; ++i) {
+                        char c1 = s1.charAt(start1 + i);
+                        char c2 = s2.charAt(start2 + i);
+                        if (c1 != c2) {
+                            return c1 < c2 ? -1 : 1;
+                        }
+                    }
+                    return 0;
+                }
                 try {
                     return Long.valueOf(s1).compareTo(Long.valueOf(s2));
                 } catch (Throwable t) {
@@ -216,5 +371,72 @@ public class ZoieConfig {
         public boolean equals(String s1, String s2) {
             return (compare(s1, s2) == 0);
         }
+
+        private static boolean isNumber(String s) {
+            int len = s.length();
+            if (len == 0) {
+                return false;
+            }
+            for (int i = 0; i < len; ++i) {
+                char c = s.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int skipLeadingZeros(String s) {
+            int i = 0;
+            int last = s.length() - 1;
+            while (i < last && s.charAt(i) == '0') {
+                ++i;
+            }
+            return i;
+        }
+
+        /**
+         * compares the versions of two events, on their long versions when both have one and the
+         * comparator is a DefaultVersionComparator
+         */
+        public static int compare(Comparator<String> comparator, DataEvent<?> e1, DataEvent<?> e2) {
+            long v1 = e1.getLongVersion();
+            long v2 = e2.getLongVersion();
+            if (v1 != DataEvent.NO_LONG_VERSION && v2 != DataEvent.NO_LONG_VERSION
+                    && comparator instanceof DefaultVersionComparator) {
+                return v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            }
+            return comparator.compare(e1.getVersion(), e2.getVersion());
+        }
+
+        /**
+         * @return the event with the highest version, the first one of equal versions, null
+         *         entries are skipped
+         */
+        public static <D> DataEvent<D> latest(Comparator<String> comparator,
+                                              Iterable<DataEvent<D>> events) {
+            DataEvent<D> latest = null;
+            for (DataEvent<D> evt : events) {
+                if (evt != null && (latest == null || compare(comparator, latest, evt) < 0)) {
+                    latest = evt;
+                }
+            }
+            return latest;
+        }
+
+        /**
+         * @return the higher of version and the version of the latest event
+         */
+        public static <D> String max(Comparator<String> comparator, String version,
+                                     Iterable<DataEvent<D>> events) {
+            DataEvent<D> latest = latest(comparator, events);
+            if (latest == null) {
+                return version;
+            }
+            if (version == null || comparator.compare(version, latest.getVersion()) < 0) {
+                return latest.getVersion();
+            }
+            return version;
+        }
     }
 }
@@ -41,6 +41,7 @@ import proj.zoie.api.indexing.IndexingEventListener;
 import proj.zoie.api.indexing.OptimizeScheduler;
 import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexableInterpreter;
+import proj.zoie.impl.indexing.internal.AdaptiveBatchController;
 import proj.zoie.impl.indexing.internal.BatchedIndexDataLoader;
 import proj.zoie.impl.indexing.internal.DefaultRAMIndexFactory;
 import proj.zoie.impl.indexing.internal.DiskLuceneIndexDataLoader;
@@ -130,6 +131,16 @@ public class ZoieSystem<R extends IndexReader, D> extends AsyncDataConsumer<D> i
                 .getReadercachefactory(), (RAMIndexFactory<R>) zoieConfig.getRamIndexFactory(), zoieConfig
                 .getVersionComparator(), zoieConfig.isSkipBadRecord());
         readercache.setFreshness(zoieConfig.getFreshness());
+        if (readercache instanceof DefaultReaderCache<?>) {
+            ((DefaultReaderCache<?>) readercache).setEventDrivenRefresh(
+                    zoieConfig.isEventDrivenRefresh(), zoieConfig.getRefreshCoalesceWindow());
+        }
+        _rtdc.setInterpretationThreads(zoieConfig.getInterpretationThreads());
+        _searchIdxMgr.setIndexingThreads(zoieConfig.getIndexingThreads());
+        setRingBufferHandoff(zoieConfig.getRingBufferSize(), zoieConfig.getRingBufferWaitStrategy());
+        _searchIdxMgr.getDiskIndex().setKeepWriterOpen(zoieConfig.isKeepDiskWriterOpen());
+        _searchIdxMgr.setStoreValueAsDocValues(zoieConfig.isStoreValueAsDocValues());
+        _rtdc.setTargetLag(zoieConfig.getTargetIndexingLag());
     }
 
     /**
@@ -151,6 +162,16 @@ public class ZoieSystem<R extends IndexReader, D> extends AsyncDataConsumer<D> i
                 .getMaxBatchSize(), zoieConfig.getReadercachefactory(), (RAMIndexFactory<R>) zoieConfig
                 .getRamIndexFactory(), zoieConfig.getVersionComparator(), zoieConfig.isSkipBadRecord());
         readercache.setFreshness(zoieConfig.getFreshness());
+        if (readercache instanceof DefaultReaderCache<?>) {
+            ((DefaultReaderCache<?>) readercache).setEventDrivenRefresh(
+                    zoieConfig.isEventDrivenRefresh(), zoieConfig.getRefreshCoalesceWindow());
+        }
+        _rtdc.setInterpretationThreads(zoieConfig.getInterpretationThreads());
+        _searchIdxMgr.setIndexingThreads(zoieConfig.getIndexingThreads());
+        setRingBufferHandoff(zoieConfig.getRingBufferSize(), zoieConfig.getRingBufferWaitStrategy());
+        _searchIdxMgr.getDiskIndex().setKeepWriterOpen(zoieConfig.isKeepDiskWriterOpen());
+        _searchIdxMgr.setStoreValueAsDocValues(zoieConfig.isStoreValueAsDocValues());
+        _rtdc.setTargetLag(zoieConfig.getTargetIndexingLag());
     }
 
     /**
@@ -381,6 +402,12 @@ public class ZoieSystem<R extends IndexReader, D> extends AsyncDataConsumer<D> i
         super.setDataConsumer(_rtdc);
         readercache = readerCacheFactory.newInstance(_searchIdxMgr);
         log.info("using readerCache: " + readercache);
+        _searchIdxMgr.addReaderChangeListener(new SearchIndexManager.ReaderChangeListener() {
+            @Override
+            public void readersChanged() {
+                readercache.indexChanged();
+            }
+        });
     }
 
     /**
@@ -900,6 +927,47 @@ public class ZoieSystem<R extends IndexReader, D> extends AsyncDataConsumer<D> i
             return ZoieSystem.this.readercache.getFreshness();
         }
 
+        @Override
+        public long getTargetIndexingLag() {
+            AdaptiveBatchController controller = _rtdc.getBatchController();
+            return controller == null ? 0 : controller.getTargetLag();
+        }
+
+        @Override
+        public void setTargetIndexingLag(long targetLag) {
+            _rtdc.setTargetLag(targetLag);
+        }
+
+        @Override
+        public long getEstimatedIndexingLag() {
+            AdaptiveBatchController controller = _rtdc.getBatchController();
+            return controller == null ? 0 : controller.getEstimatedLag();
+        }
+
+        @Override
+        public long getFlushCostPerEventMicros() {
+            AdaptiveBatchController controller = _rtdc.getBatchController();
+            return controller == null ? 0 : controller.getCostPerEventMicros();
+        }
+
+        @Override
+        public long getBatchIncreases() {
+            AdaptiveBatchController controller = _rtdc.getBatchController();
+            return controller == null ? 0 : controller.getIncreases();
+        }
+
+        @Override
+        public long getBatchDecreases() {
+            AdaptiveBatchController controller = _rtdc.getBatchController();
+            return controller == null ? 0 : controller.getDecreases();
+        }
+
+        @Override
+        public String getLastBatchDecision() {
+            AdaptiveBatchController controller = _rtdc.getBatchController();
+            return controller == null ? null : controller.getLastDecision();
+        }
+
         @Override
         public void setFreshness(long freshness) {
             ZoieSystem.this.readercache.setFreshness(freshness);
@@ -0,0 +1,170 @@
+package proj.zoie.impl.indexing.internal;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Adjusts the batch size and the flush delay of a {@link BatchedIndexDataLoader} after each flush,
+ * from the flush duration and the events still queued, so that the indexing lag stays under a
+ * target while the batches are as large as this target allows.
+ * <p>
+ * The lag of the last event of the next batch is estimated as the flush delay, plus the time to
+ * flush the queued events at the observed cost per event. When it is over the target the delay is
+ * halved, and the batch size doubled if events are queued so that the backlog is drained in
+ * larger, cheaper per event, flushes. When it is under half the target the delay and the batch
+ * size grow additively. The batch size is always kept small enough for one flush to fit the target.
+ * <p>
+ * Not thread safe, {@link #update} is called by the loader holding its monitor.
+ */
+@Slf4j
+public class AdaptiveBatchController {
+    public static final long MIN_DELAY = 10;
+    // weight of the last flush in the cost per event average
+    private static final double COST_WEIGHT = 0.3;
+
+    private final long _targetLag;
+    private final long _maxDelay;
+    private double _costPerEvent = -1.0;
+    private int _batchSize = 0;
+    private long _delay = 0;
+    private volatile long _estimatedLag = 0;
+    private volatile long _increases = 0;
+    private volatile long _decreases = 0;
+    private volatile String _lastDecision = "none";
+
+    /**
+     * @param targetLag target indexing lag in ms, the delay never exceeds half of it
+     */
+    public AdaptiveBatchController(long targetLag) {
+        if (targetLag < 2 * MIN_DELAY) {
+            throw new IllegalArgumentException("target lag must be at least " + 2 * MIN_DELAY + "ms: "
+                    + targetLag);
+        }
+        _targetLag = targetLag;
+        _maxDelay = targetLag / 2;
+    }
+
+    public long getTargetLag() {
+        return _targetLag;
+    }
+
+    /**
+     * @return lag in ms estimated at the last flush
+     */
+    public long getEstimatedLag() {
+        return _estimatedLag;
+    }
+
+    /**
+     * @return average flush cost per event in microseconds
+     */
+    public long getCostPerEventMicros() {
+        return _costPerEvent < 0 ? 0 : (long) (_costPerEvent * 1000);
+    }
+
+    /**
+     * @return number of flushes after which the batch size or the delay was increased
+     */
+    public long getIncreases() {
+        return _increases;
+    }
+
+    /**
+     * @return number of flushes after which the batch size or the delay was decreased
+     */
+    public long getDecreases() {
+        return _decreases;
+    }
+
+    public String getLastDecision() {
+        return _lastDecision;
+    }
+
+    /**
+     * records a flush and computes the next batch size and delay, read with
+     * {@link #getBatchSize()} and {@link #getDelay()}
+     *
+     * @param numEvents    number of events flushed
+     * @param startTime    flush start time in ms
+     * @param endTime      flush end time in ms
+     * @param queued       events still queued after the flush
+     * @param batchSize    current batch size
+     * @param maxBatchSize upper bound of the batch size
+     * @param delay        current delay in ms
+     */
+    public void update(int numEvents, long startTime, long endTime, int queued, int batchSize,
+                         int maxBatchSize, long delay) {
+        if (numEvents > 0) {
+            double cost = (double) Math.max(0L, endTime - startTime) / numEvents;
+            _costPerEvent = _costPerEvent < 0 ? cost : COST_WEIGHT * cost + (1 - COST_WEIGHT)
+                    * _costPerEvent;
+        }
+        double costPerEvent = Math.max(_costPerEvent, 0.0);
+        long lag = delay + (long) (costPerEvent * Math.max(queued, batchSize));
+        _estimatedLag = lag;
+
+        int newBatchSize = batchSize;
+        long newDelay = delay;
+        if (lag > _targetLag) {
+            newDelay = Math.max(MIN_DELAY, delay / 2);
+            if (queued > 0) {
+                newBatchSize = (int) Math.min((long) batchSize * 2, maxBatchSize);
+            }
+        } else if (lag < _targetLag / 2) {
+            newDelay = Math.min(_maxDelay, delay + Math.max(MIN_DELAY, _maxDelay / 10));
+            newBatchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 4));
+        }
+        if (costPerEvent > 0) {
+            // one flush must fit the time left by the delay
+            long fitting = (long) ((_targetLag - newDelay) / costPerEvent);
+            newBatchSize = (int) Math.max(1L, Math.min(newBatchSize, fitting));
+        }
+        newBatchSize = Math.max(1, Math.min(newBatchSize, maxBatchSize));
+
+        if (newBatchSize > batchSize || newDelay > delay) {
+            ++_increases;
+        }
+        if (newBatchSize < batchSize || newDelay < delay) {
+            ++_decreases;
+        }
+        if (newBatchSize != batchSize || newDelay != delay) {
+            _lastDecision = "lag: " + lag + "ms, queued: " + queued + ", batch size: " + batchSize
+                    + " -> " + newBatchSize + ", delay: " + delay + " -> " + newDelay + "ms";
+            if (log.isDebugEnabled()) {
+                log.debug(_lastDecision);
+            }
+        }
+        _batchSize = newBatchSize;
+        _delay = newDelay;
+    }
+
+    /**
+     * @return batch size computed by the last update
+     */
+    public int getBatchSize() {
+        return _batchSize;
+    }
+
+    /**
+     * @return delay in ms computed by the last update
+     */
+    public long getDelay() {
+        return _delay;
+    }
+}
@@ -21,8 +21,16 @@ import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.Analyzer;
@@ -33,7 +41,9 @@ import org.apache.lucene.index.MergeScheduler;
 import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.similarities.Similarity;
 
+import proj.zoie.api.DocIDMapper;
 import proj.zoie.api.UIDFilter;
+import proj.zoie.api.ZoieSegmentReader;
 import proj.zoie.api.ZoieHealth;
 import proj.zoie.api.ZoieMultiReader;
 import proj.zoie.api.indexing.ZoieIndexable.IndexingReq;
@@ -47,7 +57,11 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
     protected volatile LongOpenHashSet _delDocs = new LongOpenHashSet();
     protected final SearchIndexManager<R> _idxMgr;
     protected boolean _closeWriterAfterUpdate;
+    // commit after each update but keep the writer open for the next one
+    protected volatile boolean _keepWriterOpen = false;
     protected final Comparator<String> _versionComparator;
+    // mappers of the segments written by the open writer that no reader knows yet
+    private final Map<String, DocIDMapper> _writerSegmentMappers = new ConcurrentHashMap<String, DocIDMapper>();
 
     protected BaseSearchIndex(SearchIndexManager<R> idxMgr, boolean closeWriterAfterUpdate) {
         _idxMgr = idxMgr;
@@ -84,10 +98,32 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
 
     abstract public ZoieMultiReader<R> openIndexReader();
 
+    public boolean isKeepWriterOpen() {
+        return _keepWriterOpen;
+    }
+
+    /**
+     * For indexes that commit after each update, keeps the IndexWriter open after the commit
+     * instead of closing it, so it is not opened again for the next update or RAM index flush.
+     */
+    public void setKeepWriterOpen(boolean keepWriterOpen) {
+        _keepWriterOpen = keepWriterOpen;
+    }
+
     abstract public void refresh() throws IOException;
 
+    /**
+     * Applies deletes and inserts to the index. If the writer is closed after update, the changes
+     * are committed, otherwise the writer is kept open and the changes are only visible to
+     * near-real-time readers opened from it until it is committed.
+     */
     public void updateIndex(LongSet delDocs, List<IndexingReq> insertDocs, Analyzer defaultAnalyzer,
                             Similarity similarity) throws IOException {
+        if (!_closeWriterAfterUpdate || _keepWriterOpen) {
+            // the long-lived writer has to be created with the default analyzer and similarity,
+            // before deleteDocs gets to open it without
+            openIndexWriter(defaultAnalyzer, similarity);
+        }
         if (delDocs != null && delDocs.size() > 0) {
             deleteDocs(delDocs);
         }
@@ -97,27 +133,112 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
         }
 
         IndexWriter idxMod = null;
+        boolean success = false;
         try {
             idxMod = openIndexWriter(defaultAnalyzer, similarity);
             if (idxMod != null) {
-                for (IndexingReq idxPair : insertDocs) {
-                    Analyzer analyzer = idxPair.getAnalyzer();
-                    Document doc = idxPair.getDocument();
-                    if (analyzer == null) {
-                        idxMod.addDocument(doc);
-                    } else {
-                        idxMod.addDocument(doc, analyzer);
-                    }
-                }
+                addDocuments(idxMod, insertDocs, _idxMgr.getIndexingExecutor(), _idxMgr.getIndexingThreads());
             }
+            success = true;
         } finally {
-            if (idxMod != null) {
-                idxMod.commit();
-                if (_closeWriterAfterUpdate) {
-                    closeIndexWriter();
+            finishUpdate(idxMod, success);
+        }
+    }
+
+    /**
+     * commits the writer if the index commits after each update, then closes it unless it is kept
+     * open. A writer that failed is closed in any case.
+     */
+    private void finishUpdate(IndexWriter writer, boolean success) throws IOException {
+        if (writer == null || !_closeWriterAfterUpdate) {
+            return;
+        }
+        boolean committed = false;
+        try {
+            writer.commit();
+            committed = true;
+        } finally {
+            if (!(success && committed && _keepWriterOpen)) {
+                closeIndexWriter();
+            }
+        }
+    }
+
+    /**
+     * Adds the documents with the given number of threads, the calling thread indexes the first
+     * chunk. All deletes of the batch are applied before, and there is at most one add list per UID,
+     * so the order in which the chunks are added does not matter.
+     */
+    private static void addDocuments(final IndexWriter writer, List<IndexingReq> insertDocs,
+                                     ExecutorService executor, int numThreads) throws IOException {
+        int size = insertDocs.size();
+        if (executor == null || numThreads <= 1 || size < numThreads * 2) {
+            addDocuments(writer, insertDocs);
+            return;
+        }
+
+        int chunkSize = (size + numThreads - 1) / numThreads;
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(numThreads);
+        for (int from = chunkSize; from < size; from += chunkSize) {
+            final List<IndexingReq> chunk = insertDocs.subList(from, Math.min(size, from + chunkSize));
+            try {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        addDocuments(writer, chunk);
+                        return null;
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // executor is being shut down
+                addDocuments(writer, chunk);
+            }
+        }
+
+        IOException failure = null;
+        try {
+            addDocuments(writer, insertDocs.subList(0, chunkSize));
+        } catch (IOException ioe) {
+            failure = ioe;
+        }
+
+        // every chunk has to be done before the writer is committed or closed
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                    }
+                    break;
                 }
             }
         }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void addDocuments(IndexWriter writer, List<IndexingReq> insertDocs)
+            throws IOException {
+        for (IndexingReq idxPair : insertDocs) {
+            Analyzer analyzer = idxPair.getAnalyzer();
+            Document doc = idxPair.getDocument();
+            if (analyzer == null) {
+                writer.addDocument(doc);
+            } else {
+                writer.addDocument(doc, analyzer);
+            }
+        }
     }
 
     public LongSet getDelDocs() {
@@ -133,10 +254,11 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
             ZoieMultiReader<R> reader = null;
             synchronized (this) {
                 reader = openIndexReader();
-                if (reader == null) {
+                // a reader released by a concurrent close must not be taken back, that would
+                // release its DirectoryReader a second time
+                if (reader == null || !reader.tryIncZoieRef()) {
                     return;
                 }
-                reader.incZoieRef();
                 reader.markDeletes(delDocs, _delDocs);
                 reader.decZoieRef();
             }
@@ -147,13 +269,13 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
         ZoieMultiReader<R> reader = null;
         synchronized (this) {
             reader = openIndexReader();
-            if (reader == null) {
+            if (reader == null || !reader.tryIncZoieRef()) {
                 return;
             }
-            reader.incZoieRef();
             reader.commitDeletes();
             reader.decZoieRef();
         }
+        _idxMgr.readersChanged();
     }
 
     private void deleteDocs(LongSet delDocs) throws IOException {
@@ -166,18 +288,44 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
             return;
         }
 
-        UIDFilter uidFilter = new UIDFilter(delDocs.toLongArray(), reader);
         IndexWriter writer = null;
+        boolean success = false;
         try {
             writer = openIndexWriter(null, null);
-            writer.deleteDocuments(new ConstantScoreQuery(uidFilter));
-            writer.commit();
+            applyDeletes(writer, reader, delDocs);
+            success = true;
         } finally {
-            closeIndexWriter();
+            if (_closeWriterAfterUpdate) {
+                finishUpdate(writer, success);
+            }
         }
     }
 
+    private void applyDeletes(IndexWriter writer, ZoieMultiReader<?> reader, LongSet delDocs)
+            throws IOException {
+        // the segments known to the reader use its mappers
+        for (ZoieSegmentReader<?> subReader : reader.getSubReaders()) {
+            _writerSegmentMappers.remove(subReader.getSegmentName());
+        }
+        UIDFilter uidFilter = new UIDFilter(delDocs.toLongArray(), reader, _writerSegmentMappers);
+        writer.deleteDocuments(new ConstantScoreQuery(uidFilter));
+    }
+
     public void loadFromIndex(BaseSearchIndex<R> index) throws IOException {
+        loadFromIndex(index, null, null);
+    }
+
+    /**
+     * Moves the read-only RAM index into this index. The pending deletes and the RAM segments are
+     * applied with one writer and committed once.
+     *
+     * @param analyzer   analyzer to open the writer with if it is not open, needed when the writer
+     *                   is kept open for the following updates
+     * @param similarity similarity to open the writer with if it is not open
+     */
+    public void loadFromIndex(BaseSearchIndex<R> index, Analyzer analyzer, Similarity similarity)
+            throws IOException {
+        long t0 = System.currentTimeMillis();
         LongSet delDocs = null;
         // delete docs in disk index first
         synchronized (this) {
@@ -186,22 +334,42 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
                 clearDeletes();
             }
         }
-        deleteDocs(delDocs);
 
         // open readOnly ram index reader
         ZoieMultiReader<R> reader = index.openIndexReader();
         if (reader == null) {
+            deleteDocs(delDocs);
             return;
         }
         // merge the readOnly ram index with the disk index
         IndexWriter writer = null;
+        boolean success = false;
         try {
-            writer = openIndexWriter(null, null);
+            writer = openIndexWriter(analyzer, similarity);
+            if (delDocs != null && delDocs.size() > 0) {
+                ZoieMultiReader<R> diskReader = openIndexReader();
+                if (diskReader != null) {
+                    // buffered deletes are applied before addIndexes adds the RAM segments
+                    applyDeletes(writer, diskReader, delDocs);
+                }
+            }
             writer.addIndexes(reader.directory());
             writer.maybeMerge();
+            success = true;
         } finally {
-            closeIndexWriter();
+            if (writer != null) {
+                boolean committed = false;
+                try {
+                    writer.commit();
+                    committed = true;
+                } finally {
+                    if (!(success && committed && _keepWriterOpen)) {
+                        closeIndexWriter();
+                    }
+                }
+            }
         }
+        log.info("RAM index loaded in " + (System.currentTimeMillis() - t0) + "ms");
     }
 
     abstract public IndexWriter openIndexWriter(Analyzer analyzer, Similarity similarity)
@@ -217,6 +385,7 @@ public abstract class BaseSearchIndex<R extends IndexReader> {
             }
             _indexWriter = null;
         }
+        _writerSegmentMappers.clear();
     }
 
     public void incrementEventCount(int eventCount) {
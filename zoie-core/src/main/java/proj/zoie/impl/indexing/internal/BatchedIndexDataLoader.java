@@ -20,6 +20,7 @@ package proj.zoie.impl.indexing.internal;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.index.IndexReader;
 import proj.zoie.api.DataConsumer;
+import proj.zoie.api.FlowControlledDataConsumer;
 import proj.zoie.api.LifeCycleCotrolledDataConsumer;
 import proj.zoie.api.ZoieException;
 import proj.zoie.api.ZoieHealth;
@@ -30,12 +31,12 @@ import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexableInterpreter;
 import proj.zoie.impl.indexing.IndexUpdatedEvent;
 import proj.zoie.impl.indexing.IndexingThread;
+import proj.zoie.impl.indexing.ZoieConfig.DefaultVersionComparator;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -54,7 +55,7 @@ import java.util.Queue;
  */
 @Slf4j
 public class BatchedIndexDataLoader<R extends IndexReader, D> implements
-        LifeCycleCotrolledDataConsumer<D> {
+        LifeCycleCotrolledDataConsumer<D>, FlowControlledDataConsumer<D> {
 
     protected int _batchSize;
     protected long _delay;
@@ -68,7 +69,9 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
     protected boolean _flush;
     protected final SearchIndexManager<R> _idxMgr;
     protected final ZoieIndexableInterpreter<D> _interpreter;
+    protected final InterpretationPool<D> _interpretationPool;
     private final Queue<IndexingEventListener> _lsnrList;
+    protected volatile AdaptiveBatchController _batchController = null;
 
     /**
      * @param dataLoader
@@ -95,6 +98,7 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
         _idxMgr = idxMgr;
         _interpreter = interpreter;
         _lsnrList = lsnrList;
+        _interpretationPool = new InterpretationPool<D>(interpreter, lsnrList);
         log.info("constructor: _maxBatchSize: " + _maxBatchSize + " _batchSize: " + _batchSize
                 + " _delay: " + _delay);
     }
@@ -155,32 +159,60 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
         log.info("setDelay: " + _delay);
     }
 
+    /**
+     * @return the controller adjusting the batch size and delay, null if they are static
+     */
+    public AdaptiveBatchController getBatchController() {
+        return _batchController;
+    }
+
+    /**
+     * Lets the batch size and the delay be adjusted after each flush to keep the indexing lag under
+     * the given target. Explicitly set values are used as the starting point.
+     *
+     * @param targetLag target indexing lag in ms, 0 restores static batch size and delay
+     */
+    public synchronized void setTargetLag(long targetLag) {
+        _batchController = targetLag > 0 ? new AdaptiveBatchController(targetLag) : null;
+        log.info("setTargetLag: " + targetLag);
+    }
+
+    /**
+     * Called after each flush holding the monitor of this loader.
+     */
+    protected void adaptBatch(int eventCount, long startTime, long endTime) {
+        AdaptiveBatchController controller = _batchController;
+        if (controller != null) {
+            controller.update(eventCount, startTime, endTime, _eventCount, _batchSize, _maxBatchSize,
+                    _delay);
+            _batchSize = controller.getBatchSize();
+            _delay = controller.getDelay();
+        }
+    }
+
     public synchronized int getEventCount() {
         return _eventCount;
     }
 
+    public int getInterpretationThreads() {
+        return _interpretationPool.getNumThreads();
+    }
+
+    /**
+     * @param numThreads number of threads used to interpret incoming events, 1 interprets them on the
+     *                   consuming thread
+     */
+    public void setInterpretationThreads(int numThreads) {
+        _interpretationPool.setNumThreads(numThreads);
+    }
+
     /**
      * @see proj.zoie.api.DataConsumer#consume(java.util.Collection)
      */
     @Override
     public void consume(Collection<DataEvent<D>> events) throws ZoieException {
         if (events != null) {
-            ArrayList<DataEvent<ZoieIndexable>> indexableList = new ArrayList<DataEvent<ZoieIndexable>>(
-                    events.size());
-            Iterator<DataEvent<D>> iter = events.iterator();
-            while (iter.hasNext()) {
-                try {
-                    DataEvent<D> event = iter.next();
-                    ZoieIndexable indexable = _interpreter
-                            .convertAndInterpret(event.getData());
-                    DataEvent<ZoieIndexable> newEvent = new DataEvent<ZoieIndexable>(indexable,
-                            event.getVersion(), event.isDelete());
-                    indexableList.add(newEvent);
-                } catch (Exception e) {
-                    ZoieHealth.setFatal();
-                    log.error(e.getMessage(), e);
-                }
-            }
+            ArrayList<DataEvent<ZoieIndexable>> indexableList = _interpretationPool.interpret(events);
 
             synchronized (this) // this blocks the batch disk loader thread while indexing to RAM
             {
@@ -207,6 +239,29 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
         return (_batchList != null ? _batchList.size() : 0);
     }
 
+    /**
+     * @return number of events that can be added before the buffered events reach the max batch size
+     */
+    @Override
+    public synchronized int getCredits() {
+        return Math.max(0, _maxBatchSize - getCurrentBatchSize());
+    }
+
+    @Override
+    public synchronized int awaitCredits(long timeout) throws InterruptedException {
+        long due = System.currentTimeMillis() + timeout;
+        int credits = getCredits();
+        while (credits == 0 && !_stop) {
+            long now = System.currentTimeMillis();
+            if (now >= due) {
+                break;
+            }
+            this.wait(due - now);
+            credits = getCredits();
+        }
+        return credits;
+    }
+
     /**
      * This method needs to be called within a synchronized block on 'this'.
      *
@@ -294,17 +349,8 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
         if (tmpList != null) {
             long t1 = System.currentTimeMillis();
             int eventCount = tmpList.size();
-            Comparator<String> versioComparator = _idxMgr.getVersionComparator();
-            for (DataEvent<ZoieIndexable> evt : tmpList) {
-                String newVersion = evt.getVersion();
-                if (currentVersion == null) {
-                    currentVersion = newVersion;
-                } else {
-                    if (versioComparator.compare(currentVersion, newVersion) < 0) {
-                        currentVersion = newVersion;
-                    }
-                }
-            }
+            currentVersion = DefaultVersionComparator.max(_idxMgr.getVersionComparator(),
+                    currentVersion, tmpList);
             try {
                 _dataLoader.consume(tmpList);
             } catch (ZoieException e) {
@@ -320,6 +366,7 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
 
                     IndexUpdatedEvent evt = new IndexUpdatedEvent(eventCount, t1, t2, _eventCount);
                     fireIndexingEvent(evt);
+                    adaptBatch(eventCount, t1, t2);
                     try {
                         String oldVersion = _idxMgr.getCurrentDiskVersion();
                         if (currentVersion != null && !currentVersion.equals(oldVersion)) {
@@ -371,6 +418,7 @@ public class BatchedIndexDataLoader<R extends IndexReader, D> implements
         } catch (InterruptedException e) {
             log.error(e.getMessage(), e);
         }
+        _interpretationPool.shutdown();
     }
 
     protected static class ZoieIndexableDecorator extends AbstractZoieIndexable {
@@ -10,9 +10,23 @@ import proj.zoie.api.indexing.IndexReaderDecorator;
  * @author "Xiaoyang Gu<xgu@linkedin.com>"
  */
 public class DefaultRAMIndexFactory<R extends IndexReader> extends RAMIndexFactory<R> {
+    private final boolean _nearRealtime;
+
+    public DefaultRAMIndexFactory() {
+        this(false);
+    }
+
+    /**
+     * @param nearRealtime whether the RAM indexes keep a long-lived writer and open near-real-time
+     *                     readers from it instead of committing every batch
+     */
+    public DefaultRAMIndexFactory(boolean nearRealtime) {
+        _nearRealtime = nearRealtime;
+    }
+
     @Override
     public synchronized RAMSearchIndex<R> newInstance(String version,
                                                       IndexReaderDecorator<R> decorator, SearchIndexManager<R> idxMgr) {
-        return new RAMSearchIndex<R>(version, decorator, idxMgr, new RAMDirectory(), null);
+        return new RAMSearchIndex<R>(version, decorator, idxMgr, new RAMDirectory(), null, _nearRealtime);
     }
 }
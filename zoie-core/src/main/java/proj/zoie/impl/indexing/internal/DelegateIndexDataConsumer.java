@@ -20,14 +20,12 @@ package proj.zoie.impl.indexing.internal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
 
 
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import proj.zoie.api.DataConsumer;
 import proj.zoie.api.ZoieException;
-import proj.zoie.api.ZoieHealth;
 import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexableInterpreter;
 
@@ -35,13 +33,29 @@ import proj.zoie.api.indexing.ZoieIndexableInterpreter;
 public class DelegateIndexDataConsumer<D> implements DataConsumer<D> {
     private final DataConsumer<ZoieIndexable> _diskConsumer;
     private final DataConsumer<ZoieIndexable> _ramConsumer;
-    private final ZoieIndexableInterpreter<D> _interpreter;
+    private final InterpretationPool<D> _interpretationPool;
 
+    /**
+     * interprets on the consuming thread and notifies no listener
+     *
+     * @deprecated use {@link #DelegateIndexDataConsumer(DataConsumer, DataConsumer, InterpretationPool)}
+     *             with the interpretation pool configured for the indexing system
+     */
+    @Deprecated
     public DelegateIndexDataConsumer(DataConsumer<ZoieIndexable> diskConsumer,
                                      DataConsumer<ZoieIndexable> ramConsumer, ZoieIndexableInterpreter<D> interpreter) {
+        this(diskConsumer, ramConsumer, new InterpretationPool<D>(interpreter, 1, null));
+    }
+
+    /**
+     * @param interpretationPool configured with the interpretation threads and indexing listeners
+     *                           of the indexing system, shut down by its owner
+     */
+    public DelegateIndexDataConsumer(DataConsumer<ZoieIndexable> diskConsumer,
+                                     DataConsumer<ZoieIndexable> ramConsumer, InterpretationPool<D> interpretationPool) {
         _diskConsumer = diskConsumer;
         _ramConsumer = ramConsumer;
-        _interpreter = interpreter;
+        _interpretationPool = interpretationPool;
     }
 
     @Override
@@ -49,23 +63,7 @@ public class DelegateIndexDataConsumer<D> implements DataConsumer<D> {
         if (data != null) {
             // PriorityQueue<DataEvent<ZoieIndexable>> indexableList = new
             // PriorityQueue<DataEvent<ZoieIndexable>>(data.size(), DataEvent.getComparator());
-            ArrayList<DataEvent<ZoieIndexable>> indexableList = new ArrayList<DataEvent<ZoieIndexable>>(
-                    data.size());
-            Iterator<DataEvent<D>> iter = data.iterator();
-            while (iter.hasNext()) {
-                try {
-                    DataEvent<D> event = iter.next();
-                    ZoieIndexable indexable = ((ZoieIndexableInterpreter<D>) _interpreter)
-                            .convertAndInterpret(event.getData());
-
-                    DataEvent<ZoieIndexable> newEvent = new DataEvent<ZoieIndexable>(indexable,
-                            event.getVersion(), event.isDelete());
-                    indexableList.add(newEvent);
-                } catch (Exception e) {
-                    ZoieHealth.setFatal();
-                    log.error(e.getMessage(), e);
-                }
-            }
+            ArrayList<DataEvent<ZoieIndexable>> indexableList = _interpretationPool.interpret(data);
 
             if (_diskConsumer != null) {
                 synchronized (_diskConsumer) // this blocks the batch disk loader thread while indexing to
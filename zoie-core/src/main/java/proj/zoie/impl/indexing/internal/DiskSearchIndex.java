@@ -260,6 +260,7 @@ public class DiskSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
     @Override
     public void setVersion(String version) throws IOException {
         _dirMgr.setVersion(version);
+        _idxMgr.readersChanged();
     }
 
     public DiskIndexSnapshot getSnapshot() throws IOException {
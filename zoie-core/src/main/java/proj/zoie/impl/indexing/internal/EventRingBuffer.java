@@ -0,0 +1,178 @@
+package proj.zoie.impl.indexing.internal;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer handing events from many producer threads to a single consumer thread
+ * without locks. Producers claim a run of slots with a CAS on the tail and publish each event by
+ * writing it to its slot, the consumer takes events in sequence order until it reaches a slot
+ * that is not published yet. Null elements are not allowed, an empty slot means unpublished.
+ *
+ * @param <E> element type
+ */
+public class EventRingBuffer<E> {
+    /**
+     * How a thread waits for the ring buffer to have room or events.
+     */
+    public enum WaitStrategy {
+        /**
+         * busy spins, lowest latency and a fully used core while idle
+         */
+        SPIN {
+            @Override
+            public void idle(int attempt) {
+            }
+        },
+        /**
+         * yields the processor between attempts
+         */
+        YIELD {
+            @Override
+            public void idle(int attempt) {
+                Thread.yield();
+            }
+        },
+        /**
+         * parks the thread, backing off from 10us up to 1ms
+         */
+        PARK {
+            @Override
+            public void idle(int attempt) {
+                LockSupport.parkNanos(Math.min(MAX_PARK_NANOS, MIN_PARK_NANOS << Math.min(attempt, 7)));
+            }
+        };
+
+        private static final long MIN_PARK_NANOS = 10000L;
+        private static final long MAX_PARK_NANOS = 1000000L;
+
+        /**
+         * @param attempt number of unsuccessful attempts so far
+         */
+        public abstract void idle(int attempt);
+    }
+
+    private final AtomicReferenceArray<E> _slots;
+    private final int _mask;
+    // next sequence to be claimed by a producer
+    private final AtomicLong _tail = new AtomicLong(0);
+    // next sequence to be taken by the consumer, only written by the consumer
+    private volatile long _head = 0;
+
+    /**
+     * @param capacity rounded up to the next power of 2
+     */
+    public EventRingBuffer(int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        _slots = new AtomicReferenceArray<E>(size);
+        _mask = size - 1;
+    }
+
+    public int capacity() {
+        return _mask + 1;
+    }
+
+    /**
+     * @return sequence following the last slot claimed by a producer, published or not
+     */
+    public long getTail() {
+        return _tail.get();
+    }
+
+    /**
+     * @return sequence of the next event the consumer takes
+     */
+    public long getHead() {
+        return _head;
+    }
+
+    /**
+     * @return number of claimed slots, including the ones not published yet
+     */
+    public int size() {
+        return (int) (_tail.get() - _head);
+    }
+
+    /**
+     * publishes items[from, to) as one run, or nothing if there is not enough room.
+     *
+     * @return false if the buffer does not have to - from free slots
+     */
+    public boolean offer(List<? extends E> items, int from, int to) {
+        int n = to - from;
+        if (n > capacity()) {
+            throw new IllegalArgumentException(n + " items exceed capacity " + capacity());
+        }
+        // checked up front, a claimed slot left unpublished would block the consumer for good
+        for (int i = from; i < to; ++i) {
+            if (items.get(i) == null) {
+                throw new NullPointerException("null element");
+            }
+        }
+        long tail;
+        do {
+            tail = _tail.get();
+            if (tail + n - _head > capacity()) {
+                return false;
+            }
+        } while (!_tail.compareAndSet(tail, tail + n));
+
+        for (int i = 0; i < n; ++i) {
+            _slots.lazySet((int) ((tail + i) & _mask), items.get(from + i));
+        }
+        return true;
+    }
+
+    /**
+     * moves up to max published events in sequence order to out. Must only be called by the
+     * consumer thread.
+     *
+     * @return number of events moved
+     */
+    public int drainTo(Collection<? super E> out, int max) {
+        long head = _head;
+        int n = 0;
+        while (n < max) {
+            int idx = (int) (head & _mask);
+            E item = _slots.get(idx);
+            if (item == null) {
+                break;
+            }
+            _slots.lazySet(idx, null);
+            out.add(item);
+            ++head;
+            ++n;
+        }
+        if (n > 0) {
+            // frees the slots for the producers
+            _head = head;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,272 @@
+package proj.zoie.impl.indexing.internal;
+
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * <p>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+import proj.zoie.api.DataConsumer.DataEvent;
+import proj.zoie.api.ZoieExecutors;
+import proj.zoie.api.ZoieHealth;
+import proj.zoie.api.indexing.IndexingEventListener;
+import proj.zoie.api.indexing.ZoieIndexable;
+import proj.zoie.api.indexing.ZoieIndexableInterpreter;
+import proj.zoie.impl.indexing.IndexingStageEvent;
+import proj.zoie.impl.indexing.IndexingStageEvent.Stage;
+
+/**
+ * Converts and interprets data events into indexables. With more than one thread, a batch is split
+ * into contiguous chunks that are interpreted concurrently, the indexing requests are built on the
+ * worker threads as well. The returned events are always in the order of the incoming batch.
+ */
+@Slf4j
+public class InterpretationPool<D> {
+    private final ZoieIndexableInterpreter<D> _interpreter;
+    private final Queue<IndexingEventListener> _lsnrList;
+    private ExecutorService _executor;
+    private int _numThreads;
+
+    /**
+     * @param interpreter the interpreter
+     * @param lsnrList    listeners notified with an {@link IndexingStageEvent} per batch, may be null
+     */
+    public InterpretationPool(ZoieIndexableInterpreter<D> interpreter,
+                              Queue<IndexingEventListener> lsnrList) {
+        _interpreter = interpreter;
+        _lsnrList = lsnrList;
+        _executor = null;
+        _numThreads = 1;
+    }
+
+    /**
+     * @param interpreter the interpreter
+     * @param numThreads  number of interpretation threads, see {@link #setNumThreads(int)}
+     * @param lsnrList    listeners notified with an {@link IndexingStageEvent} per batch, may be null
+     */
+    public InterpretationPool(ZoieIndexableInterpreter<D> interpreter, int numThreads,
+                              Queue<IndexingEventListener> lsnrList) {
+        this(interpreter, lsnrList);
+        setNumThreads(numThreads);
+    }
+
+    public synchronized int getNumThreads() {
+        return _numThreads;
+    }
+
+    /**
+     * @param numThreads number of interpretation threads, 1 or less interprets on the calling thread
+     */
+    public synchronized void setNumThreads(int numThreads) {
+        numThreads = Math.max(1, numThreads);
+        if (numThreads == _numThreads) {
+            return;
+        }
+        shutdown();
+        if (numThreads > 1) {
+            _executor = ZoieExecutors.newFixedThreadPool(numThreads, new ThreadFactory() {
+                private final AtomicInteger _count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "zoie interpreter-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        _numThreads = numThreads;
+        log.info("setNumThreads: " + _numThreads);
+    }
+
+    public synchronized void shutdown() {
+        if (_executor != null) {
+            _executor.shutdown();
+            _executor = null;
+        }
+        _numThreads = 1;
+    }
+
+    /**
+     * @param events incoming events
+     * @return interpreted events in the same order, events that failed to interpret are dropped
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized ArrayList<DataEvent<ZoieIndexable>> interpret(Collection<DataEvent<D>> events) {
+        long start = System.currentTimeMillis();
+        int size = events.size();
+        final DataEvent<D>[] src = (DataEvent<D>[]) events.toArray(new DataEvent<?>[size]);
+        final DataEvent<ZoieIndexable>[] dest = (DataEvent<ZoieIndexable>[]) new DataEvent<?>[size];
+
+        int numThreads = _numThreads;
+        if (_executor == null || size < numThreads * 2) {
+            numThreads = 1;
+            interpret(src, dest, 0, size, false);
+        } else {
+            int chunkSize = (size + numThreads - 1) / numThreads;
+            List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+            for (int from = 0; from < size; from += chunkSize) {
+                final int lo = from;
+                final int hi = Math.min(size, from + chunkSize);
+                futures.add(_executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        interpret(src, dest, lo, hi, true);
+                    }
+                }));
+            }
+            waitFor(futures);
+        }
+
+        ArrayList<DataEvent<ZoieIndexable>> indexableList = new ArrayList<DataEvent<ZoieIndexable>>(size);
+        for (DataEvent<ZoieIndexable> evt : dest) {
+            if (evt != null) {
+                indexableList.add(evt);
+            }
+        }
+        fireIndexingEvent(new IndexingStageEvent(Stage.INTERPRET, size, start,
+                System.currentTimeMillis(), numThreads));
+        return indexableList;
+    }
+
+    private void interpret(DataEvent<D>[] src, DataEvent<ZoieIndexable>[] dest, int lo, int hi,
+                           boolean prepare) {
+        for (int i = lo; i < hi; ++i) {
+            try {
+                DataEvent<D> event = src[i];
+                ZoieIndexable indexable = _interpreter.convertAndInterpret(event.getData());
+                if (prepare) {
+                    indexable = PreparedIndexable.prepare(indexable, event.isDelete());
+                }
+                dest[i] = event.copy(indexable, event.isDelete());
+            } catch (Exception e) {
+                ZoieHealth.setFatal();
+                log.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void waitFor(List<Future<?>> futures) {
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // all chunks have to be done before the results are handed on
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    ZoieHealth.setFatal();
+                    log.error(e.getMessage(), e);
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void fireIndexingEvent(IndexingStageEvent evt) {
+        if (_lsnrList != null && _lsnrList.size() > 0) {
+            synchronized (_lsnrList) {
+                for (IndexingEventListener lsnr : _lsnrList) {
+                    try {
+                        lsnr.handleIndexingEvent(evt);
+                    } catch (Exception e) {
+                        log.error(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * An indexable whose indexing requests and store value were built on an interpretation thread.
+     * The prepared requests are handed out once, later calls build new ones, since the loaders
+     * modify the documents they index.
+     */
+    static final class PreparedIndexable implements ZoieIndexable {
+        private final ZoieIndexable _inner;
+        private IndexingReq[] _reqs;
+        private final byte[] _storeValue;
+
+        private PreparedIndexable(ZoieIndexable inner, IndexingReq[] reqs, byte[] storeValue) {
+            _inner = inner;
+            _reqs = reqs;
+            _storeValue = storeValue;
+        }
+
+        static ZoieIndexable prepare(ZoieIndexable inner, boolean isDelete) {
+            if (inner == null || inner.isSkip() || inner.isDeleted() || isDelete) {
+                return inner;
+            }
+            try {
+                IndexingReq[] reqs = inner.buildIndexingReqs();
+                byte[] storeValue = inner.isStorable() ? inner.getStoreValue() : null;
+                return new PreparedIndexable(inner, reqs, storeValue);
+            } catch (Exception e) {
+                // leave it to the loader to build and report
+                return inner;
+            }
+        }
+
+        @Override
+        public long getUID() {
+            return _inner.getUID();
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return _inner.isDeleted();
+        }
+
+        @Override
+        public boolean isSkip() {
+            return _inner.isSkip();
+        }
+
+        @Override
+        public synchronized IndexingReq[] buildIndexingReqs() {
+            IndexingReq[] reqs = _reqs;
+            if (reqs == null) {
+                return _inner.buildIndexingReqs();
+            }
+            _reqs = null;
+            return reqs;
+        }
+
+        @Override
+        public boolean isStorable() {
+            return _inner.isStorable();
+        }
+
+        @Override
+        public byte[] getStoreValue() {
+            return _storeValue != null ? _storeValue : _inner.getStoreValue();
+        }
+    }
+}
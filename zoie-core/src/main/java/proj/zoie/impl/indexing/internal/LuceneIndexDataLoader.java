@@ -24,7 +24,6 @@ import it.unimi.dsi.fastutil.longs.LongSet;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
-import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.search.ConstantScoreQuery;
@@ -37,6 +36,7 @@ import proj.zoie.api.ZoieSegmentReader;
 import proj.zoie.api.indexing.AbstractZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexable.IndexingReq;
+import proj.zoie.impl.indexing.ZoieConfig.DefaultVersionComparator;
 import proj.zoie.impl.indexing.internal.SearchIndexManager.Status;
 
 import java.io.IOException;
@@ -82,15 +82,20 @@ public abstract class LuceneIndexDataLoader<R extends IndexReader> implements
             int count = 0;
             long start = System.currentTimeMillis();
 
+            boolean committed = false;
             try {
-                writer = idx.openIndexWriter(null, null);
+                // the writer kept open for the updates is reused, it is opened with their analyzer
+                writer = idx.openIndexWriter(_analyzer, _similarity);
                 ConstantScoreQuery q = new ConstantScoreQuery(_purgeFilter);
                 writer.deleteDocuments(q);
                 writer.commit();
+                committed = true;
             } catch (Throwable th) {
                 log.error("problem creating purge filter: " + th.getMessage(), th);
             } finally {
-                idx.closeIndexWriter();
+                if (!(committed && idx.isKeepWriterOpen())) {
+                    idx.closeIndexWriter();
+                }
             }
 
             long end = System.currentTimeMillis();
@@ -120,7 +125,8 @@ public abstract class LuceneIndexDataLoader<R extends IndexReader> implements
             throw new ZoieException("trying to consume to null index");
         }
         Long2ObjectMap<List<IndexingReq>> addList = new Long2ObjectOpenHashMap<List<IndexingReq>>();
-        String version = idx.getVersion(); // current version
+        // current version, moved to the latest version of the events
+        String version = DefaultVersionComparator.max(_versionComparator, idx.getVersion(), events);
 
         LongSet delSet = new LongOpenHashSet();
 
@@ -129,9 +135,6 @@ public abstract class LuceneIndexDataLoader<R extends IndexReader> implements
                 if (evt == null) {
                     continue;
                 }
-                version = version == null ? evt.getVersion() : (_versionComparator.compare(version,
-                        evt.getVersion()) < 0 ? evt.getVersion() : version);
-
                 // interpret and get get the indexable instance
                 ZoieIndexable indexable = evt.getData();
                 if (indexable == null || indexable.isSkip()) {
@@ -156,7 +159,8 @@ public abstract class LuceneIndexDataLoader<R extends IndexReader> implements
                                     if (indexable.isStorable()) {
                                         byte[] bytes = indexable.getStoreValue();
                                         if (bytes != null) {
-                                            doc.add(new StoredField(AbstractZoieIndexable.DOCUMENT_STORE_FIELD, bytes));
+                                            ZoieSegmentReader.fillStoreValue(doc, bytes,
+                                                    _idxMgr.isStoreValueAsDocValues());
                                         }
                                     }
                                 }
@@ -213,7 +217,7 @@ public abstract class LuceneIndexDataLoader<R extends IndexReader> implements
             // get disk search idx,
             BaseSearchIndex<R> idx = getSearchIndex();
             // merge the realyOnly ram idx with the disk idx
-            idx.loadFromIndex(ramIndex);
+            idx.loadFromIndex(ramIndex, _analyzer, _similarity);
             // set new version
             String newVersion = idx.getVersion() == null ? ramIndex.getVersion() : (_versionComparator
                     .compare(idx.getVersion(), ramIndex.getVersion()) < 0 ? ramIndex.getVersion() : idx
@@ -50,10 +50,23 @@ public class RAMSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
     // a consistent pair of reader and deleted set
     private volatile ZoieMultiReader<R> _currentReader;
     private final MergePolicyParams _mergePolicyParams;
+    private final boolean _nearRealtime;
 
     public RAMSearchIndex(String version, IndexReaderDecorator<R> decorator,
                           SearchIndexManager<R> idxMgr, Directory ramIdxDir, File backingdir) {
-        super(idxMgr, true);
+        this(version, decorator, idxMgr, ramIdxDir, backingdir, false);
+    }
+
+    /**
+     * @param nearRealtime if true, a single IndexWriter is kept open for the life of this index and
+     *                     readers are opened from it, the index is only committed when the writer is
+     *                     closed before it is loaded into the disk index. Otherwise every update is
+     *                     committed and readers are reopened from the directory.
+     */
+    public RAMSearchIndex(String version, IndexReaderDecorator<R> decorator,
+                          SearchIndexManager<R> idxMgr, Directory ramIdxDir, File backingdir, boolean nearRealtime) {
+        super(idxMgr, !nearRealtime);
+        _nearRealtime = nearRealtime;
         _directory = ramIdxDir;
         _backingdir = backingdir;
         _version = version;
@@ -92,6 +105,7 @@ public class RAMSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
     @Override
     public void setVersion(String version) throws IOException {
         _version = version;
+        _idxMgr.readersChanged();
         synchronized (readerOpenLock) {
             readerOpenLock.notifyAll();
         }
@@ -102,10 +116,9 @@ public class RAMSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
         ZoieMultiReader<R> reader = null;
         synchronized (this) {
             reader = openIndexReader();
-            if (reader == null) {
+            if (reader == null || !reader.tryIncZoieRef()) {
                 return 0;
             }
-            reader.incZoieRef();
         }
         int numDocs = reader.numDocs();
         reader.decZoieRef();
@@ -117,13 +130,19 @@ public class RAMSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
         return _currentReader;
     }
 
+    public boolean isNearRealtime() {
+        return _nearRealtime;
+    }
+
     private ZoieMultiReader<R> openIndexReaderInternal() throws IOException {
-        if (DirectoryReader.indexExists(_directory)) {
+        IndexWriter writer = _nearRealtime ? _indexWriter : null;
+        if (writer != null || DirectoryReader.indexExists(_directory)) {
             DirectoryReader srcReader = null;
             ZoieMultiReader<R> finalReader = null;
             try {
                 // for RAM indexes, just get a new index reader
-                srcReader = DirectoryReader.open(_directory);
+                srcReader = writer != null ? DirectoryReader.open(writer, true) : DirectoryReader
+                        .open(_directory);
                 finalReader = new ZoieMultiReader<R>(srcReader, _decorator);
                 DocIDMapper mapper = _idxMgr._docIDMapperFactory.getDocIDMapper(finalReader);
                 finalReader.setDocIDMapper(mapper);
@@ -202,6 +221,19 @@ public class RAMSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
             ZoieMultiReader<R> reader = null;
             if (_currentReader == null) {
                 reader = openIndexReaderInternal();
+            } else if (_nearRealtime && _indexWriter == null) {
+                // once the writer is closed, the near-real-time reader can no longer be reopened
+                // from it, so fall back to the last commit
+                reader = openIndexReaderInternal();
+                if (reader == null) {
+                    reader = _currentReader;
+                }
+            } else if (_nearRealtime) {
+                reader = _currentReader.reopen(_indexWriter, true);
+                if (reader != _currentReader) {
+                    DocIDMapper mapper = _idxMgr._docIDMapperFactory.getDocIDMapper(reader);
+                    reader.setDocIDMapper(mapper);
+                }
             } else {
                 reader = _currentReader.reopen();
                 if (reader != _currentReader) {
@@ -225,6 +257,11 @@ public class RAMSearchIndex<R extends IndexReader> extends BaseSearchIndex<R> {
     }
 
     public int getSegmentCount() throws IOException {
+        if (_nearRealtime) {
+            // nothing may have been committed yet, count the segments of the current reader
+            ZoieMultiReader<R> reader = _currentReader;
+            return reader == null ? 0 : reader.getSubReaders().length;
+        }
         return _directory == null ? -1 : IndexUtil.getNumSegments(_directory);
     }
 }
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.Queue;
 
 import lombok.extern.slf4j.Slf4j;
@@ -37,6 +36,8 @@ import proj.zoie.api.indexing.IndexingEventListener;
 import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexableInterpreter;
 import proj.zoie.impl.indexing.IndexUpdatedEvent;
+import proj.zoie.impl.indexing.IndexingStageEvent;
+import proj.zoie.impl.indexing.IndexingStageEvent.Stage;
 
 /**
  * Keeps track of the number of incoming data events.
@@ -70,27 +71,15 @@ public class RealtimeIndexDataLoader<R extends IndexReader, D> extends BatchedIn
     @Override
     public void consume(Collection<DataEvent<D>> events) throws ZoieException {
         if (events != null) {
-            ArrayList<DataEvent<ZoieIndexable>> indexableList = new ArrayList<DataEvent<ZoieIndexable>>(
-                    events.size());
-            Iterator<DataEvent<D>> iter = events.iterator();
-            while (iter.hasNext()) {
-                try {
-                    DataEvent<D> event = iter.next();
-                    ZoieIndexable indexable = _interpreter.convertAndInterpret(event.getData());
-
-                    DataEvent<ZoieIndexable> newEvent = new DataEvent<ZoieIndexable>(indexable,
-                            event.getVersion(), event.isDelete());
-                    indexableList.add(newEvent);
-                } catch (Exception e) {
-                    ZoieHealth.setFatal();
-                    log.error(e.getMessage(), e);
-                }
-            }
+            ArrayList<DataEvent<ZoieIndexable>> indexableList = _interpretationPool.interpret(events);
 
             synchronized (this) // this blocks the batch disk loader thread while indexing to RAM
             {
                 int size = indexableList.size();
+                long t1 = System.currentTimeMillis();
                 _ramConsumer.consume(indexableList);// consumer clear the list!
+                fireIndexingEvent(new IndexingStageEvent(Stage.RAM_INDEX, size, t1, System
+                        .currentTimeMillis(), 1));
                 _currentBatchSize += size;
                 _eventCount += size;
 
@@ -167,6 +156,7 @@ public class RealtimeIndexDataLoader<R extends IndexReader, D> extends BatchedIn
             synchronized (this) {
                 long t2 = System.currentTimeMillis();
                 _eventCount -= eventCount;
+                adaptBatch(eventCount, t1, t2);
                 int segmentCount = -1;
                 String segmentInfo = "";
                 try {
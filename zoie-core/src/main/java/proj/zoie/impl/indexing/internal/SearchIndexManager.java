@@ -22,6 +22,11 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.lucene.analysis.Analyzer;
@@ -30,6 +35,7 @@ import org.apache.lucene.index.IndexReader;
 import proj.zoie.api.DirectoryManager;
 import proj.zoie.api.DocIDMapperFactory;
 import proj.zoie.api.IndexReaderFactory;
+import proj.zoie.api.ZoieExecutors;
 import proj.zoie.api.ZoieHealth;
 import proj.zoie.api.ZoieMultiReader;
 import proj.zoie.api.indexing.IndexReaderDecorator;
@@ -41,6 +47,16 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
         Sleep, Working
     }
 
+    /**
+     * notified after the readers returned by getIndexReaders changed
+     */
+    public static interface ReaderChangeListener {
+        /**
+         * called on the indexing threads, must not block
+         */
+        void readersChanged();
+    }
+
     private DirectoryManager _dirMgr;
     private final IndexReaderDecorator<R> _indexReaderDecorator;
 
@@ -56,12 +72,20 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
     private final Object _memLock = new Object();
     private final RAMIndexFactory<R> _ramIndexFactory;
 
-    private volatile String _memAVersion = null;
-    private volatile String _memBVersion = null;
-    private volatile String _diskVersion = null;
+    /**
+     * bumped whenever the readers returned by getIndexReaders would change, a snapshot of an older
+     * generation is rebuilt by the next getIndexReaders
+     */
+    private final AtomicLong _readerGeneration = new AtomicLong(0);
+    private volatile ReaderSnapshot<R> _readerSnapshot = null;
+    private final List<ReaderChangeListener> _readerChangeListeners = new CopyOnWriteArrayList<ReaderChangeListener>();
 
     private final Comparator<String> _versionComparator;
 
+    private volatile ExecutorService _indexingExecutor = null;
+    private volatile int _indexingThreads = 1;
+    private volatile boolean _storeValueAsDocValues = false;
+
     public SearchIndexManager(DirectoryManager dirMgr, Comparator<String> versionComparator,
                               IndexReaderDecorator<R> indexReaderDecorator, DocIDMapperFactory docIDMapperFactory,
                               RAMIndexFactory<R> ramIndexFactory) {
@@ -98,6 +122,47 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
         return _docIDMapperFactory;
     }
 
+    public int getIndexingThreads() {
+        return _indexingThreads;
+    }
+
+    /**
+     * Sets the number of threads adding documents to the RAM and disk index writers within one batch.
+     *
+     * @param indexingThreads 1 or less adds documents on the indexing thread only
+     */
+    public synchronized void setIndexingThreads(int indexingThreads) {
+        indexingThreads = Math.max(1, indexingThreads);
+        if (indexingThreads == _indexingThreads) {
+            return;
+        }
+        ExecutorService oldExecutor = _indexingExecutor;
+        if (indexingThreads > 1) {
+            // the indexing thread itself adds one chunk
+            _indexingExecutor = ZoieExecutors.newFixedThreadPool(indexingThreads - 1, new ThreadFactory() {
+                private final AtomicInteger _count = new AtomicInteger(0);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "zoie index writer-" + _count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            _indexingExecutor = null;
+        }
+        _indexingThreads = indexingThreads;
+        if (oldExecutor != null) {
+            oldExecutor.shutdown();
+        }
+        log.info("setIndexingThreads: " + _indexingThreads);
+    }
+
+    ExecutorService getIndexingExecutor() {
+        return _indexingExecutor;
+    }
+
     public int getDiskSegmentCount() throws IOException {
         return _diskIndex.getSegmentCount();
     }
@@ -182,6 +247,17 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
         return _diskIndex._mergePolicyParams.isUseCompoundFile();
     }
 
+    public boolean isStoreValueAsDocValues() {
+        return _storeValueAsDocValues;
+    }
+
+    /**
+     * Sets whether the loaders write store values as BinaryDocValues instead of stored fields.
+     */
+    public void setStoreValueAsDocValues(boolean storeValueAsDocValues) {
+        _storeValueAsDocValues = storeValueAsDocValues;
+    }
+
     /**
      * Gets the current disk indexer status
      */
@@ -191,10 +267,49 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
 
     @Override
     public List<ZoieMultiReader<R>> getIndexReaders() throws IOException {
-        ArrayList<ZoieMultiReader<R>> readers = new ArrayList<ZoieMultiReader<R>>();
-        ZoieMultiReader<R> reader = null;
+        while (true) {
+            ReaderSnapshot<R> snapshot = _readerSnapshot;
+            if (snapshot == null || snapshot._generation != _readerGeneration.get()) {
+                snapshot = buildReaderSnapshot();
+            }
+            List<ZoieMultiReader<R>> readers = snapshot.acquire();
+            if (readers != null) {
+                return readers;
+            }
+            // the snapshot was released by a newer one in the meantime
+        }
+    }
+
+    /**
+     * marks the current reader snapshot stale, called after the readers of an index or the set of
+     * indexes changed
+     */
+    void readersChanged() {
+        _readerGeneration.incrementAndGet();
+        for (ReaderChangeListener listener : _readerChangeListeners) {
+            listener.readersChanged();
+        }
+    }
 
+    public void addReaderChangeListener(ReaderChangeListener listener) {
+        _readerChangeListeners.add(listener);
+    }
+
+    private ReaderSnapshot<R> buildReaderSnapshot() throws IOException {
         synchronized (this) {
+            // the generation is read before the readers, a change while copying them leaves the
+            // snapshot stale so that it is rebuilt by the next call
+            long generation = _readerGeneration.get();
+            ReaderSnapshot<R> oldSnapshot = _readerSnapshot;
+            if (oldSnapshot != null && oldSnapshot._generation == generation) {
+                return oldSnapshot;
+            }
+
+            ArrayList<ZoieMultiReader<R>> readers = new ArrayList<ZoieMultiReader<R>>(3);
+            ZoieMultiReader<R> reader = null;
+            String memBVersion = null;
+            String memAVersion = null;
+            String diskVersion = null;
             synchronized (_memLock) {
                 Mem<R> mem = _mem;
                 RAMSearchIndex<R> memIndexB = mem.get_memIndexB();
@@ -212,7 +327,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
                             readers.add(reader);
                         }
                     }
-                    _memBVersion = memIndexB.getVersion();
+                    memBVersion = memIndexB.getVersion();
                 }
 
                 if (memIndexA != null) // load memory index A
@@ -224,7 +339,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
                             readers.add(reader);
                         }
                     }
-                    _memAVersion = memIndexA.getVersion();
+                    memAVersion = memIndexA.getVersion();
                 }
 
                 // load disk index
@@ -234,21 +349,32 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
                         reader = reader.copy();
                         readers.add(reader);
                     }
-                    _diskVersion = getCurrentDiskVersion();
+                    diskVersion = getCurrentDiskVersion();
                 }
             }
+
+            ReaderSnapshot<R> snapshot = new ReaderSnapshot<R>(generation, readers, memBVersion,
+                    memAVersion, diskVersion);
+            _readerSnapshot = snapshot;
+            if (oldSnapshot != null) {
+                oldSnapshot.release();
+            }
+            return snapshot;
         }
-        return readers;
     }
 
     @Override
     public String getCurrentReaderVersion() {
-        String version = _memAVersion;
-        if (_versionComparator.compare(version, _memBVersion) < 0) {
-            version = _memBVersion;
+        ReaderSnapshot<R> snapshot = _readerSnapshot;
+        if (snapshot == null) {
+            return null;
+        }
+        String version = snapshot._memAVersion;
+        if (_versionComparator.compare(version, snapshot._memBVersion) < 0) {
+            version = snapshot._memBVersion;
         }
-        if (_versionComparator.compare(version, _diskVersion) < 0) {
-            version = _diskVersion;
+        if (_versionComparator.compare(version, snapshot._diskVersion) < 0) {
+            version = snapshot._diskVersion;
         }
         return version;
 
@@ -291,6 +417,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
             synchronized (_memLock) {
                 _mem = mem;
             }
+            readersChanged();
             log.info("Current writable index is B, new B created");
         } else {
             // from working to sleep
@@ -337,6 +464,14 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
      * @throws IOException
      */
     public void close() {
+        ReaderSnapshot<R> snapshot;
+        synchronized (this) {
+            snapshot = _readerSnapshot;
+            _readerSnapshot = null;
+        }
+        if (snapshot != null) {
+            snapshot.release();
+        }
         Mem<R> mem = _mem;
         if (mem.get_memIndexA() != null) {
             mem.get_memIndexA().close();
@@ -348,6 +483,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
             mem.get_diskIndexReader().decZoieRef();
             _diskIndex.close();
         }
+        setIndexingThreads(1);
     }
 
     public String getCurrentDiskVersion() throws IOException {
@@ -426,6 +562,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
         synchronized (_memLock) {
             _mem = mem;
         }
+        readersChanged();
         log.info("index purged");
     }
 
@@ -455,6 +592,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
                 _mem = mem;
             }
         }
+        readersChanged();
         log.info("disk reader refreshed");
     }
 
@@ -479,6 +617,7 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
             }
             _mem = mem;
         }
+        readersChanged();
     }
 
     private final static class Mem<R extends IndexReader> {
@@ -518,6 +657,50 @@ public class SearchIndexManager<R extends IndexReader> implements IndexReaderFac
         }
     }
 
+    /**
+     * immutable set of reader copies handed out by getIndexReaders. The snapshot holds one
+     * reference on each copy, every caller takes one more without locking.
+     */
+    private final static class ReaderSnapshot<R extends IndexReader> {
+        private final long _generation;
+        private final List<ZoieMultiReader<R>> _readers;
+        private final String _memBVersion;
+        private final String _memAVersion;
+        private final String _diskVersion;
+
+        ReaderSnapshot(long generation, List<ZoieMultiReader<R>> readers, String memBVersion,
+                       String memAVersion, String diskVersion) {
+            _generation = generation;
+            _readers = readers;
+            _memBVersion = memBVersion;
+            _memAVersion = memAVersion;
+            _diskVersion = diskVersion;
+        }
+
+        /**
+         * @return the readers with a reference taken on each, or null if the snapshot was released
+         */
+        List<ZoieMultiReader<R>> acquire() {
+            ArrayList<ZoieMultiReader<R>> readers = new ArrayList<ZoieMultiReader<R>>(_readers.size());
+            for (ZoieMultiReader<R> reader : _readers) {
+                if (!reader.tryIncZoieRef()) {
+                    for (ZoieMultiReader<R> acquired : readers) {
+                        acquired.decZoieRef();
+                    }
+                    return null;
+                }
+                readers.add(reader);
+            }
+            return readers;
+        }
+
+        void release() {
+            for (ZoieMultiReader<R> reader : _readers) {
+                reader.decZoieRef();
+            }
+        }
+    }
+
     @Override
     public Analyzer getAnalyzer() {
         throw new UnsupportedOperationException();
@@ -256,4 +256,39 @@ public class ZoieSystemAdmin implements ZoieSystemAdminMBean {
     public void setFreshness(long freshness) {
         _internalMBean.setFreshness(freshness);
     }
+
+    @Override
+    public long getTargetIndexingLag() {
+        return _internalMBean.getTargetIndexingLag();
+    }
+
+    @Override
+    public void setTargetIndexingLag(long targetLag) {
+        _internalMBean.setTargetIndexingLag(targetLag);
+    }
+
+    @Override
+    public long getEstimatedIndexingLag() {
+        return _internalMBean.getEstimatedIndexingLag();
+    }
+
+    @Override
+    public long getFlushCostPerEventMicros() {
+        return _internalMBean.getFlushCostPerEventMicros();
+    }
+
+    @Override
+    public long getBatchIncreases() {
+        return _internalMBean.getBatchIncreases();
+    }
+
+    @Override
+    public long getBatchDecreases() {
+        return _internalMBean.getBatchDecreases();
+    }
+
+    @Override
+    public String getLastBatchDecision() {
+        return _internalMBean.getLastBatchDecision();
+    }
 }
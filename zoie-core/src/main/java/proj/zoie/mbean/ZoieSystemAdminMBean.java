@@ -33,4 +33,21 @@ public interface ZoieSystemAdminMBean extends ZoieAdminMBean {
     long getFreshness();
 
     void setFreshness(long freshness);
+
+    /**
+     * @return target indexing lag in ms the disk batch size and delay are adjusted to, 0 if static
+     */
+    long getTargetIndexingLag();
+
+    void setTargetIndexingLag(long targetLag);
+
+    long getEstimatedIndexingLag();
+
+    long getFlushCostPerEventMicros();
+
+    long getBatchIncreases();
+
+    long getBatchDecreases();
+
+    String getLastBatchDecision();
 }
@@ -4,10 +4,13 @@
 package proj.zoie.test;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
@@ -15,8 +18,11 @@ import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Version;
 import org.junit.Test;
 import proj.zoie.api.DataConsumer.DataEvent;
+import proj.zoie.api.DefaultDirectoryManager;
+import proj.zoie.api.DirectoryManager;
 import proj.zoie.api.DocIDMapper;
 import proj.zoie.api.ZoieException;
 import proj.zoie.api.ZoieMultiReader;
@@ -24,25 +30,38 @@ import proj.zoie.api.ZoieSegmentReader;
 import proj.zoie.api.indexing.IndexReaderDecorator;
 import proj.zoie.hourglass.api.HourglassIndexable;
 import proj.zoie.hourglass.api.HourglassIndexableInterpreter;
+import proj.zoie.hourglass.impl.ArchivePeriod;
 import proj.zoie.hourglass.impl.HourGlassScheduler;
+import proj.zoie.hourglass.impl.HourglassCompactor;
 import proj.zoie.hourglass.impl.Hourglass;
 import proj.zoie.hourglass.impl.HourglassDirectoryManagerFactory;
+import proj.zoie.hourglass.impl.HourglassReaderManager;
+import proj.zoie.hourglass.impl.UIDBloomFilter;
 import proj.zoie.hourglass.mbean.HourglassAdmin;
 import proj.zoie.impl.indexing.MemoryStreamDataProvider;
 import proj.zoie.impl.indexing.ZoieConfig;
 import proj.zoie.impl.indexing.ZoieSystem;
+import proj.zoie.impl.indexing.internal.IndexSignature;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -57,6 +76,8 @@ public class HourglassTest extends ZoieTestCaseBase {
     int minDirs = Integer.MAX_VALUE; // Minimum number of dirs after system is stable
     int maxDirs = 0;
 
+    private static final long HOUR = 3600000L;
+
     @Test
     public void testHourglassDirectoryManagerFactory() throws IOException, InterruptedException,
             ZoieException {
@@ -71,6 +92,103 @@ public class HourglassTest extends ZoieTestCaseBase {
         return;
     }
 
+    @Test
+    public void testArchivePeriod() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat(HourglassDirectoryManagerFactory.dateFormatString);
+        long hour = 3600000L;
+        long t0 = format.parse("2013-05-01-10-00-00").getTime();
+        Map<String, ArchivePeriod> periods = ArchivePeriod.fromDirectoryNames(Arrays.asList(
+                "2013-05-01-12-00-00", "2013-05-01-10-00-00", "2013-05-01-11-00-00", "lost+found"),
+                "2013-05-01-13-00-00");
+        assertEquals(3, periods.size());
+        ArchivePeriod oldest = periods.get("2013-05-01-10-00-00");
+        assertEquals(t0, oldest.getStart());
+        assertEquals(t0 + hour, oldest.getEnd());
+        ArchivePeriod newest = periods.get("2013-05-01-12-00-00");
+        assertEquals(t0 + 3 * hour, newest.getEnd());
+
+        // last hour before 13:30
+        long now = t0 + 3 * hour + hour / 2;
+        assertTrue(newest.overlaps(now - hour, now));
+        assertFalse(periods.get("2013-05-01-11-00-00").overlaps(now - hour, now));
+        assertFalse(oldest.overlaps(now - hour, now));
+        // the end is exclusive
+        assertFalse(oldest.overlaps(t0 + hour, now));
+        assertTrue(ArchivePeriod.open("2013-05-01-13-00-00").overlaps(now - hour, now));
+        assertTrue(ArchivePeriod.open("lost+found").overlaps(now - hour, now));
+    }
+
+    @Test
+    public void testRetentionHorizon() {
+        long now = System.currentTimeMillis();
+        HourGlassScheduler forever = new HourGlassScheduler(HourGlassScheduler.FREQUENCY.HOURLY, "00 00 00");
+        assertEquals(Long.MIN_VALUE, forever.getRetentionHorizon(now));
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(now);
+        // used to overflow and end up in the future
+        assertTrue(forever.getTrimTime(cal).getTimeInMillis() < now);
+
+        HourGlassScheduler scheduler = new HourGlassScheduler(HourGlassScheduler.FREQUENCY.HOURLY,
+                "00 00 00", 24);
+        long horizon = scheduler.getRetentionHorizon(now);
+        assertEquals(now - 24 * 3600000L, horizon);
+        assertEquals(horizon, scheduler.getTrimTime(cal).getTimeInMillis());
+        // an archive is dropped once its whole period is before the horizon
+        assertFalse(new ArchivePeriod(horizon - 3600000L, horizon).overlaps(horizon, now));
+        assertTrue(new ArchivePeriod(horizon - 1800000L, horizon + 1800000L).overlaps(horizon, now));
+    }
+
+    @Test
+    public void testUIDBloomFilter() {
+        long[] uids = new long[10000];
+        for (int i = 0; i < uids.length; ++i) {
+            uids[i] = 2L * i;
+        }
+        UIDBloomFilter filter = UIDBloomFilter.of(uids);
+        for (long uid : uids) {
+            assertTrue(filter.mightContain(uid));
+        }
+        int falsePositives = 0;
+        for (long uid : uids) {
+            if (filter.mightContain(uid + 1)) {
+                ++falsePositives;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < uids.length / 30);
+        assertFalse(UIDBloomFilter.of().mightContain(1L));
+    }
+
+    @Test
+    public void testCompactionRecovery() throws IOException {
+        File root = getIdxDir();
+        root.mkdirs();
+        String oldest = "2013-05-01-10-00-00";
+        String member = "2013-05-01-11-00-00";
+        String other = "2013-05-01-12-00-00";
+        for (String name : Arrays.asList(oldest, member, other)) {
+            new File(root, name).mkdirs();
+        }
+        // complete merge of the first two archives, interrupted before it was installed
+        File complete = new File(root, "compacting-" + oldest);
+        complete.mkdirs();
+        Files.write(new File(complete, "compaction.members").toPath(), Arrays.asList(oldest, member),
+                Charset.forName("UTF-8"));
+        DefaultDirectoryManager.saveSignature(new IndexSignature("7"), new File(complete,
+                "index.directory"));
+        // merge interrupted before its signature was written
+        File incomplete = new File(root, "compacting-" + other);
+        incomplete.mkdirs();
+
+        HourglassCompactor.recover(root);
+        assertEquals("7", DefaultDirectoryManager.getCurrentIndexSignature(new File(root, oldest))
+                .getVersion());
+        assertFalse(new File(root, member).exists());
+        assertTrue(new File(root, other).exists());
+        assertFalse(complete.exists());
+        assertFalse(incomplete.exists());
+        deleteDirectory(root);
+    }
+
     @SuppressWarnings("rawtypes")
     @Test
     public void testTrimming() throws Exception {
@@ -179,6 +297,317 @@ public class HourglassTest extends ZoieTestCaseBase {
         hourglass.shutdown();
     }
 
+    @Test
+    public void testReaderSnapshot() throws Exception {
+        File idxDir = getIdxDir();
+        HourglassDirectoryManagerFactory factory = new HourglassDirectoryManagerFactory(idxDir,
+                new HourGlassScheduler(HourGlassScheduler.FREQUENCY.DAILY, "07 15 20"));
+        ZoieConfig zConfig = new ZoieConfig();
+        zConfig.setBatchSize(1);
+        zConfig.setBatchDelay(10);
+        zConfig.setFreshness(10);
+        final Hourglass<IndexReader, String> hourglass = new Hourglass<IndexReader, String>(factory,
+                new HourglassTestInterpreter(), new IndexReaderDecorator<IndexReader>() {
+
+            @Override
+            public IndexReader decorate(ZoieSegmentReader<IndexReader> indexReader)
+                    throws IOException {
+                return indexReader;
+            }
+
+            @Override
+            public IndexReader redecorate(IndexReader decorated, ZoieSegmentReader<IndexReader> copy)
+                    throws IOException {
+                return decorated;
+            }
+        }, zConfig);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicBoolean stop = new AtomicBoolean(false);
+        Thread[] searchers = new Thread[4];
+        for (int i = 0; i < searchers.length; ++i) {
+            searchers[i] = new Thread() {
+                @Override
+                public void run() {
+                    while (!stop.get()) {
+                        try {
+                            List<ZoieMultiReader<IndexReader>> readers = hourglass.getIndexReaders();
+                            try {
+                                for (ZoieMultiReader<IndexReader> reader : readers) {
+                                    // the snapshot may be superseded, its readers must stay open
+                                    if (reader.getInnerRefCount() <= 0) {
+                                        failures.incrementAndGet();
+                                    }
+                                    reader.numDocs();
+                                }
+                            } finally {
+                                hourglass.returnIndexReaders(readers);
+                            }
+                        } catch (Exception e) {
+                            log.error(e.getMessage(), e);
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            searchers[i].start();
+        }
+        // the snapshot is refreshed in the background while documents are added
+        for (int i = 0; i < 200; ++i) {
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>(1);
+            list.add(new DataEvent<String>("" + i, "" + i));
+            hourglass.consume(list);
+        }
+        hourglass.flushEvents(10000);
+        Thread.sleep(200);
+        stop.set(true);
+        for (Thread searcher : searchers) {
+            searcher.join();
+        }
+        assertEquals(0, failures.get());
+        assertEquals(200, getTotalNumDocs(hourglass));
+        hourglass.shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testArchiveDeleteRouting() throws Exception {
+        File idxDir = getIdxDir();
+        idxDir.mkdirs();
+        long current = getHourStart();
+        File dirA = writeArchive(idxDir, current - 3 * HOUR, 0, 2000);
+        File dirB = writeArchive(idxDir, current - 2 * HOUR, 10000, 12000);
+        Hourglass<IndexReader, String> hourglass = newHourglass(idxDir, new HourGlassScheduler(
+                HourGlassScheduler.FREQUENCY.HOURLY, "00 00 00", false));
+        try {
+            HourglassReaderManager<IndexReader, String> readerMgr =
+                    (HourglassReaderManager<IndexReader, String>) getFieldValue(hourglass, "_readerMgr");
+            assertEquals(2, readerMgr.getArchiveZoies().size());
+            ZoieSystem<IndexReader, String> zoieA = getArchiveZoie(readerMgr, dirA);
+            ZoieSystem<IndexReader, String> zoieB = getArchiveZoie(readerMgr, dirB);
+            // the filters of the archives loaded at startup are built in the background, from
+            // their index as their readers are not loaded yet
+            UIDBloomFilter filterA = waitForUIDFilter(readerMgr, zoieA);
+            UIDBloomFilter filterB = waitForUIDFilter(readerMgr, zoieB);
+            for (long uid = 0; uid < 2000; ++uid) {
+                assertTrue(filterA.mightContain(uid));
+                assertTrue(filterB.mightContain(uid + 10000));
+            }
+            waitForNumDocs(hourglass, 4000);
+
+            // a filter of the other archive wrongly answering yes for a uid of the first one
+            long falsePositive = 0;
+            long[] uids = new long[2001];
+            for (int i = 0; i < 2000; ++i) {
+                uids[i] = 10000 + i;
+            }
+            uids[2000] = falsePositive;
+            filterB = UIDBloomFilter.of(uids);
+            ((Map<ZoieSystem<IndexReader, String>, UIDBloomFilter>) getFieldValue(readerMgr, "_uidFilters"))
+                    .put(zoieB, filterB);
+            long onlyInA = 1;
+            while (filterB.mightContain(onlyInA)) {
+                ++onlyInA;
+            }
+
+            long routed = hourglass.getArchiveDeletesRouted();
+            long skipped = hourglass.getArchiveDeletesSkipped();
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>(1);
+            list.add(new DataEvent<String>("D" + onlyInA, "1"));
+            hourglass.consume(list);
+            // only sent to the archive holding the uid
+            assertEquals(routed + 1, hourglass.getArchiveDeletesRouted());
+            assertEquals(skipped + 1, hourglass.getArchiveDeletesSkipped());
+            waitForNumDocs(hourglass, 3999);
+
+            list = new ArrayList<DataEvent<String>>(1);
+            list.add(new DataEvent<String>("D" + falsePositive, "2"));
+            hourglass.consume(list);
+            // also sent to the other archive, which does not hold it
+            assertEquals(routed + 3, hourglass.getArchiveDeletesRouted());
+            assertEquals(skipped + 1, hourglass.getArchiveDeletesSkipped());
+            waitForNumDocs(hourglass, 3998);
+            assertEquals(1998, getNumDocs(zoieA));
+            assertEquals(2000, getNumDocs(zoieB));
+        } finally {
+            hourglass.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    @Test
+    public void testCompactionInstall() throws Exception {
+        File idxDir = getIdxDir();
+        idxDir.mkdirs();
+        // two archives of a completed day
+        Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(getHourStart());
+        cal.add(Calendar.DAY_OF_MONTH, -1);
+        cal.set(Calendar.HOUR_OF_DAY, 10);
+        File oldest = writeArchive(idxDir, cal.getTimeInMillis(), 0, 100);
+        File member = writeArchive(idxDir, cal.getTimeInMillis() + HOUR, 100, 200);
+        HourGlassScheduler scheduler = new HourGlassScheduler(HourGlassScheduler.FREQUENCY.HOURLY,
+                "00 00 00");
+        scheduler.setCompactionThreads(1);
+        Hourglass<IndexReader, String> hourglass = newHourglass(idxDir, scheduler);
+        try {
+            waitForNumDocs(hourglass, 200);
+            assertEquals(2, hourglass.getArchiveCount());
+            assertEquals(1, countHits(hourglass, "U5"));
+            assertEquals(1, countHits(hourglass, "U150"));
+
+            Object readerMgr = getFieldValue(hourglass, "_readerMgr");
+            HourglassCompactor compactor = (HourglassCompactor) getFieldValue(readerMgr, "_compactor");
+            List archives = (List) getFieldValue(getFieldValue(readerMgr, "box"), "_archives");
+            assertEquals(1, compactor.schedule(archives));
+            long timeout = System.currentTimeMillis() + 30000;
+            while (hourglass.getCompactionCount() < 1) {
+                assertTrue("compaction not done", System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+            }
+
+            assertEquals(1, hourglass.getArchiveCount());
+            waitForNumDocs(hourglass, 200);
+            assertEquals(1, countHits(hourglass, "U5"));
+            assertEquals(1, countHits(hourglass, "U150"));
+            List<ZoieMultiReader<IndexReader>> readers = hourglass.getIndexReaders();
+            try {
+                assertTrue(findUID(readers, 0));
+                assertTrue(findUID(readers, 199));
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+            // the member is deleted once the readers of the merged archives are released
+            File moved = new File(idxDir, "compacted-" + oldest.getName());
+            File membersFile = new File(oldest, "compaction.members");
+            while (member.exists() || moved.exists() || membersFile.exists()) {
+                assertTrue("merged archives not removed", System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+            }
+            assertTrue(oldest.exists());
+            assertEquals(1, countHits(hourglass, "U150"));
+        } finally {
+            hourglass.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testIndexReadersInRange() throws Exception {
+        File idxDir = getIdxDir();
+        idxDir.mkdirs();
+        long current = getHourStart();
+        long startA = current - 3 * HOUR;
+        long startB = current - 2 * HOUR;
+        writeArchive(idxDir, startA, 0, 10);
+        writeArchive(idxDir, startB, 10, 20);
+        Hourglass<IndexReader, String> hourglass = newHourglass(idxDir, new HourGlassScheduler(
+                HourGlassScheduler.FREQUENCY.HOURLY, "00 00 00"));
+        try {
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>(1);
+            list.add(new DataEvent<String>("U500", "1"));
+            hourglass.consume(list);
+            waitForNumDocs(hourglass, 21);
+
+            // inside the period of the oldest archive only
+            List<ZoieMultiReader<IndexReader>> readers = hourglass.getIndexReaders(startA + 60000,
+                    startA + 120000);
+            try {
+                assertEquals(1, readers.size());
+                assertEquals(10, getNumDocs(readers));
+                assertTrue(findUID(readers, 0));
+                assertFalse(findUID(readers, 10));
+                assertFalse(findUID(readers, 500));
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+
+            // the end of a period is exclusive, the oldest archive is skipped
+            readers = hourglass.getIndexReaders(startB, System.currentTimeMillis());
+            try {
+                assertEquals(11, getNumDocs(readers));
+                assertFalse(findUID(readers, 0));
+                assertTrue(findUID(readers, 10));
+                assertTrue(findUID(readers, 500));
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+
+            // only the current zoie is open ended, it starts when the hourglass started
+            long currentStart = new SimpleDateFormat(HourglassDirectoryManagerFactory.dateFormatString)
+                    .parse(new File(hourglass.getDirMgrFactory().getDirectoryManager().getPath())
+                            .getName()).getTime();
+            readers = hourglass.getIndexReaders(currentStart, Long.MAX_VALUE);
+            try {
+                assertEquals(1, getNumDocs(readers));
+                assertFalse(findUID(readers, 10));
+                assertTrue(findUID(readers, 500));
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+
+            readers = hourglass.getIndexReaders(Long.MIN_VALUE, Long.MAX_VALUE);
+            try {
+                assertEquals(21, getNumDocs(readers));
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+        } finally {
+            hourglass.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testExpire() throws Exception {
+        File idxDir = getIdxDir();
+        idxDir.mkdirs();
+        long current = getHourStart();
+        long startB = current - 2 * HOUR;
+        File dirA = writeArchive(idxDir, current - 3 * HOUR, 0, 10);
+        File dirB = writeArchive(idxDir, startB, 10, 20);
+        Hourglass<IndexReader, String> hourglass = newHourglass(idxDir, new HourGlassScheduler(
+                HourGlassScheduler.FREQUENCY.HOURLY, "00 00 00"));
+        try {
+            waitForNumDocs(hourglass, 20);
+            assertEquals(2, hourglass.getArchiveCount());
+            ZoieMultiReader<IndexReader> readerA;
+            List<ZoieMultiReader<IndexReader>> readers = hourglass.getIndexReaders();
+            try {
+                readerA = getArchiveReader(readers, dirA);
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+
+            // the period of the oldest archive ends where the next one starts
+            java.lang.reflect.Method expire = HourglassReaderManager.class.getDeclaredMethod("expire",
+                    long.class);
+            expire.setAccessible(true);
+            assertEquals(1, expire.invoke(getFieldValue(hourglass, "_readerMgr"), startB));
+            assertEquals(1, hourglass.getArchiveCount());
+
+            long timeout = System.currentTimeMillis() + 10000;
+            while (dirA.exists() || readerA.getInnerRefCount() > 0) {
+                assertTrue("expired archive not released", System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+            }
+            assertTrue(dirB.exists());
+            waitForNumDocs(hourglass, 10);
+            readers = hourglass.getIndexReaders();
+            try {
+                assertFalse(findUID(readers, 0));
+                assertTrue(findUID(readers, 10));
+                assertTrue(findUID(readers, 19));
+            } finally {
+                hourglass.returnIndexReaders(readers);
+            }
+            assertEquals(1, countHits(hourglass, "U15"));
+        } finally {
+            hourglass.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
     private boolean findUID(List<ZoieMultiReader<IndexReader>> readers, long uid) {
         boolean found = false;
         for (ZoieMultiReader<IndexReader> reader : readers) {
@@ -431,6 +860,131 @@ public class HourglassTest extends ZoieTestCaseBase {
         }
     }
 
+    private static long getHourStart() {
+        Calendar cal = Calendar.getInstance();
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTimeInMillis();
+    }
+
+    /**
+     * writes an archive of the time period starting at the given time holding the uids from
+     * <code>fromUID</code> inclusive to <code>toUID</code> exclusive
+     */
+    private File writeArchive(File root, long start, long fromUID, long toUID) throws IOException {
+        File dir = new File(root, new SimpleDateFormat(HourglassDirectoryManagerFactory.dateFormatString)
+                .format(new Date(start)));
+        FSDirectory directory = FSDirectory.open(dir);
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        try {
+            for (long uid = fromUID; uid < toUID; ++uid) {
+                Document doc = new TestHourglassIndexable("U" + uid).buildDocument();
+                ZoieSegmentReader.fillDocumentID(doc, uid);
+                writer.addDocument(doc);
+            }
+        } finally {
+            writer.close();
+            directory.close();
+        }
+        DefaultDirectoryManager.saveSignature(new IndexSignature("0"), new File(dir,
+                DirectoryManager.INDEX_DIRECTORY));
+        return dir;
+    }
+
+    private Hourglass<IndexReader, String> newHourglass(File idxDir, HourGlassScheduler scheduler) {
+        HourglassDirectoryManagerFactory factory = new HourglassDirectoryManagerFactory(idxDir, scheduler);
+        ZoieConfig zConfig = new ZoieConfig();
+        zConfig.setBatchSize(1);
+        zConfig.setBatchDelay(10);
+        zConfig.setFreshness(10);
+        return new Hourglass<IndexReader, String>(factory, new HourglassTestInterpreter(),
+                new IndexReaderDecorator<IndexReader>() {
+
+            @Override
+            public IndexReader decorate(ZoieSegmentReader<IndexReader> indexReader)
+                    throws IOException {
+                return indexReader;
+            }
+
+            @Override
+            public IndexReader redecorate(IndexReader decorated, ZoieSegmentReader<IndexReader> copy)
+                    throws IOException {
+                return decorated;
+            }
+        }, zConfig);
+    }
+
+    private ZoieSystem<IndexReader, String> getArchiveZoie(
+            HourglassReaderManager<IndexReader, String> readerMgr, File dir) {
+        for (ZoieSystem<IndexReader, String> zoie : readerMgr.getArchiveZoies()) {
+            if (new File(zoie.getIndexDir()).getName().equals(dir.getName())) {
+                return zoie;
+            }
+        }
+        throw new AssertionError("no archive " + dir);
+    }
+
+    private ZoieMultiReader<IndexReader> getArchiveReader(List<ZoieMultiReader<IndexReader>> readers,
+                                                          File dir) {
+        for (ZoieMultiReader<IndexReader> reader : readers) {
+            if (reader.directory() instanceof FSDirectory
+                    && ((FSDirectory) reader.directory()).getDirectory().getName().equals(dir.getName())) {
+                return reader;
+            }
+        }
+        throw new AssertionError("no reader of " + dir);
+    }
+
+    private UIDBloomFilter waitForUIDFilter(HourglassReaderManager<IndexReader, String> readerMgr,
+                                            ZoieSystem<IndexReader, String> zoie) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        UIDBloomFilter filter;
+        while ((filter = readerMgr.getUIDFilter(zoie)) == null) {
+            assertTrue("no uid filter for " + zoie.getIndexDir(), System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+        return filter;
+    }
+
+    private void waitForNumDocs(Hourglass<IndexReader, String> hourglass, int numDocs)
+            throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 10000;
+        while (getTotalNumDocs(hourglass) != numDocs) {
+            assertTrue("expected " + numDocs + " docs but found " + getTotalNumDocs(hourglass),
+                    System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+
+    private int getNumDocs(ZoieSystem<IndexReader, String> zoie) throws IOException {
+        List<ZoieMultiReader<IndexReader>> readers = zoie.getIndexReaders();
+        try {
+            return getNumDocs(readers);
+        } finally {
+            zoie.returnIndexReaders(readers);
+        }
+    }
+
+    private int getNumDocs(List<ZoieMultiReader<IndexReader>> readers) {
+        int numDocs = 0;
+        for (ZoieMultiReader<IndexReader> reader : readers) {
+            numDocs += reader.numDocs();
+        }
+        return numDocs;
+    }
+
+    private int countHits(Hourglass<IndexReader, String> hourglass, String term) throws IOException {
+        List<ZoieMultiReader<IndexReader>> readers = hourglass.getIndexReaders();
+        try {
+            MultiReader reader = new MultiReader(readers.toArray(new IndexReader[0]), false);
+            return new IndexSearcher(reader).search(new TermQuery(new Term("contents", term)), 10).totalHits;
+        } finally {
+            hourglass.returnIndexReaders(readers);
+        }
+    }
+
     private int getTotalNumDocs(Hourglass<IndexReader, String> hourglass) {
         int numDocs = 0;
         List<ZoieMultiReader<IndexReader>> readers = null;
@@ -1,17 +1,24 @@
 package proj.zoie.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Random;
 
@@ -24,7 +31,10 @@ import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.AtomicReaderContext;
 import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.MultiReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.QueryParser;
@@ -34,9 +44,12 @@ import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RAMDirectory;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Version;
@@ -45,20 +58,34 @@ import org.junit.Test;
 import proj.zoie.api.DataConsumer.DataEvent;
 import proj.zoie.api.DataDoc;
 import proj.zoie.api.DefaultDirectoryManager;
+import proj.zoie.api.AbstractDocIDMapper;
+import proj.zoie.api.DocIDMapper;
 import proj.zoie.api.DirectoryManager;
+import proj.zoie.api.SegmentFilterCache;
 import proj.zoie.api.UIDDocIdSet;
 import proj.zoie.api.ZoieException;
 import proj.zoie.api.ZoieMultiReader;
 import proj.zoie.api.ZoieSegmentReader;
+import proj.zoie.api.impl.DefaultDocIDMapperFactory;
 import proj.zoie.api.impl.DocIDMapperImpl;
+import proj.zoie.api.impl.MMapDocIDMapperFactory;
+import proj.zoie.api.impl.util.ArrayDocIdSet;
+import proj.zoie.api.impl.util.EliasFanoDocIdSet;
 import proj.zoie.api.indexing.IndexingEventListener;
 import proj.zoie.api.indexing.ZoieIndexable;
 import proj.zoie.api.indexing.ZoieIndexableInterpreter;
 import proj.zoie.impl.indexing.AsyncDataConsumer;
+import proj.zoie.impl.indexing.EpochReaderCache;
+import proj.zoie.impl.indexing.IndexingStageEvent;
 import proj.zoie.impl.indexing.MemoryStreamDataProvider;
+import proj.zoie.impl.indexing.SimpleReaderCache;
 import proj.zoie.impl.indexing.ZoieConfig;
 import proj.zoie.impl.indexing.ZoieSystem;
+import proj.zoie.impl.indexing.internal.AdaptiveBatchController;
+import proj.zoie.impl.indexing.internal.EventRingBuffer.WaitStrategy;
+import proj.zoie.impl.indexing.internal.InterpretationPool;
 import proj.zoie.test.data.DataForTests;
+import proj.zoie.test.data.DataInterpreterForTests;
 import proj.zoie.test.mock.MockDataLoader;
 
 @Slf4j
@@ -185,6 +212,152 @@ public class ZoieTest extends ZoieTestCaseBase {
         }
     }
 
+    @Test
+    public void testNearRealtimeRAMIndex() throws ZoieException {
+        File idxDir = getIdxDir();
+        ZoieConfig config = new ZoieConfig();
+        config.setBatchSize(50);
+        config.setBatchDelay(2000);
+        config.setRtIndexing(true);
+        config.setNearRealtimeRamIndex(true);
+        config.setReadercachefactory(SimpleReaderCache.FACTORY);
+        ZoieSystem<IndexReader, String> idxSystem = new ZoieSystem<IndexReader, String>(idxDir,
+                new DataInterpreterForTests(), new TestIndexReaderDecorator(), config);
+        idxSystem.start();
+
+        MemoryStreamDataProvider<String> memoryProvider = new MemoryStreamDataProvider<String>(
+                ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        memoryProvider.setMaxEventsPerMinute(Long.MAX_VALUE);
+        memoryProvider.setDataConsumer(idxSystem);
+        memoryProvider.start();
+
+        try {
+            int count = DataForTests.testdata.length;
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>(count * 2);
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            // the same uids again, updates have to replace the uncommitted docs
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + (count + i)));
+            }
+            memoryProvider.addEvents(list);
+            idxSystem.syncWithVersion(10000, "" + (count * 2 - 1));
+
+            Query q = new TermQuery(new Term("contents", "zoie"));
+            assertEquals(count, countHits(idxSystem, q));
+
+            idxSystem.flushEvents(10000);
+
+            List<ZoieMultiReader<IndexReader>> readers = idxSystem.getIndexReaders();
+            int numDocs = 0;
+            for (ZoieMultiReader<IndexReader> r : readers) {
+                numDocs += r.numDocs();
+            }
+            idxSystem.returnIndexReaders(readers);
+
+            assertEquals(count, numDocs);
+            assertEquals(count, countHits(idxSystem, q));
+        } catch (IOException ioe) {
+            throw new ZoieException(ioe.getMessage());
+        } finally {
+            memoryProvider.stop();
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testInterpretationThreads() throws Exception {
+        File idxDir = getIdxDir();
+        ZoieConfig config = new ZoieConfig();
+        config.setBatchSize(50);
+        config.setBatchDelay(2000);
+        config.setRtIndexing(true);
+        config.setInterpretationThreads(4);
+        config.setReadercachefactory(SimpleReaderCache.FACTORY);
+        ZoieSystem<IndexReader, String> idxSystem = new ZoieSystem<IndexReader, String>(idxDir,
+                new DataInterpreterForTests(2), new TestIndexReaderDecorator(), config);
+        final int[] parallelBatches = {0};
+        idxSystem.addIndexingEventListener(new IndexingEventListener() {
+
+            @Override
+            public void handleUpdatedDiskVersion(String version) {
+            }
+
+            @Override
+            public void handleIndexingEvent(IndexingEvent evt) {
+                if (evt instanceof IndexingStageEvent) {
+                    IndexingStageEvent stageEvt = (IndexingStageEvent) evt;
+                    if (stageEvt.getStage() == IndexingStageEvent.Stage.INTERPRET
+                            && stageEvt.getNumThreads() > 1) {
+                        parallelBatches[0]++;
+                    }
+                }
+            }
+        });
+        idxSystem.start();
+
+        try {
+            int count = DataForTests.testdata.length;
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>(count * 2);
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            // same uids, the later events have to win
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata2[i], "" + (count + i)));
+            }
+            idxSystem.consume(list);
+            idxSystem.syncWithVersion(10000, "" + (count * 2 - 1));
+
+            assertEquals(0, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+            assertEquals(count, countHits(idxSystem, new TermQuery(new Term("contents", "zoie2"))));
+            assertTrue(parallelBatches[0] > 0);
+        } finally {
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testIndexingThreads() throws Exception {
+        File idxDir = getIdxDir();
+        ZoieConfig config = new ZoieConfig();
+        config.setBatchSize(50);
+        config.setBatchDelay(2000);
+        config.setRtIndexing(true);
+        config.setIndexingThreads(4);
+        config.setReadercachefactory(SimpleReaderCache.FACTORY);
+        ZoieSystem<IndexReader, String> idxSystem = new ZoieSystem<IndexReader, String>(idxDir,
+                new DataInterpreterForTests(), new TestIndexReaderDecorator(), config);
+        idxSystem.start();
+
+        try {
+            int count = 500;
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>(count);
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<String>("zoie doc " + i, "" + i));
+            }
+            idxSystem.consume(list);
+            idxSystem.syncWithVersion(10000, "" + (count - 1));
+            assertEquals(count, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+
+            // updates of half of the uids must not leave duplicates behind
+            list = new ArrayList<DataEvent<String>>(count / 2);
+            for (int i = 0; i < count / 2; ++i) {
+                list.add(new DataEvent<String>("zoie2 doc " + i, "" + (count + i)));
+            }
+            idxSystem.consume(list);
+            idxSystem.flushEvents(10000);
+            assertEquals(count / 2, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+            assertEquals(count / 2, countHits(idxSystem, new TermQuery(new Term("contents", "zoie2"))));
+        } finally {
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
     private static class EvenUidPurgeFilter extends Filter {
         @Override
         public DocIdSet getDocIdSet(final AtomicReaderContext ctx, Bits bits) throws IOException {
@@ -623,6 +796,34 @@ public class ZoieTest extends ZoieTestCaseBase {
         }
     }
 
+    @Test
+    public void testPipelinedStreamDataProvider() throws ZoieException {
+        MockDataLoader<Integer> consumer = new MockDataLoader<Integer>();
+        consumer.setDelay(10);
+        MemoryStreamDataProvider<Integer> memoryProvider = new MemoryStreamDataProvider<Integer>(
+                ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        memoryProvider.setBatchSize(50);
+        memoryProvider.setPipelineDepth(2);
+        memoryProvider.setMaxEventsPerMinute(Long.MAX_VALUE);
+        memoryProvider.setDataConsumer(consumer);
+        memoryProvider.start();
+        try {
+            int count = 500;
+            List<DataEvent<Integer>> list = new ArrayList<DataEvent<Integer>>(count);
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<Integer>(i, "" + i));
+            }
+            memoryProvider.addEvents(list);
+
+            memoryProvider.syncWithVersion(60000, "" + (count - 1));
+            assertEquals(count, consumer.getCount());
+            assertEquals(Integer.valueOf(count - 1), consumer.getLastConsumed());
+            assertTrue(consumer.getMaxBatch() <= 50);
+        } finally {
+            memoryProvider.stop();
+        }
+    }
+
     @Test
     public void testAsyncDataConsumer() throws ZoieException {
         final long[] delays = {0L, 10L, 100L, 1000L};
@@ -688,6 +889,95 @@ public class ZoieTest extends ZoieTestCaseBase {
         }
     }
 
+    @Test
+    public void testStreamDataProviderCredits() throws ZoieException {
+        final int count = 300;
+        MockDataLoader<Integer> mockLoader = new MockDataLoader<Integer>();
+        mockLoader.setDelay(5);
+        final int[] maxConsumed = new int[1];
+        AsyncDataConsumer<Integer> asyncConsumer = new AsyncDataConsumer<Integer>(
+                ZoieConfig.DEFAULT_VERSION_COMPARATOR) {
+            @Override
+            public void consume(Collection<DataEvent<Integer>> data) throws ZoieException {
+                maxConsumed[0] = Math.max(maxConsumed[0], data.size());
+                super.consume(data);
+            }
+        };
+        asyncConsumer.setDataConsumer(mockLoader);
+        asyncConsumer.setBatchSize(10);
+        asyncConsumer.start();
+
+        MemoryStreamDataProvider<Integer> memoryProvider = new MemoryStreamDataProvider<Integer>(
+                ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        memoryProvider.setMaxEventsPerMinute(Long.MAX_VALUE);
+        // larger than the consumer buffer, the batches are cut to the credits granted
+        memoryProvider.setBatchSize(100);
+        memoryProvider.setDataConsumer(asyncConsumer);
+        memoryProvider.start();
+        try {
+            List<DataEvent<Integer>> list = new ArrayList<DataEvent<Integer>>(count);
+            for (int i = 0; i < count; ++i) {
+                list.add(new DataEvent<Integer>(i, "" + i));
+            }
+            memoryProvider.addEvents(list);
+            asyncConsumer.syncWithVersion(60000, "" + (count - 1));
+            assertEquals(count, mockLoader.getCount());
+            assertTrue("batch larger than the credits: " + maxConsumed[0], maxConsumed[0] <= 10);
+        } finally {
+            memoryProvider.stop();
+            asyncConsumer.stop();
+        }
+    }
+
+    @Test
+    public void testAsyncDataConsumerRingBuffer() throws Exception {
+        final int numProducers = 4;
+        final int countPerProducer = 5000;
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            MockDataLoader<Integer> mockLoader = new MockDataLoader<Integer>();
+            mockLoader.setDelay(0);
+            final AsyncDataConsumer<Integer> asyncConsumer = new AsyncDataConsumer<Integer>(
+                    ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+            asyncConsumer.setDataConsumer(mockLoader);
+            asyncConsumer.setRingBufferHandoff(64, waitStrategy);
+            asyncConsumer.start();
+            try {
+                Thread[] producers = new Thread[numProducers];
+                for (int p = 0; p < numProducers; ++p) {
+                    final int base = p * countPerProducer;
+                    producers[p] = new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                for (int i = 0; i < countPerProducer; i += 100) {
+                                    List<DataEvent<Integer>> list = new ArrayList<DataEvent<Integer>>(100);
+                                    for (int j = i; j < i + 100; ++j) {
+                                        list.add(new DataEvent<Integer>(base + j, (long) (base + j)));
+                                    }
+                                    asyncConsumer.consume(list);
+                                }
+                            } catch (ZoieException e) {
+                                log.error(e.getMessage(), e);
+                            }
+                        }
+                    };
+                    producers[p].start();
+                }
+                for (Thread producer : producers) {
+                    producer.join();
+                }
+                String lastVersion = String.valueOf(numProducers * countPerProducer - 1);
+                assertEquals(lastVersion, asyncConsumer.getVersion());
+                asyncConsumer.flushEvents(60000);
+                assertEquals(waitStrategy.name(), numProducers * countPerProducer, mockLoader.getCount());
+                assertEquals(lastVersion, asyncConsumer.getCurrentVersion());
+                assertTrue("batch larger than ring buffer", mockLoader.getMaxBatch() <= 64);
+            } finally {
+                asyncConsumer.stop();
+            }
+        }
+    }
+
     @Test
     public void testDelSet() throws ZoieException {
         for (int i = 0; i < 2; i++) {
@@ -913,6 +1203,773 @@ public class ZoieTest extends ZoieTestCaseBase {
         }
     }
 
+    @Test
+    public void testInterpretationKeepsLongVersion() {
+        InterpretationPool<String> pool = new InterpretationPool<String>(new DataInterpreterForTests(),
+                null);
+        List<DataEvent<String>> events = new ArrayList<DataEvent<String>>();
+        for (int i = 0; i < 100; ++i) {
+            events.add(new DataEvent<String>(String.valueOf(i), 1000L + i, i % 10 == 0));
+        }
+        events.add(new DataEvent<String>("100", "2000"));
+        for (int numThreads : new int[]{1, 4}) {
+            pool.setNumThreads(numThreads);
+            List<DataEvent<ZoieIndexable>> interpreted = pool.interpret(events);
+            assertEquals(events.size(), interpreted.size());
+            for (int i = 0; i < 100; ++i) {
+                assertEquals(1000L + i, interpreted.get(i).getLongVersion());
+                assertEquals(String.valueOf(1000L + i), interpreted.get(i).getVersion());
+                assertEquals(i % 10 == 0, interpreted.get(i).isDelete());
+            }
+            assertEquals(DataEvent.NO_LONG_VERSION, interpreted.get(100).getLongVersion());
+            assertEquals("2000", interpreted.get(100).getVersion());
+        }
+        pool.shutdown();
+
+        DataEvent<String> delete = events.get(1).copy(events.get(1).getData(), true);
+        assertTrue(delete.isDelete());
+        assertEquals(1001L, delete.getLongVersion());
+    }
+
+    @Test
+    public void testDefaultVersionComparator() {
+        Comparator<String> comparator = ZoieConfig.DEFAULT_VERSION_COMPARATOR;
+        assertTrue(comparator.compare("9", "10") < 0);
+        assertTrue(comparator.compare("10", "9") > 0);
+        assertEquals(0, comparator.compare("007", "7"));
+        assertTrue(comparator.compare("0", "00001") < 0);
+        assertTrue(comparator.compare(null, "0") < 0);
+        assertTrue(comparator.compare("abc", "abd") < 0);
+        assertEquals(Long.valueOf(Long.MAX_VALUE).compareTo(Long.MAX_VALUE - 1),
+                comparator.compare(String.valueOf(Long.MAX_VALUE), String.valueOf(Long.MAX_VALUE - 1)));
+
+        List<DataEvent<String>> events = new ArrayList<DataEvent<String>>();
+        events.add(new DataEvent<String>("a", 9L));
+        events.add(new DataEvent<String>("b", "12"));
+        events.add(new DataEvent<String>("c", 100L));
+        events.add(new DataEvent<String>("d", 99L));
+        assertEquals(100L, events.get(2).getLongVersion());
+        assertEquals("100", events.get(2).getVersion());
+        assertEquals(DataEvent.NO_LONG_VERSION, events.get(1).getLongVersion());
+        assertEquals("100", ZoieConfig.DefaultVersionComparator.max(comparator, "15", events));
+        assertEquals("1000", ZoieConfig.DefaultVersionComparator.max(comparator, "1000", events));
+
+        // the same versions as String and as long pick the same latest event
+        int n = 1000;
+        List<DataEvent<String>> longEvents = new ArrayList<DataEvent<String>>(n);
+        List<DataEvent<String>> stringEvents = new ArrayList<DataEvent<String>>(n);
+        for (int i = 0; i < n; ++i) {
+            long version = 1000000000000L + i * 7919L % n;
+            longEvents.add(new DataEvent<String>(null, version));
+            stringEvents.add(new DataEvent<String>(null, String.valueOf(version)));
+        }
+        assertEquals(ZoieConfig.DefaultVersionComparator.max(comparator, null, stringEvents),
+                ZoieConfig.DefaultVersionComparator.max(comparator, null, longEvents));
+    }
+
+    @Test
+    public void testDocIDMapperBulkLookup() {
+        Random rand = new Random(1234);
+        long[] uidArray = new long[200000];
+        for (int i = 0; i < uidArray.length; ++i) {
+            uidArray[i] = (i % 7) == 0 ? ZoieSegmentReader.DELETED_UID : i * 3L;
+        }
+        DocIDMapperImpl mapper = new DocIDMapperImpl(uidArray);
+
+        long[] probes = new long[10000];
+        for (int i = 0; i < probes.length; ++i) {
+            probes[i] = rand.nextInt(uidArray.length * 4);
+        }
+        probes[0] = ZoieSegmentReader.DELETED_UID;
+        probes[1] = probes[2];
+        long[] probesCopy = probes.clone();
+
+        LongOpenHashSet expectedSet = new LongOpenHashSet();
+        IntArrayList expected = new IntArrayList();
+        for (long uid : probes) {
+            if (uid != ZoieSegmentReader.DELETED_UID) {
+                int docid = mapper.getDocID(uid);
+                if (docid != DocIDMapper.NOT_FOUND && expectedSet.add(docid)) {
+                    expected.add(docid);
+                }
+            }
+        }
+        int[] expectedArray = expected.toIntArray();
+        Arrays.sort(expectedArray);
+
+        int[] out = new int[probes.length];
+        int count = mapper.getDocIDs(probes, out);
+
+        assertTrue("probes must not be modified", Arrays.equals(probesCopy, probes));
+        assertTrue("wrong bulk result", Arrays.equals(expectedArray, Arrays.copyOf(out, count)));
+        assertTrue("wrong UIDDocIdSet mapping",
+                Arrays.equals(expectedArray, UIDDocIdSet.mapUID(probes, mapper)));
+
+        // a mapper implementing only DocIDMapper is looked up one uid at a time
+        final DocIDMapperImpl inner = mapper;
+        DocIDMapper plain = new DocIDMapper() {
+            @Override
+            public int getDocID(long uid) {
+                return inner.getDocID(uid);
+            }
+        };
+        out = new int[probes.length];
+        count = AbstractDocIDMapper.getDocIDs(plain, probes, out);
+        assertTrue("wrong fallback result", Arrays.equals(expectedArray, Arrays.copyOf(out, count)));
+        assertTrue("wrong UIDDocIdSet fallback mapping",
+                Arrays.equals(expectedArray, UIDDocIdSet.mapUID(probes, plain)));
+    }
+
+    /**
+     * indexes uids 0 to numDocs - 1, the store values of uids from docValuesFrom on are written as
+     * BinaryDocValues
+     */
+    private static ZoieMultiReader<IndexReader> openStoredValueIndex(RAMDirectory dir, int numDocs,
+                                                                    String prefix, int docValuesFrom) throws IOException {
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        for (long uid = 0; uid < numDocs; ++uid) {
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(uid), Store.YES));
+            ZoieSegmentReader.fillStoreValue(doc, (prefix + uid).getBytes("UTF-8"), uid >= docValuesFrom);
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+            if (uid % 1000 == 999) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                DirectoryReader.open(dir), null);
+        reader.setDocIDMapper(new DefaultDocIDMapperFactory().getDocIDMapper(reader));
+        return reader;
+    }
+
+    @Test
+    public void testGetStoredValues() throws IOException {
+        RAMDirectory freshDir = new RAMDirectory();
+        RAMDirectory oldDir = new RAMDirectory();
+        ZoieMultiReader<IndexReader> fresh = openStoredValueIndex(freshDir, 10, "new-", 10);
+        ZoieMultiReader<IndexReader> old = openStoredValueIndex(oldDir, 5000, "old-", 5000);
+        try {
+            // uid 7 was deleted after it was flushed
+            LongOpenHashSet delSet = new LongOpenHashSet();
+            delSet.add(7L);
+            old.markDeletes(delSet, new LongOpenHashSet());
+            old.commitDeletes();
+
+            List<ZoieMultiReader<IndexReader>> readers = new ArrayList<ZoieMultiReader<IndexReader>>();
+            readers.add(fresh);
+            readers.add(old);
+            Long2ObjectMap<BytesRef> values = ZoieMultiReader.getStoredValues(readers,
+                    new long[]{0L, 5L, 7L, 1500L, 4999L, 6000L});
+            assertEquals("new-0", values.get(0L).utf8ToString());
+            assertEquals("new-5", values.get(5L).utf8ToString());
+            assertEquals("new-7", values.get(7L).utf8ToString());
+            assertEquals("old-1500", values.get(1500L).utf8ToString());
+            assertEquals("old-4999", values.get(4999L).utf8ToString());
+            assertFalse(values.containsKey(6000L));
+
+            values = ZoieMultiReader.getStoredValues(
+                    Collections.singletonList(old), new long[]{6L, 7L});
+            assertEquals(1, values.size());
+            assertEquals("old-6", values.get(6L).utf8ToString());
+
+            // against a loop over getStoredValue
+            Random rand = new Random(7);
+            long[] uids = new long[500];
+            for (int i = 0; i < uids.length; ++i) {
+                uids[i] = rand.nextInt(5000);
+            }
+            Long2ObjectMap<BytesRef> expected = new Long2ObjectOpenHashMap<BytesRef>();
+            for (long uid : uids) {
+                BytesRef value = old.getStoredValue(uid);
+                if (value != null && uid != 7L) {
+                    expected.put(uid, value);
+                }
+            }
+            values = ZoieMultiReader.getStoredValues(Collections.singletonList(old), uids);
+            assertEquals(expected, values);
+        } finally {
+            fresh.decZoieRef();
+            old.decZoieRef();
+            freshDir.close();
+            oldDir.close();
+        }
+    }
+
+    @Test
+    public void testStoreValueAsDocValues() throws IOException {
+        RAMDirectory mixedDir = new RAMDirectory();
+        RAMDirectory storedDir = new RAMDirectory();
+        RAMDirectory docValuesDir = new RAMDirectory();
+        // segments written before and after the doc values were enabled
+        ZoieMultiReader<IndexReader> mixed = openStoredValueIndex(mixedDir, 3000, "v-", 1500);
+        ZoieMultiReader<IndexReader> stored = openStoredValueIndex(storedDir, 5000, "v-", 5000);
+        ZoieMultiReader<IndexReader> docValues = openStoredValueIndex(docValuesDir, 5000, "v-", 0);
+        try {
+            for (long uid = 0; uid < 3000; uid += 7) {
+                assertEquals("v-" + uid, mixed.getStoredValue(uid).utf8ToString());
+            }
+            assertEquals("v-1499", mixed.getStoredValue(1499L).utf8ToString());
+            assertEquals("v-1500", mixed.getStoredValue(1500L).utf8ToString());
+
+            Random rand = new Random(17);
+            long[] uids = new long[1000];
+            for (int i = 0; i < uids.length; ++i) {
+                uids[i] = rand.nextInt(5000);
+            }
+            Long2ObjectMap<BytesRef> storedValues = ZoieMultiReader.getStoredValues(
+                    Collections.singletonList(stored), uids);
+            Long2ObjectMap<BytesRef> docValuesValues = ZoieMultiReader.getStoredValues(
+                    Collections.singletonList(docValues), uids);
+            assertEquals(storedValues, docValuesValues);
+        } finally {
+            mixed.decZoieRef();
+            stored.decZoieRef();
+            docValues.decZoieRef();
+            mixedDir.close();
+            storedDir.close();
+            docValuesDir.close();
+        }
+
+        // values too long for doc values fall back to a stored field
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        byte[] large = new byte[ZoieSegmentReader.MAX_DOC_VALUES_STORE_LENGTH + 1];
+        Arrays.fill(large, (byte) 'x');
+        for (long uid = 0; uid < 2; ++uid) {
+            Document doc = new Document();
+            ZoieSegmentReader.fillStoreValue(doc, uid == 0 ? large : "small".getBytes("UTF-8"), true);
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+        }
+        writer.close();
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(DirectoryReader.open(dir),
+                null);
+        try {
+            reader.setDocIDMapper(new DefaultDocIDMapperFactory().getDocIDMapper(reader));
+            assertEquals(large.length, reader.getStoredValue(0L).length);
+            assertEquals("small", reader.getStoredValue(1L).utf8ToString());
+        } finally {
+            reader.decZoieRef();
+            dir.close();
+        }
+    }
+
+    @Test
+    public void testAdaptiveBatchController() {
+        AdaptiveBatchController controller = new AdaptiveBatchController(1000);
+        // cheap flushes and nothing queued, batches may grow
+        controller.update(100, 0, 10, 0, 100, 10000, 400);
+        assertTrue(controller.getEstimatedLag() < 500);
+        assertEquals(125, controller.getBatchSize());
+        assertEquals(450, controller.getDelay());
+        assertEquals(1, controller.getIncreases());
+        assertEquals(0, controller.getDecreases());
+
+        // slow flush and a backlog, flush sooner and keep one flush within the target
+        controller.update(125, 0, 2500, 5000, 125, 10000, 450);
+        assertTrue(controller.getEstimatedLag() > 1000);
+        assertEquals(225, controller.getDelay());
+        double costPerEvent = controller.getCostPerEventMicros() / 1000.0;
+        assertTrue(controller.getDelay() + controller.getBatchSize() * costPerEvent <= 1000);
+        assertEquals(1, controller.getDecreases());
+
+        // a single flush longer than the target shrinks the batch
+        int batchSize = controller.getBatchSize();
+        controller.update(batchSize, 0, 5000, 0, batchSize, 10000, controller.getDelay());
+        assertTrue(controller.getBatchSize() < batchSize);
+        assertTrue(controller.getDelay() >= AdaptiveBatchController.MIN_DELAY);
+        assertEquals(2, controller.getDecreases());
+    }
+
+    @Test
+    public void testDocIDMapperCarriedForwardOnDelete() throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        for (long uid = 0; uid < 10; ++uid) {
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(uid), Store.NO));
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+        }
+        writer.commit();
+
+        DefaultDocIDMapperFactory mapperFactory = new DefaultDocIDMapperFactory();
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                DirectoryReader.open(dir), null);
+        reader.setDocIDMapper(mapperFactory.getDocIDMapper(reader));
+        assertEquals(1, reader.getSubReaders().length);
+        int docid = reader.getDocIDMapper().getDocID(3L);
+        assertTrue(docid >= 0);
+
+        writer.deleteDocuments(new Term("id", "3"));
+        writer.commit();
+
+        ZoieMultiReader<IndexReader> newReader = reader.reopen();
+        try {
+            assertTrue(newReader != reader);
+            newReader.setDocIDMapper(mapperFactory.getDocIDMapper(newReader));
+            ZoieSegmentReader<IndexReader> subReader = newReader.getSubReaders()[0];
+            assertTrue("uid array should be carried forward", subReader.isLiveDocsOverlay());
+            assertTrue(subReader.getUIDArray() == reader.getSubReaders()[0].getUIDArray());
+            assertEquals(ZoieSegmentReader.DELETED_UID, subReader.getUID(docid));
+            assertEquals(DocIDMapper.NOT_FOUND, subReader.getDocIDMapper().getDocID(3L));
+            assertEquals(DocIDMapper.NOT_FOUND, newReader.getDocIDMapper().getDocID(3L));
+            assertEquals(reader.getDocIDMapper().getDocID(4L), newReader.getDocIDMapper().getDocID(4L));
+
+            LongOpenHashSet deleted = new LongOpenHashSet();
+            LongOpenHashSet delSet = new LongOpenHashSet();
+            delSet.add(3L);
+            delSet.add(5L);
+            subReader.markDeletes(delSet, deleted);
+            subReader.commitDeletes();
+            assertEquals(1, deleted.size());
+            assertTrue(deleted.contains(5L));
+            assertEquals(8, subReader.numDocs());
+        } finally {
+            newReader.decZoieRef();
+            reader.decZoieRef();
+            writer.close();
+            dir.close();
+        }
+    }
+
+    @Test
+    public void testCommitDeletesLiveDocs() throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        for (long uid = 0; uid < 10; ++uid) {
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(uid), Store.NO));
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+        }
+        writer.deleteDocuments(new Term("id", "2"));
+        writer.commit();
+
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                DirectoryReader.open(dir), null);
+        try {
+            reader.setDocIDMapper(new DefaultDocIDMapperFactory().getDocIDMapper(reader));
+            ZoieSegmentReader<IndexReader> subReader = reader.getSubReaders()[0];
+            assertEquals(9, subReader.numDocs());
+
+            LongOpenHashSet delSet = new LongOpenHashSet();
+            delSet.add(2L);
+            delSet.add(4L);
+            delSet.add(6L);
+            LongOpenHashSet deleted = new LongOpenHashSet();
+            subReader.markDeletes(delSet, deleted);
+            // not visible before commitDeletes
+            assertTrue(subReader.getLiveDocs().get(4));
+            subReader.commitDeletes();
+
+            Bits liveDocs = subReader.getLiveDocs();
+            assertTrue("liveDocs should be cached", liveDocs == subReader.getLiveDocs());
+            for (int docid = 0; docid < 10; ++docid) {
+                boolean live = docid != 2 && docid != 4 && docid != 6;
+                assertEquals(live, liveDocs.get(docid));
+                assertEquals(!live, subReader.isDeleted(docid));
+            }
+            assertEquals(7, subReader.numDocs());
+        } finally {
+            reader.decZoieRef();
+            writer.close();
+            dir.close();
+        }
+    }
+
+    @Test
+    public void testSegmentFilterCache() throws IOException {
+        RAMDirectory dir = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        for (long uid = 0; uid < 20; ++uid) {
+            Document doc = new Document();
+            doc.add(new StringField("type", uid % 2 == 0 ? "even" : "odd", Store.NO));
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+        }
+        writer.commit();
+
+        SegmentFilterCache cache = new SegmentFilterCache(1 << 20,
+                SegmentFilterCache.EvictionPolicy.LRU);
+        Filter even = cache.wrap(new QueryWrapperFilter(new TermQuery(new Term("type", "even"))));
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                DirectoryReader.open(dir), null);
+        try {
+            reader.setDocIDMapper(new DefaultDocIDMapperFactory().getDocIDMapper(reader));
+            IndexSearcher searcher = new IndexSearcher(reader);
+            assertEquals(10, searcher.search(new MatchAllDocsQuery(), even, 20).totalHits);
+            assertEquals(0, cache.getHits());
+            assertEquals(1, cache.getMisses());
+            assertEquals(10, searcher.search(new MatchAllDocsQuery(), even, 20).totalHits);
+            assertEquals(1, cache.getHits());
+
+            // a copy of the reader has the same deletes and reuses the entry
+            ZoieMultiReader<IndexReader> copy = reader.copy();
+            assertEquals(10, new IndexSearcher(copy).search(new MatchAllDocsQuery(), even, 20).totalHits);
+            assertEquals(2, cache.getHits());
+            copy.decZoieRef();
+
+            // deleting a document changes the delete generation of the segment
+            LongOpenHashSet delSet = new LongOpenHashSet();
+            delSet.add(4L);
+            reader.markDeletes(delSet, new LongOpenHashSet());
+            reader.commitDeletes();
+            assertEquals(9, searcher.search(new MatchAllDocsQuery(), even, 20).totalHits);
+            assertEquals(2, cache.getMisses());
+            assertEquals(2.0 / 4, cache.getHitRate(), 0.0001);
+
+            // an entry takes 40 bytes for 20 docs, a bound of one entry evicts on the next put
+            SegmentFilterCache small = new SegmentFilterCache(50, SegmentFilterCache.EvictionPolicy.LFU);
+            Filter smallEven = small.wrap(new QueryWrapperFilter(new TermQuery(new Term("type", "even"))));
+            Filter smallOdd = small.wrap(new QueryWrapperFilter(new TermQuery(new Term("type", "odd"))));
+            assertEquals(9, searcher.search(new MatchAllDocsQuery(), smallEven, 20).totalHits);
+            assertEquals(10, searcher.search(new MatchAllDocsQuery(), smallOdd, 20).totalHits);
+            assertEquals(1, small.size());
+            assertEquals(1, small.getEvictions());
+
+            // a purged core keeps its close listener, entries cached again do not add another
+            cache.purge(reader.getSubReaders()[0].getInnerReader().getCoreCacheKey());
+            assertEquals(0, cache.size());
+            assertEquals(9, searcher.search(new MatchAllDocsQuery(), even, 20).totalHits);
+            assertEquals(1, cache.getListenedCoreCount());
+        } finally {
+            reader.decZoieRef();
+            writer.close();
+            dir.close();
+        }
+        // closing the core drops its entries and its listener
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getListenedCoreCount());
+    }
+
+    @Test
+    public void testMMapDocIDMapper() throws IOException {
+        File idxDir = getIdxDir();
+        FSDirectory dir = FSDirectory.open(idxDir);
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        for (long uid = 0; uid < 100; ++uid) {
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(uid), Store.NO));
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+        }
+        // an update leaves the old version of uid 7 deleted in the same segment
+        Document doc = new Document();
+        doc.add(new StringField("id", "7", Store.NO));
+        ZoieSegmentReader.fillDocumentID(doc, 7L);
+        writer.updateDocument(new Term("id", "7"), doc);
+        writer.commit();
+
+        MMapDocIDMapperFactory mapperFactory = new MMapDocIDMapperFactory();
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                DirectoryReader.open(dir), null);
+        try {
+            reader.setDocIDMapper(mapperFactory.getDocIDMapper(reader));
+            ZoieSegmentReader<IndexReader> subReader = reader.getSubReaders()[0];
+            File sidecar = new File(idxDir, MMapDocIDMapperFactory.SIDECAR_PREFIX
+                    + subReader.getSegmentName() + MMapDocIDMapperFactory.SIDECAR_SUFFIX);
+            assertTrue(sidecar.exists());
+            // the uids are served by the mapper, the array is read on demand and not kept
+            long[] uidArray = subReader.getUIDArray();
+            assertTrue(uidArray != subReader.getUIDArray());
+            assertEquals(101, uidArray.length);
+            assertEquals(7L, uidArray[100]);
+
+            assertEquals(100, reader.getDocIDMapper().getDocID(7L));
+            assertEquals(ZoieSegmentReader.DELETED_UID, subReader.getUID(7));
+            assertEquals(7L, subReader.getUID(100));
+            for (long uid = 0; uid < 100; ++uid) {
+                if (uid != 7) {
+                    assertEquals((int) uid, reader.getDocIDMapper().getDocID(uid));
+                    assertEquals(uid, subReader.getUID((int) uid));
+                }
+            }
+            assertEquals(DocIDMapper.NOT_FOUND, reader.getDocIDMapper().getDocID(1000L));
+
+            // a fresh reader maps the existing sidecar, with its own deletions applied, and a new
+            // factory removes the sidecars of gone segments even though it writes none
+            writer.deleteDocuments(new Term("id", "3"));
+            writer.commit();
+            long lastModified = sidecar.lastModified();
+            File stale = new File(idxDir, MMapDocIDMapperFactory.SIDECAR_PREFIX + "_zz"
+                    + MMapDocIDMapperFactory.SIDECAR_SUFFIX);
+            assertTrue(stale.createNewFile());
+            ZoieMultiReader<IndexReader> newReader = new ZoieMultiReader<IndexReader>(
+                    DirectoryReader.open(dir), null);
+            try {
+                newReader.setDocIDMapper(new MMapDocIDMapperFactory().getDocIDMapper(newReader));
+                assertEquals(lastModified, sidecar.lastModified());
+                assertFalse(stale.exists());
+                for (String name : idxDir.list()) {
+                    assertFalse(name, name.endsWith(".tmp"));
+                }
+                assertEquals(DocIDMapper.NOT_FOUND, newReader.getDocIDMapper().getDocID(3L));
+                assertEquals(ZoieSegmentReader.DELETED_UID, newReader.getSubReaders()[0].getUID(3));
+                assertEquals(100, newReader.getDocIDMapper().getDocID(7L));
+            } finally {
+                newReader.decZoieRef();
+            }
+        } finally {
+            reader.decZoieRef();
+            writer.close();
+            dir.close();
+        }
+    }
+
+    /**
+     * writes uids 0 to 99, uid 7 updated, with <code>replaced</code> written instead of uid 50
+     */
+    private static void writeMMapTestIndex(FSDirectory dir, long replaced) throws IOException {
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        try {
+            for (long uid = 0; uid < 100; ++uid) {
+                long id = uid == 50 ? replaced : uid;
+                Document doc = new Document();
+                doc.add(new StringField("id", String.valueOf(id), Store.NO));
+                ZoieSegmentReader.fillDocumentID(doc, id);
+                writer.addDocument(doc);
+            }
+            Document doc = new Document();
+            doc.add(new StringField("id", "7", Store.NO));
+            ZoieSegmentReader.fillDocumentID(doc, 7L);
+            writer.updateDocument(new Term("id", "7"), doc);
+            writer.commit();
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void testMMapDocIDMapperStaleSidecar() throws IOException {
+        File idxDir = getIdxDir();
+        File otherDir = new File(getTmpDir(), "test-idx-stale");
+        deleteDirectory(otherDir);
+        FSDirectory dir = FSDirectory.open(idxDir);
+        FSDirectory other = FSDirectory.open(otherDir);
+        try {
+            writeMMapTestIndex(dir, 50L);
+            writeMMapTestIndex(other, 500L);
+            MMapDocIDMapperFactory mapperFactory = new MMapDocIDMapperFactory();
+            ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                    DirectoryReader.open(dir), null);
+            String segmentName = reader.getSubReaders()[0].getSegmentName();
+            try {
+                reader.setDocIDMapper(mapperFactory.getDocIDMapper(reader));
+                assertEquals(50, reader.getDocIDMapper().getDocID(50L));
+            } finally {
+                reader.decZoieRef();
+            }
+
+            // same segment size, first and last uid, only a uid in the middle differs
+            ZoieMultiReader<IndexReader> otherReader = new ZoieMultiReader<IndexReader>(
+                    DirectoryReader.open(other), null);
+            try {
+                File sidecar = new File(otherDir, MMapDocIDMapperFactory.SIDECAR_PREFIX
+                        + otherReader.getSubReaders()[0].getSegmentName()
+                        + MMapDocIDMapperFactory.SIDECAR_SUFFIX);
+                Files.copy(new File(idxDir, MMapDocIDMapperFactory.SIDECAR_PREFIX + segmentName
+                        + MMapDocIDMapperFactory.SIDECAR_SUFFIX).toPath(), sidecar.toPath());
+
+                otherReader.setDocIDMapper(mapperFactory.getDocIDMapper(otherReader));
+                ZoieSegmentReader<IndexReader> subReader = otherReader.getSubReaders()[0];
+                assertEquals(500L, subReader.getUIDArray()[50]);
+                assertEquals(50, otherReader.getDocIDMapper().getDocID(500L));
+                assertEquals(DocIDMapper.NOT_FOUND, otherReader.getDocIDMapper().getDocID(50L));
+                assertEquals(500L, subReader.getUID(50));
+                assertEquals(100, otherReader.getDocIDMapper().getDocID(7L));
+            } finally {
+                otherReader.decZoieRef();
+            }
+        } finally {
+            dir.close();
+            other.close();
+            deleteDirectory(otherDir);
+        }
+    }
+
+    @Test
+    public void testKeepDiskWriterOpen() throws ZoieException, IOException {
+        File idxDir = getIdxDir();
+        ZoieConfig config = new ZoieConfig();
+        config.setBatchSize(50);
+        config.setBatchDelay(2000);
+        config.setRtIndexing(true);
+        config.setVersionComparator(ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        config.setReadercachefactory(SimpleReaderCache.FACTORY);
+        config.setKeepDiskWriterOpen(true);
+        ZoieSystem<IndexReader, String> idxSystem = new ZoieSystem<IndexReader, String>(idxDir,
+                new DataInterpreterForTests(), new TestIndexReaderDecorator(), config);
+        idxSystem.start();
+        try {
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>();
+            for (int i = 0; i < DataForTests.testdata.length; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            idxSystem.consume(list);
+            idxSystem.flushEvents(100000);
+            assertEquals(10, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+            assertEquals(5, countHits(idxSystem, new TermQuery(new Term("contents", "even"))));
+
+            // updates delete the old documents on disk in the same session the RAM segments are added
+            for (int round = 0; round < 2; ++round) {
+                list = new ArrayList<DataEvent<String>>();
+                list.add(new DataEvent<String>("zoie odd " + (2 * round + 1), "" + (10 + round)));
+                idxSystem.consume(list);
+                idxSystem.flushEvents(100000);
+                assertEquals(10, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+                assertEquals(4 - round,
+                        countHits(idxSystem, new TermQuery(new Term("contents", "even"))));
+            }
+        } finally {
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testReaderSnapshot() throws ZoieException, IOException {
+        File idxDir = getIdxDir();
+        ZoieSystem<IndexReader, String> idxSystem = createZoie(idxDir, true,
+                ZoieConfig.DEFAULT_VERSION_COMPARATOR, true);
+        idxSystem.start();
+        try {
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>();
+            for (int i = 0; i < 5; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            idxSystem.consume(list);
+            idxSystem.flushEvents(100000);
+
+            // without changes the same readers are handed out again
+            List<ZoieMultiReader<IndexReader>> readers1 = idxSystem.getIndexReaders();
+            List<ZoieMultiReader<IndexReader>> readers2 = idxSystem.getIndexReaders();
+            assertEquals(readers1.size(), readers2.size());
+            for (int i = 0; i < readers1.size(); ++i) {
+                assertTrue(readers1.get(i) == readers2.get(i));
+            }
+            idxSystem.returnIndexReaders(readers2);
+
+            list = new ArrayList<DataEvent<String>>();
+            for (int i = 5; i < DataForTests.testdata.length; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            idxSystem.consume(list);
+            idxSystem.flushEvents(100000);
+            assertEquals(10, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+            assertEquals("9", idxSystem.getCurrentReaderVersion());
+
+            // readers taken before the change are still referenced until they are returned
+            for (ZoieMultiReader<IndexReader> reader : readers1) {
+                assertTrue(reader.getInnerRefCount() > 0);
+            }
+            idxSystem.returnIndexReaders(readers1);
+        } finally {
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testEpochReaderCache() throws ZoieException, IOException {
+        File idxDir = getIdxDir();
+        ZoieConfig config = new ZoieConfig();
+        config.setBatchSize(50);
+        config.setBatchDelay(2000);
+        config.setRtIndexing(true);
+        config.setVersionComparator(ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        config.setReadercachefactory(EpochReaderCache.FACTORY);
+        config.setFreshness(50);
+        ZoieSystem<IndexReader, String> idxSystem = new ZoieSystem<IndexReader, String>(idxDir,
+                new DataInterpreterForTests(), new TestIndexReaderDecorator(), config);
+        idxSystem.start();
+        try {
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>();
+            for (int i = 0; i < 5; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            idxSystem.consume(list);
+            idxSystem.flushEvents(100000);
+            List<ZoieMultiReader<IndexReader>> oldReaders = idxSystem.getIndexReaders();
+            assertFalse(oldReaders.isEmpty());
+            // a second search of the same epoch hands back a copy of its list
+            List<ZoieMultiReader<IndexReader>> copied = new ArrayList<ZoieMultiReader<IndexReader>>(
+                    idxSystem.getIndexReaders());
+
+            list = new ArrayList<DataEvent<String>>();
+            for (int i = 5; i < DataForTests.testdata.length; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            idxSystem.consume(list);
+            idxSystem.flushEvents(100000);
+            assertEquals(10, countHits(idxSystem, new TermQuery(new Term("contents", "zoie"))));
+
+            // the superseded readers stay open while the search holding them is in flight
+            for (ZoieMultiReader<IndexReader> reader : oldReaders) {
+                assertTrue(reader.tryIncZoieRef());
+                reader.decZoieRef();
+            }
+            idxSystem.returnIndexReaders(oldReaders);
+            for (ZoieMultiReader<IndexReader> reader : oldReaders) {
+                assertTrue(reader.tryIncZoieRef());
+                reader.decZoieRef();
+            }
+            idxSystem.returnIndexReaders(copied);
+            // and are released by the last search leaving the epoch
+            for (ZoieMultiReader<IndexReader> reader : oldReaders) {
+                assertFalse(reader.tryIncZoieRef());
+            }
+        } finally {
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    @Test
+    public void testEventDrivenRefresh() throws Exception {
+        File idxDir = getIdxDir();
+        ZoieConfig config = new ZoieConfig();
+        config.setBatchSize(10);
+        config.setBatchDelay(100);
+        config.setRtIndexing(true);
+        config.setVersionComparator(ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        // the polling interval alone would not refresh the readers within the test
+        config.setFreshness(600000);
+        config.setEventDrivenRefresh(true);
+        config.setRefreshCoalesceWindow(10);
+        ZoieSystem<IndexReader, String> idxSystem = new ZoieSystem<IndexReader, String>(idxDir,
+                new DataInterpreterForTests(), new TestIndexReaderDecorator(), config);
+        idxSystem.start();
+        try {
+            List<DataEvent<String>> list = new ArrayList<DataEvent<String>>();
+            for (int i = 0; i < DataForTests.testdata.length; ++i) {
+                list.add(new DataEvent<String>(DataForTests.testdata[i], "" + i));
+            }
+            idxSystem.consume(list);
+
+            Query q = new TermQuery(new Term("contents", "zoie"));
+            long deadline = System.currentTimeMillis() + 20000;
+            int hits = countHits(idxSystem, q);
+            while (hits < DataForTests.testdata.length && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+                hits = countHits(idxSystem, q);
+            }
+            assertEquals(DataForTests.testdata.length, hits);
+        } finally {
+            idxSystem.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
     @Test
     public void testExportImport() throws ZoieException, IOException {
         File idxDir = getIdxDir();
@@ -986,6 +2043,64 @@ public class ZoieTest extends ZoieTestCaseBase {
         }
     }
 
+    @Test
+    public void testEliasFanoDocIdSet() throws IOException {
+        Random rand = new Random(42);
+        int[] maxDocs = new int[]{1, 100, 5000, 1000000};
+        for (int maxDoc : maxDocs) {
+            for (int density : new int[]{1, 10, 1000}) {
+                IntArrayList docs = new IntArrayList();
+                for (int docid = 0; docid < maxDoc; ++docid) {
+                    if (rand.nextInt(density) == 0) {
+                        docs.add(docid);
+                    }
+                }
+                int[] docids = docs.toIntArray();
+                EliasFanoDocIdSet efSet = new EliasFanoDocIdSet(docids, docids.length, maxDoc);
+                ArrayDocIdSet arraySet = new ArrayDocIdSet(docids);
+
+                DocIdSetIterator efIter = efSet.iterator();
+                assertEquals(docids.length, efIter.cost());
+                for (int docid : docids) {
+                    assertEquals(docid, efIter.nextDoc());
+                }
+                assertEquals(DocIdSetIterator.NO_MORE_DOCS, efIter.nextDoc());
+
+                // advance by random strides, mixed with nextDoc
+                efIter = efSet.iterator();
+                DocIdSetIterator arrayIter = arraySet.iterator();
+                int target = 0;
+                while (true) {
+                    int expected = arrayIter.advance(target);
+                    assertEquals(expected, efIter.advance(target));
+                    if (expected == DocIdSetIterator.NO_MORE_DOCS) {
+                        break;
+                    }
+                    assertEquals(arrayIter.nextDoc(), efIter.nextDoc());
+                    if (arrayIter.docID() == DocIdSetIterator.NO_MORE_DOCS) {
+                        break;
+                    }
+                    target = arrayIter.docID() + 1 + rand.nextInt(Math.max(1, maxDoc / 10));
+                }
+            }
+        }
+
+        // large uid lists are compressed
+        long[] uids = new long[10000];
+        for (int i = 0; i < uids.length; ++i) {
+            uids[i] = i;
+        }
+        DocIDMapperImpl mapper = new DocIDMapperImpl(uids);
+        UIDDocIdSet uidSet = new UIDDocIdSet(uids, mapper, uids.length);
+        assertTrue(uidSet.isCompressed());
+        assertEquals(uids.length, uidSet.size());
+        DocIdSetIterator iter = uidSet.iterator();
+        assertEquals(uids.length, iter.cost());
+        assertEquals(5000, iter.advance(5000));
+        assertEquals(5001, iter.nextDoc());
+        assertEquals(DocIdSetIterator.NO_MORE_DOCS, iter.advance(uids.length));
+    }
+
     @Test
     public void testUIDDocIdSet() throws IOException {
         LongOpenHashSet uidset = new LongOpenHashSet();
@@ -0,0 +1,76 @@
+package proj.zoie.perf.bench;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import proj.zoie.api.DocIDMapper;
+import proj.zoie.api.UIDDocIdSet;
+import proj.zoie.api.ZoieSegmentReader;
+import proj.zoie.api.impl.DocIDMapperImpl;
+
+/**
+ * Maps a delete set of uids to sorted docids, one {@link DocIDMapper#getDocID(long)} at a time
+ * against the bulk {@link DocIDMapperImpl#getDocIDs(long[], int[])}.
+ * <p>
+ * arguments: [segment size] [number of uids] [rounds]
+ */
+public class DocIDMapperBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxDoc = MicroBenchmark.intArg(args, 0, 200000);
+        int numProbes = MicroBenchmark.intArg(args, 1, 10000);
+        int rounds = MicroBenchmark.intArg(args, 2, 200);
+
+        Random rand = new Random(1234);
+        long[] uidArray = new long[maxDoc];
+        for (int i = 0; i < uidArray.length; ++i) {
+            uidArray[i] = (i % 7) == 0 ? ZoieSegmentReader.DELETED_UID : i * 3L;
+        }
+        final DocIDMapperImpl mapper = new DocIDMapperImpl(uidArray);
+        final long[] probes = new long[numProbes];
+        for (int i = 0; i < probes.length; ++i) {
+            probes[i] = rand.nextInt(maxDoc * 4);
+        }
+        System.out.println("mapping " + numProbes + " uids on a segment of " + maxDoc + " documents");
+
+        MicroBenchmark loop = new MicroBenchmark("loop") {
+            @Override
+            protected Object run() {
+                LongOpenHashSet seen = new LongOpenHashSet();
+                IntArrayList docids = new IntArrayList();
+                for (long uid : probes) {
+                    int docid = mapper.getDocID(uid);
+                    if (docid != DocIDMapper.NOT_FOUND && seen.add(docid)) {
+                        docids.add(docid);
+                    }
+                }
+                int[] sorted = docids.toIntArray();
+                Arrays.sort(sorted);
+                return sorted;
+            }
+        };
+        MicroBenchmark bulk = new MicroBenchmark("bulk") {
+            @Override
+            protected Object run() {
+                int[] out = new int[probes.length];
+                return Arrays.copyOf(out, mapper.getDocIDs(probes, out));
+            }
+        };
+        MicroBenchmark docIdSet = new MicroBenchmark("UIDDocIdSet.mapUID") {
+            @Override
+            protected Object run() {
+                return UIDDocIdSet.mapUID(probes, mapper);
+            }
+        };
+        int warmup = Math.max(1, rounds / 4);
+        loop.measure(warmup, rounds);
+        bulk.measure(warmup, rounds);
+        docIdSet.measure(warmup, rounds);
+        if (!Arrays.equals((int[]) loop.getLastResult(), (int[]) bulk.getLastResult())) {
+            throw new IllegalStateException("bulk lookup disagrees with the loop");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package proj.zoie.perf.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.Version;
+
+import proj.zoie.api.DataConsumer.DataEvent;
+import proj.zoie.api.DefaultDirectoryManager;
+import proj.zoie.api.indexing.AbstractZoieIndexable;
+import proj.zoie.api.indexing.AbstractZoieIndexableInterpreter;
+import proj.zoie.api.indexing.ZoieIndexable;
+import proj.zoie.impl.indexing.DefaultIndexReaderDecorator;
+import proj.zoie.impl.indexing.ZoieConfig;
+import proj.zoie.impl.indexing.ZoieSystem;
+
+/**
+ * Feeds the same stream of events through a {@link ZoieSystem} into a fresh index, once with
+ * String versions and once with long versions, and reports the ingest rate up to the flush to
+ * disk.
+ * <p>
+ * arguments: [number of events] [batch size] [index directory]
+ */
+public class IngestBenchmark {
+
+    private static final String[] WORDS = {"zoie", "realtime", "search", "index", "lucene",
+            "segment", "version", "event", "batch", "disk"};
+
+    static class Interpreter extends AbstractZoieIndexableInterpreter<Long> {
+        @Override
+        public ZoieIndexable convertAndInterpret(final Long src) {
+            return new AbstractZoieIndexable() {
+                @Override
+                public IndexingReq[] buildIndexingReqs() {
+                    long uid = src.longValue();
+                    StringBuilder text = new StringBuilder();
+                    for (int i = 0; i < 8; ++i) {
+                        text.append(WORDS[(int) ((uid >> i) % WORDS.length)]).append(' ');
+                    }
+                    Document doc = new Document();
+                    doc.add(new TextField("contents", text.toString(), Store.NO));
+                    return new IndexingReq[]{new IndexingReq(doc)};
+                }
+
+                @Override
+                public long getUID() {
+                    return src.longValue();
+                }
+
+                @Override
+                public boolean isDeleted() {
+                    return false;
+                }
+            };
+        }
+    }
+
+    /**
+     * @return nanoseconds from the first event fed to the end of the flush to disk
+     */
+    static long ingest(File idxDir, int numEvents, int batchSize, boolean longVersions)
+            throws Exception {
+        deleteDirectory(idxDir);
+        ZoieConfig config = new ZoieConfig();
+        config.setAnalyzer(new StandardAnalyzer(Version.LUCENE_43));
+        config.setBatchSize(batchSize);
+        config.setBatchDelay(60000);
+        config.setRtIndexing(true);
+        config.setVersionComparator(ZoieConfig.DEFAULT_VERSION_COMPARATOR);
+        ZoieSystem<IndexReader, Long> zoie = new ZoieSystem<IndexReader, Long>(
+                new DefaultDirectoryManager(idxDir), new Interpreter(),
+                new DefaultIndexReaderDecorator(), config);
+        zoie.start();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < numEvents; i += batchSize) {
+                int end = Math.min(numEvents, i + batchSize);
+                List<DataEvent<Long>> events = new ArrayList<DataEvent<Long>>(end - i);
+                for (long uid = i; uid < end; ++uid) {
+                    if (longVersions) {
+                        events.add(new DataEvent<Long>(uid, uid));
+                    } else {
+                        events.add(new DataEvent<Long>(uid, String.valueOf(uid)));
+                    }
+                }
+                zoie.consume(events);
+            }
+            zoie.flushEvents(600000);
+            return System.nanoTime() - start;
+        } finally {
+            zoie.shutdown();
+            deleteDirectory(idxDir);
+        }
+    }
+
+    static void deleteDirectory(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                deleteDirectory(file);
+            }
+        }
+        dir.delete();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numEvents = MicroBenchmark.intArg(args, 0, 200000);
+        int batchSize = MicroBenchmark.intArg(args, 1, 1000);
+        File baseDir = args.length > 2 ? new File(args[2]) : new File(
+                System.getProperty("java.io.tmpdir"), "zoie-ingest-bench");
+
+        // an unreported run warms up the indexing path
+        ingest(new File(baseDir, "warmup"), numEvents, batchSize, false);
+        for (boolean longVersions : new boolean[]{false, true}) {
+            long time = ingest(new File(baseDir, longVersions ? "long" : "string"), numEvents,
+                    batchSize, longVersions);
+            System.out.println((longVersions ? "long" : "String") + " versions: " + numEvents
+                    + " events in " + time / 1000000 + "ms, " + numEvents * 1000000000L / time
+                    + " events/s");
+        }
+    }
+}
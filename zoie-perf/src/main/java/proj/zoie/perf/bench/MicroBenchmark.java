@@ -0,0 +1,45 @@
+package proj.zoie.perf.bench;
+
+/**
+ * Times a piece of work over a number of rounds after a warmup, for the benchmarks run from the
+ * command line.
+ */
+public abstract class MicroBenchmark {
+
+    private final String _name;
+    // the result of the last round, kept so that the JIT cannot drop the work
+    private Object _sink;
+
+    protected MicroBenchmark(String name) {
+        _name = name;
+    }
+
+    /**
+     * @return anything derived from the work done in the round
+     */
+    protected abstract Object run() throws Exception;
+
+    /**
+     * @return average time of a round in nanoseconds
+     */
+    public long measure(int warmup, int rounds) throws Exception {
+        for (int i = 0; i < warmup; ++i) {
+            _sink = run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; ++i) {
+            _sink = run();
+        }
+        long time = (System.nanoTime() - start) / rounds;
+        System.out.println(_name + ": " + time / 1000 + "us per round");
+        return time;
+    }
+
+    public Object getLastResult() {
+        return _sink;
+    }
+
+    static int intArg(String[] args, int i, int defaultValue) {
+        return args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+    }
+}
@@ -0,0 +1,125 @@
+package proj.zoie.perf.bench;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+
+import proj.zoie.api.ZoieMultiReader;
+import proj.zoie.api.ZoieSegmentReader;
+import proj.zoie.api.impl.DefaultDocIDMapperFactory;
+
+/**
+ * Reads the store values of a list of uids, one {@link ZoieMultiReader#getStoredValue(long)} at a
+ * time against the bulk {@link ZoieMultiReader#getStoredValues(List, long[])}, then the bulk read
+ * of values kept in stored fields against values kept in binary doc values.
+ * <p>
+ * arguments: [number of documents] [number of uids] [rounds]
+ */
+public class StoredValuesBenchmark {
+
+    /**
+     * indexes uids 0 to numDocs - 1 in segments of 1000 documents
+     */
+    static ZoieMultiReader<IndexReader> openIndex(RAMDirectory dir, int numDocs, boolean docValues)
+            throws IOException {
+        IndexWriter writer = new IndexWriter(dir, new IndexWriterConfig(Version.LUCENE_43,
+                new WhitespaceAnalyzer(Version.LUCENE_43)));
+        for (long uid = 0; uid < numDocs; ++uid) {
+            Document doc = new Document();
+            doc.add(new StringField("id", String.valueOf(uid), Store.YES));
+            ZoieSegmentReader.fillStoreValue(doc, ("value-" + uid).getBytes("UTF-8"), docValues);
+            ZoieSegmentReader.fillDocumentID(doc, uid);
+            writer.addDocument(doc);
+            if (uid % 1000 == 999) {
+                writer.commit();
+            }
+        }
+        writer.close();
+        ZoieMultiReader<IndexReader> reader = new ZoieMultiReader<IndexReader>(
+                DirectoryReader.open(dir), null);
+        reader.setDocIDMapper(new DefaultDocIDMapperFactory().getDocIDMapper(reader));
+        return reader;
+    }
+
+    static long[] randomUIDs(int numUIDs, int numDocs) {
+        Random rand = new Random(7);
+        long[] uids = new long[numUIDs];
+        for (int i = 0; i < uids.length; ++i) {
+            uids[i] = rand.nextInt(numDocs);
+        }
+        return uids;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int numDocs = MicroBenchmark.intArg(args, 0, 50000);
+        int numUIDs = MicroBenchmark.intArg(args, 1, 500);
+        int rounds = MicroBenchmark.intArg(args, 2, 200);
+
+        RAMDirectory dir = new RAMDirectory();
+        RAMDirectory docValuesDir = new RAMDirectory();
+        final ZoieMultiReader<IndexReader> reader = openIndex(dir, numDocs, false);
+        final ZoieMultiReader<IndexReader> docValuesReader = openIndex(docValuesDir, numDocs, true);
+        final List<ZoieMultiReader<IndexReader>> readers = Collections.singletonList(reader);
+        final long[] uids = randomUIDs(numUIDs, numDocs);
+        System.out.println("reading " + numUIDs + " store values from " + numDocs + " documents");
+        try {
+            MicroBenchmark loop = new MicroBenchmark("loop") {
+                @Override
+                protected Object run() throws IOException {
+                    Long2ObjectMap<BytesRef> values = new Long2ObjectOpenHashMap<BytesRef>();
+                    for (long uid : uids) {
+                        BytesRef value = reader.getStoredValue(uid);
+                        if (value != null) {
+                            values.put(uid, value);
+                        }
+                    }
+                    return values;
+                }
+            };
+            MicroBenchmark bulk = new MicroBenchmark("bulk") {
+                @Override
+                protected Object run() throws IOException {
+                    return ZoieMultiReader.getStoredValues(readers, uids);
+                }
+            };
+            MicroBenchmark docValues = new MicroBenchmark("bulk, doc values") {
+                @Override
+                protected Object run() throws IOException {
+                    return ZoieMultiReader.getStoredValues(
+                            Collections.singletonList(docValuesReader), uids);
+                }
+            };
+            int warmup = Math.max(1, rounds / 4);
+            loop.measure(warmup, rounds);
+            bulk.measure(warmup, rounds);
+            docValues.measure(warmup, rounds);
+            if (!loop.getLastResult().equals(bulk.getLastResult())) {
+                throw new IllegalStateException("bulk read disagrees with the loop");
+            }
+            if (!bulk.getLastResult().equals(docValues.getLastResult())) {
+                throw new IllegalStateException("doc values disagree with stored fields");
+            }
+        } finally {
+            reader.decZoieRef();
+            docValuesReader.decZoieRef();
+            dir.close();
+            docValuesDir.close();
+        }
+    }
+}
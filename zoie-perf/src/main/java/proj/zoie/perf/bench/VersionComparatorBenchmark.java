@@ -0,0 +1,51 @@
+package proj.zoie.perf.bench;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import proj.zoie.api.DataConsumer.DataEvent;
+import proj.zoie.impl.indexing.ZoieConfig;
+
+/**
+ * Finds the latest of a batch of events with {@link ZoieConfig#DEFAULT_VERSION_COMPARATOR}, for
+ * events carrying only String versions against events carrying long versions.
+ * <p>
+ * arguments: [number of events] [rounds]
+ */
+public class VersionComparatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int numEvents = MicroBenchmark.intArg(args, 0, 1000000);
+        int rounds = MicroBenchmark.intArg(args, 1, 20);
+
+        final Comparator<String> comparator = ZoieConfig.DEFAULT_VERSION_COMPARATOR;
+        final List<DataEvent<String>> stringEvents = new ArrayList<DataEvent<String>>(numEvents);
+        final List<DataEvent<String>> longEvents = new ArrayList<DataEvent<String>>(numEvents);
+        for (int i = 0; i < numEvents; ++i) {
+            long version = 1000000000000L + i * 7919L % numEvents;
+            stringEvents.add(new DataEvent<String>(null, String.valueOf(version)));
+            longEvents.add(new DataEvent<String>(null, version));
+        }
+        System.out.println("latest of " + numEvents + " events");
+
+        MicroBenchmark strings = new MicroBenchmark("String versions") {
+            @Override
+            protected Object run() {
+                return ZoieConfig.DefaultVersionComparator.max(comparator, null, stringEvents);
+            }
+        };
+        MicroBenchmark longs = new MicroBenchmark("long versions") {
+            @Override
+            protected Object run() {
+                return ZoieConfig.DefaultVersionComparator.max(comparator, null, longEvents);
+            }
+        };
+        int warmup = Math.max(1, rounds / 4);
+        strings.measure(warmup, rounds);
+        longs.measure(warmup, rounds);
+        if (!strings.getLastResult().equals(longs.getLastResult())) {
+            throw new IllegalStateException("long versions disagree with String versions");
+        }
+    }
+}
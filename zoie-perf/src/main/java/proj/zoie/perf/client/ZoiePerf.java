@@ -31,11 +31,14 @@ import proj.zoie.api.DirectoryManager;
 import proj.zoie.api.DirectoryManager.DIRECTORY_MODE;
 import proj.zoie.api.LifeCycleCotrolledDataConsumer;
 import proj.zoie.api.ZoieException;
+import proj.zoie.api.impl.MMapDocIDMapperFactory;
 import proj.zoie.api.indexing.IndexReaderDecorator;
 import proj.zoie.impl.indexing.DefaultIndexReaderDecorator;
+import proj.zoie.impl.indexing.EpochReaderCache;
 import proj.zoie.impl.indexing.SimpleReaderCache;
 import proj.zoie.impl.indexing.ZoieConfig;
 import proj.zoie.impl.indexing.ZoieSystem;
+import proj.zoie.impl.indexing.internal.EventRingBuffer.WaitStrategy;
 import proj.zoie.perf.indexing.LinedFileDataProvider;
 import proj.zoie.perf.indexing.TweetInterpreter;
 import proj.zoie.perf.servlet.ZoiePerfServlet;
@@ -85,7 +88,23 @@ public class ZoiePerf {
         zoieConfig.setMaxBatchSize(100000);
         zoieConfig.setRtIndexing(true);
         zoieConfig.setVersionComparator(ZoiePerfVersion.COMPARATOR);
-        zoieConfig.setReadercachefactory(SimpleReaderCache.FACTORY);
+        if ("epoch".equals(conf.getString("readerCache", "simple"))) {
+            zoieConfig.setReadercachefactory(EpochReaderCache.FACTORY);
+        } else {
+            zoieConfig.setReadercachefactory(SimpleReaderCache.FACTORY);
+        }
+        zoieConfig.setNearRealtimeRamIndex(conf.getBoolean("ramIndex.nrt", false));
+        zoieConfig.setInterpretationThreads(conf.getInt("interpretationThreads", 1));
+        zoieConfig.setIndexingThreads(conf.getInt("indexingThreads", 1));
+        zoieConfig.setRingBufferSize(conf.getInt("ringBuffer.size", 0));
+        zoieConfig.setRingBufferWaitStrategy(WaitStrategy.valueOf(conf.getString(
+                "ringBuffer.waitStrategy", WaitStrategy.PARK.name())));
+        zoieConfig.setKeepDiskWriterOpen(conf.getBoolean("diskWriter.keepOpen", false));
+        zoieConfig.setStoreValueAsDocValues(conf.getBoolean("store.docValues", false));
+        zoieConfig.setTargetIndexingLag(conf.getLong("targetLag", 0L));
+        if (conf.getBoolean("docidMapper.mmap", false)) {
+            zoieConfig.setDocidMapperFactory(new MMapDocIDMapperFactory());
+        }
 
         String modeConf = topConf.getString("perf.directory.type", "file");
         DIRECTORY_MODE mode = modeMap.get(modeConf);
@@ -287,6 +306,8 @@ public class ZoiePerf {
 
         dataProvider.setBatchSize(feedBatchSize);
 
+        dataProvider.setPipelineDepth(conf.getInt("perf.feed.pipelineDepth", 0));
+
         dataProvider.setDataConsumer(testHandler.consumer);
 
         testHandler.consumer.start();